@@ -0,0 +1,185 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache seguro para uso concorrente, com estatísticas de acertos e falhas.
+ * <p>
+ * As leituras não usam lock. Quando a capacidade é atingida, as entradas
+ * acessadas há mais tempo são removidas, na quantidade definida pela política
+ * de limpeza.
+ * 
+ * @author Thiago
+ */
+public class ConcurrentCache<K, V> implements Cache<K, V> {
+
+    private static class CacheEntry<K, V> {
+        final K key;
+        final V value;
+        volatile long lastAccess;
+
+        CacheEntry(K key, V value) {
+            this.key = key;
+            this.value = value;
+            this.lastAccess = System.nanoTime();
+        }
+    }
+
+    private final ConcurrentHashMap<K, CacheEntry<K, V>> map;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private volatile int cacheCapacity;
+    private volatile int cleanPolicy;
+
+    public ConcurrentCache() {
+        this(1000, 100);
+    }
+
+    public ConcurrentCache(int cacheCapacity, int cleanPolicy) {
+        setCacheCapacity(cacheCapacity);
+        setCleanPolicy(cleanPolicy);
+        map = new ConcurrentHashMap<K, CacheEntry<K, V>>(Math.min(cacheCapacity, 1024));
+    }
+
+    public void setCacheCapacity(int cacheCapacity) {
+        if (cacheCapacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be greater than zero");
+        }
+        this.cacheCapacity = cacheCapacity;
+    }
+
+    public void setCleanPolicy(int cleanPolicy) {
+        if (cleanPolicy <= 0) {
+            throw new IllegalArgumentException("Clean policy must be greater than zero");
+        }
+        this.cleanPolicy = cleanPolicy;
+    }
+
+    public V get(K key) {
+        CacheEntry<K, V> entry = map.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.lastAccess = System.nanoTime();
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    public V put(K key, V value) {
+        map.put(key, new CacheEntry<K, V>(key, value));
+        ensureCapacity();
+        return value;
+    }
+
+    /**
+     * Adiciona o valor somente se não existir um valor para a chave
+     * 
+     * @return o valor que ficou no cache
+     */
+    public V putIfAbsent(K key, V value) {
+        CacheEntry<K, V> previous = map.putIfAbsent(key, new CacheEntry<K, V>(key, value));
+        if (previous != null) {
+            return previous.value;
+        }
+        ensureCapacity();
+        return value;
+    }
+
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    public V remove(K key) {
+        CacheEntry<K, V> entry = map.remove(key);
+        return entry == null ? null : entry.value;
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * @return uma cópia dos valores guardados, sem alterar o último acesso
+     */
+    public List<V> values() {
+        List<V> result = new ArrayList<V>(map.size());
+        for (CacheEntry<K, V> entry : map.values()) {
+            result.add(entry.value);
+        }
+        return result;
+    }
+
+    /**
+     * @return as estatísticas de uso do cache
+     */
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics(hits.get(), misses.get(), evictions.get(), map.size());
+    }
+
+    /**
+     * Zera os contadores de acertos, falhas e remoções
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    private void ensureCapacity() {
+        if (map.size() <= cacheCapacity) {
+            return;
+        }
+        synchronized (this) {
+            int excess = map.size() - cacheCapacity;
+            if (excess <= 0) {
+                return;
+            }
+            List<CacheEntry<K, V>> entries = new ArrayList<CacheEntry<K, V>>(map.values());
+            Collections.sort(entries, new Comparator<CacheEntry<K, V>>() {
+                public int compare(CacheEntry<K, V> o1, CacheEntry<K, V> o2) {
+                    return o1.lastAccess < o2.lastAccess ? -1 : (o1.lastAccess == o2.lastAccess ? 0 : 1);
+                }
+            });
+            int count = Math.min(entries.size(), Math.max(excess, cleanPolicy));
+            for (int i = 0; i < count; i++) {
+                CacheEntry<K, V> entry = entries.get(i);
+                if (map.remove(entry.key, entry)) {
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,578 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Gera, em tempo de execução, as classes que acessam as propriedades dos VOs
+ * sem usar reflection.
+ * <p>
+ * Para cada setter (ou campo público) é gerada uma subclasse de
+ * {@link PropertyWriter} que faz a chamada diretamente, e para cada getter uma
+ * subclasse de {@link PropertyReader}. Quando a geração não é
+ * possível (classe ou membro não público, por exemplo) ou está desabilitada,
+ * é usado o acesso via reflection.
+ * 
+ * @author Thiago
+ */
+final class AccessorGenerator {
+
+    private static final String GENERATED_PACKAGE = "saci.util.jdbc.generated.";
+    private static final AtomicInteger sequence = new AtomicInteger();
+    private static final Map<ClassLoader, WeakReference<GeneratedClassLoader>> loaders = new WeakHashMap<ClassLoader, WeakReference<GeneratedClassLoader>>();
+    private static volatile boolean enabled = true;
+
+    private AccessorGenerator() {
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void setEnabled(boolean enabled) {
+        AccessorGenerator.enabled = enabled;
+        synchronized (loaders) {
+            loaders.clear();
+        }
+    }
+
+    static PropertyWriter writer(Method method) {
+        GeneratedClassLoader loader = loader(method.getDeclaringClass());
+        PropertyWriter writer = loader.writers.get(method);
+        if (writer == null) {
+            Class<?> type = method.getParameterTypes()[0];
+            if (enabled && !isUnsupported(type) && isAccessible(method, type)) {
+                writer = generate(loader, method, type);
+            }
+            if (writer == null) {
+                writer = new ReflectiveWriter(method, null, type);
+            }
+            loader.writers.put(method, writer);
+        }
+        return writer;
+    }
+
+    static PropertyWriter writer(Field field) {
+        GeneratedClassLoader loader = loader(field.getDeclaringClass());
+        PropertyWriter writer = loader.writers.get(field);
+        if (writer == null) {
+            Class<?> type = field.getType();
+            if (enabled && !isUnsupported(type) && isAccessible(field, type)
+                    && !Modifier.isFinal(field.getModifiers())) {
+                writer = generate(loader, field, type);
+            }
+            if (writer == null) {
+                writer = new ReflectiveWriter(null, field, type);
+            }
+            loader.writers.put(field, writer);
+        }
+        return writer;
+    }
+
+    static PropertyReader reader(Method method) {
+        GeneratedClassLoader loader = loader(method.getDeclaringClass());
+        PropertyReader reader = loader.readers.get(method);
+        if (reader == null) {
+            Class<?> type = method.getReturnType();
+            if (enabled && !isUnsupported(type) && isAccessible(method, type)) {
+                reader = (PropertyReader) generate(loader, method, type, false);
+            }
+            if (reader == null) {
+                reader = new ReflectiveReader(method, type);
+            }
+            loader.readers.put(method, reader);
+        }
+        return reader;
+    }
+
+    /**
+     * byte, short e char não têm métodos tipados no {@link PropertyWriter} e no
+     * {@link PropertyReader}, e são acessados via reflection
+     */
+    private static boolean isUnsupported(Class<?> type) {
+        return type.isPrimitive() && PropertyWriter.kindOf(type) == PropertyWriter.OBJECT;
+    }
+
+    private static boolean isAccessible(Member member, Class<?> type) {
+        return Modifier.isPublic(member.getModifiers()) && !Modifier.isStatic(member.getModifiers())
+                && Modifier.isPublic(member.getDeclaringClass().getModifiers()) && isVisible(type);
+    }
+
+    private static boolean isVisible(Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        return type.isPrimitive() || Modifier.isPublic(type.getModifiers());
+    }
+
+    private static PropertyWriter generate(GeneratedClassLoader loader, Member member, Class<?> type) {
+        return (PropertyWriter) generate(loader, member, type, true);
+    }
+
+    private static Object generate(GeneratedClassLoader loader, Member member, Class<?> type, boolean writer) {
+        Class<?> owner = member.getDeclaringClass();
+        String className = GENERATED_PACKAGE + owner.getSimpleName() + "$" + member.getName() + "$"
+                + sequence.incrementAndGet();
+        try {
+            String internalName = className.replace('.', '/');
+            byte[] bytecode = writer ? writerClass(internalName, member, type) : readerClass(internalName,
+                    (Method) member, type);
+            Class<?> generated = loader.define(className, bytecode);
+            return generated.getConstructor(Class.class).newInstance(type);
+        } catch (Throwable e) {
+            if (DbUtil.logger.isLoggable(Level.INFO)) {
+                DbUtil.logger.log(Level.INFO, "Could not generate accessor for " + member + ", using reflection", e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * O class loader das classes geradas para os VOs de um class loader, que
+     * também guarda os acessores já criados. O mapa só tem referências fracas,
+     * para não impedir que o class loader da aplicação seja descartado (em um
+     * redeploy, por exemplo): o class loader gerado é mantido pelas classes
+     * geradas que ainda estão em uso.
+     */
+    private static GeneratedClassLoader loader(Class<?> owner) {
+        ClassLoader parent = owner.getClassLoader();
+        if (parent == null) {
+            parent = PropertyWriter.class.getClassLoader();
+        }
+        synchronized (loaders) {
+            WeakReference<GeneratedClassLoader> ref = loaders.get(parent);
+            GeneratedClassLoader loader = ref == null ? null : ref.get();
+            if (loader == null) {
+                loader = new GeneratedClassLoader(parent);
+                loaders.put(parent, new WeakReference<GeneratedClassLoader>(loader));
+            }
+            return loader;
+        }
+    }
+
+    /**
+     * Gera a classe:
+     * 
+     * <pre>
+     * public final class X extends PropertyWriter {
+     *     public X(Class type) { super(type); }
+     *     public void setInt(Object bean, int value) { ((Owner) bean).setProperty(value); }
+     * }
+     * </pre>
+     * 
+     * O método sobrescrito depende do tipo da propriedade (<code>setInt</code>,
+     * <code>setLong</code>, ..., <code>setObject</code>).
+     */
+    private static byte[] writerClass(String className, Member member, Class<?> type) throws IOException {
+        ConstantPool cp = new ConstantPool();
+        String owner = internalName(member.getDeclaringClass());
+        int ownerClass = cp.classRef(owner);
+        int target;
+        int pop = 0;
+        if (member instanceof Method) {
+            Method method = (Method) member;
+            String descriptor = "(" + descriptor(type) + ")" + descriptor(method.getReturnType());
+            target = cp.methodRef(owner, method.getName(), descriptor);
+            if (!method.getReturnType().equals(Void.TYPE)) {
+                pop = method.getReturnType().equals(Long.TYPE) || method.getReturnType().equals(Double.TYPE) ? 0x58
+                        : 0x57;
+            }
+        } else {
+            target = cp.fieldRef(owner, member.getName(), descriptor(type));
+        }
+        int kind = PropertyWriter.kindOf(type);
+        int typeClass = kind == PropertyWriter.OBJECT && !type.equals(Object.class) ? cp.classRef(internalName(type))
+                : 0;
+        String methodName;
+        String methodDescriptor;
+        int load;
+        switch (kind) {
+        case PropertyWriter.INT:
+            methodName = "setInt";
+            methodDescriptor = "(Ljava/lang/Object;I)V";
+            load = 0x1C; // iload_2
+            break;
+        case PropertyWriter.LONG:
+            methodName = "setLong";
+            methodDescriptor = "(Ljava/lang/Object;J)V";
+            load = 0x20; // lload_2
+            break;
+        case PropertyWriter.FLOAT:
+            methodName = "setFloat";
+            methodDescriptor = "(Ljava/lang/Object;F)V";
+            load = 0x24; // fload_2
+            break;
+        case PropertyWriter.DOUBLE:
+            methodName = "setDouble";
+            methodDescriptor = "(Ljava/lang/Object;D)V";
+            load = 0x28; // dload_2
+            break;
+        case PropertyWriter.BOOLEAN:
+            methodName = "setBoolean";
+            methodDescriptor = "(Ljava/lang/Object;Z)V";
+            load = 0x1C; // iload_2
+            break;
+        default:
+            if (type.isPrimitive()) {
+                throw new IllegalArgumentException("Unsupported primitive type " + type);
+            }
+            methodName = "setObject";
+            methodDescriptor = "(Ljava/lang/Object;Ljava/lang/Object;)V";
+            load = 0x2C; // aload_2
+        }
+        ByteArrayOutputStream set = new ByteArrayOutputStream();
+        set.write(0x2B); // aload_1
+        set.write(0xC0); // checkcast
+        writeShort(set, ownerClass);
+        set.write(load);
+        if (typeClass != 0) {
+            set.write(0xC0); // checkcast
+            writeShort(set, typeClass);
+        }
+        set.write(member instanceof Method ? 0xB6 : 0xB5); // invokevirtual : putfield
+        writeShort(set, target);
+        if (pop != 0) {
+            set.write(pop);
+        }
+        set.write(0xB1); // return
+        return classFile(cp, className, PropertyWriter.class, methodName, methodDescriptor, set.toByteArray(), 4, 4);
+    }
+
+    /**
+     * Gera a classe:
+     * 
+     * <pre>
+     * public final class X extends PropertyReader {
+     *     public X(Class type) { super(type); }
+     *     public int getInt(Object bean) { return ((Owner) bean).getProperty(); }
+     * }
+     * </pre>
+     * 
+     * O método sobrescrito depende do tipo da propriedade (<code>getInt</code>,
+     * <code>getLong</code>, ..., <code>getObject</code>).
+     */
+    private static byte[] readerClass(String className, Method method, Class<?> type) throws IOException {
+        ConstantPool cp = new ConstantPool();
+        String owner = internalName(method.getDeclaringClass());
+        int ownerClass = cp.classRef(owner);
+        int target = cp.methodRef(owner, method.getName(), "()" + descriptor(type));
+        String methodName;
+        String methodDescriptor;
+        int ret;
+        switch (PropertyWriter.kindOf(type)) {
+        case PropertyWriter.INT:
+            methodName = "getInt";
+            methodDescriptor = "(Ljava/lang/Object;)I";
+            ret = 0xAC; // ireturn
+            break;
+        case PropertyWriter.LONG:
+            methodName = "getLong";
+            methodDescriptor = "(Ljava/lang/Object;)J";
+            ret = 0xAD; // lreturn
+            break;
+        case PropertyWriter.FLOAT:
+            methodName = "getFloat";
+            methodDescriptor = "(Ljava/lang/Object;)F";
+            ret = 0xAE; // freturn
+            break;
+        case PropertyWriter.DOUBLE:
+            methodName = "getDouble";
+            methodDescriptor = "(Ljava/lang/Object;)D";
+            ret = 0xAF; // dreturn
+            break;
+        case PropertyWriter.BOOLEAN:
+            methodName = "getBoolean";
+            methodDescriptor = "(Ljava/lang/Object;)Z";
+            ret = 0xAC; // ireturn
+            break;
+        default:
+            if (type.isPrimitive()) {
+                throw new IllegalArgumentException("Unsupported primitive type " + type);
+            }
+            methodName = "getObject";
+            methodDescriptor = "(Ljava/lang/Object;)Ljava/lang/Object;";
+            ret = 0xB0; // areturn
+        }
+
+        ByteArrayOutputStream get = new ByteArrayOutputStream();
+        get.write(0x2B); // aload_1
+        get.write(0xC0); // checkcast
+        writeShort(get, ownerClass);
+        get.write(0xB6); // invokevirtual
+        writeShort(get, target);
+        get.write(ret);
+        return classFile(cp, className, PropertyReader.class, methodName, methodDescriptor, get.toByteArray(), 2, 2);
+    }
+
+    /**
+     * Monta o arquivo .class com o construtor e o método de acesso
+     */
+    private static byte[] classFile(ConstantPool cp, String className, Class<?> superType, String methodName,
+            String methodDescriptor, byte[] body, int maxStack, int maxLocals) throws IOException {
+        String superName = internalName(superType);
+        int thisClass = cp.classRef(className);
+        int superClass = cp.classRef(superName);
+        int superInit = cp.methodRef(superName, "<init>", "(Ljava/lang/Class;)V");
+        int initName = cp.utf8("<init>");
+        int initDescriptor = cp.utf8("(Ljava/lang/Class;)V");
+        int accessName = cp.utf8(methodName);
+        int accessDescriptor = cp.utf8(methodDescriptor);
+        int code = cp.utf8("Code");
+
+        ByteArrayOutputStream init = new ByteArrayOutputStream();
+        init.write(0x2A); // aload_0
+        init.write(0x2B); // aload_1
+        init.write(0xB7); // invokespecial
+        writeShort(init, superInit);
+        init.write(0xB1); // return
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);
+        cp.write(out);
+        out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(2); // methods
+        writeMethod(out, initName, initDescriptor, code, 2, 2, init.toByteArray());
+        writeMethod(out, accessName, accessDescriptor, code, maxStack, maxLocals, body);
+        out.writeShort(0); // attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeAttribute, int maxStack,
+            int maxLocals, byte[] code) throws IOException {
+        out.writeShort(0x0001); // public
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1); // attributes
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write((value >>> 8) & 0xFF);
+        out.write(value & 0xFF);
+    }
+
+    static String internalName(Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+
+    static String descriptor(Class<?> type) {
+        if (type.isPrimitive()) {
+            if (type.equals(Integer.TYPE)) {
+                return "I";
+            } else if (type.equals(Long.TYPE)) {
+                return "J";
+            } else if (type.equals(Float.TYPE)) {
+                return "F";
+            } else if (type.equals(Double.TYPE)) {
+                return "D";
+            } else if (type.equals(Boolean.TYPE)) {
+                return "Z";
+            } else if (type.equals(Byte.TYPE)) {
+                return "B";
+            } else if (type.equals(Short.TYPE)) {
+                return "S";
+            } else if (type.equals(Character.TYPE)) {
+                return "C";
+            }
+            return "V";
+        } else if (type.isArray()) {
+            return internalName(type);
+        }
+        return "L" + internalName(type) + ";";
+    }
+
+    /**
+     * Constant pool da classe gerada
+     */
+    private static final class ConstantPool {
+
+        private final List<Object[]> entries = new ArrayList<Object[]>();
+        private final Map<String, Integer> index = new HashMap<String, Integer>();
+
+        int utf8(String value) {
+            return entry("U" + value, new Object[] { Integer.valueOf(1), value });
+        }
+
+        int classRef(String name) {
+            int nameIndex = utf8(name);
+            return entry("C" + name, new Object[] { Integer.valueOf(7), Integer.valueOf(nameIndex) });
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return memberRef(10, owner, name, descriptor);
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return memberRef(9, owner, name, descriptor);
+        }
+
+        private int memberRef(int tag, String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + ":" + descriptor, new Object[] { Integer.valueOf(12),
+                    Integer.valueOf(nameIndex), Integer.valueOf(descriptorIndex) });
+            return entry(tag + owner + "." + name + ":" + descriptor, new Object[] { Integer.valueOf(tag),
+                    Integer.valueOf(ownerIndex), Integer.valueOf(nameAndType) });
+        }
+
+        private int entry(String key, Object[] entry) {
+            Integer i = index.get(key);
+            if (i == null) {
+                entries.add(entry);
+                i = Integer.valueOf(entries.size());
+                index.put(key, i);
+            }
+            return i.intValue();
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeShort(entries.size() + 1);
+            for (Object[] entry : entries) {
+                int tag = ((Integer) entry[0]).intValue();
+                out.writeByte(tag);
+                if (tag == 1) {
+                    out.writeUTF((String) entry[1]);
+                } else {
+                    for (int i = 1; i < entry.length; i++) {
+                        out.writeShort(((Integer) entry[i]).intValue());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * ClassLoader das classes geradas. Enxerga as classes do VO (através do
+     * ClassLoader pai) e as classes {@link PropertyWriter} e
+     * {@link PropertyReader}.
+     */
+    private static final class GeneratedClassLoader extends ClassLoader {
+
+        final Map<Member, PropertyWriter> writers = new ConcurrentHashMap<Member, PropertyWriter>();
+        final Map<Method, PropertyReader> readers = new ConcurrentHashMap<Method, PropertyReader>();
+
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.equals(PropertyWriter.class.getName())) {
+                return PropertyWriter.class;
+            } else if (name.equals(PropertyReader.class.getName())) {
+                return PropertyReader.class;
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        Class<?> define(String name, byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+
+    /**
+     * Acesso via reflection, usado quando não é possível gerar a classe
+     */
+    private static final class ReflectiveWriter extends PropertyWriter {
+
+        private final Method method;
+        private final Field field;
+
+        ReflectiveWriter(Method method, Field field, Class<?> type) {
+            super(type);
+            this.method = method;
+            this.field = field;
+        }
+
+        public void setObject(Object bean, Object value) {
+            try {
+                if (method != null) {
+                    method.invoke(bean, new Object[] { value });
+                } else {
+                    field.set(bean, value);
+                }
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Leitura via reflection, usada quando não é possível gerar a classe
+     */
+    private static final class ReflectiveReader extends PropertyReader {
+
+        private final Method method;
+
+        ReflectiveReader(Method method, Class<?> type) {
+            super(type.isPrimitive() && PropertyWriter.kindOf(type) == PropertyWriter.OBJECT ? Object.class : type);
+            this.method = method;
+        }
+
+        public Object getObject(Object bean) {
+            try {
+                return method.invoke(bean, (Object[]) null);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+}
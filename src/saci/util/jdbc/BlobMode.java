@@ -0,0 +1,50 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+/**
+ * Forma de leitura das colunas binárias mapeadas para propriedades do tipo
+ * <i>InputStream</i>. Definida em {@link DbUtil#setBlobMode(BlobMode)}.
+ * 
+ * @author Thiago
+ */
+public enum BlobMode {
+
+    /**
+     * O conteúdo é copiado inteiro para a memória (padrão). Colunas maiores
+     * que o maior array aceito pela JVM lançam <i>SQLException</i>.
+     */
+    MEMORY,
+    /**
+     * O conteúdo é copiado para a memória até o limite definido em
+     * {@link DbUtil#setBlobSpillThreshold(int)}; acima dele, é copiado para um
+     * arquivo temporário, apagado quando o stream é fechado. Os streams devem
+     * ser sempre fechados pelo usuário: o arquivo de um stream esquecido só é
+     * apagado depois que o coletor de lixo o libera, na próxima cópia para
+     * arquivo.
+     */
+    SPILL,
+    /**
+     * O stream do driver é entregue sem cópia, e só pode ser lido enquanto o
+     * cursor está na linha. Indicado para {@link Query#forEach} e
+     * {@link Query#iterate}; com {@link Query#list} os streams já estarão
+     * inválidos quando a lista for retornada.
+     */
+    LAZY
+}
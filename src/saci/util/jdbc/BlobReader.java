@@ -0,0 +1,216 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import saci.util.ByteArrayInputStream;
+
+/**
+ * Leitura das colunas binárias para <i>InputStream</i>, conforme o
+ * {@link BlobMode} configurado.
+ * <p>
+ * Os arquivos temporários do modo {@link BlobMode#SPILL} são apagados quando o
+ * stream é fechado. Os de streams descartados sem serem fechados são apagados
+ * na próxima cópia para arquivo, depois que o coletor de lixo libera o stream.
+ * 
+ * @author Thiago
+ */
+final class BlobReader {
+
+    private static volatile BlobMode mode = BlobMode.MEMORY;
+    /**
+     * Maior array que as JVMs costumam aceitar
+     */
+    private static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+    private static volatile int spillThreshold = 1024 * 1024;
+    private static final ReferenceQueue<TempFileInputStream> collected = new ReferenceQueue<TempFileInputStream>();
+    private static final Set<TempFileReference> pending = Collections.synchronizedSet(new HashSet<TempFileReference>());
+
+    private BlobReader() {
+    }
+
+    static BlobMode getMode() {
+        return mode;
+    }
+
+    static void setMode(BlobMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Blob mode must not be null");
+        }
+        BlobReader.mode = mode;
+    }
+
+    static void setSpillThreshold(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Spill threshold must not be negative");
+        }
+        spillThreshold = bytes;
+    }
+
+    static InputStream read(ResultSet rs, int column) throws SQLException {
+        InputStream in = rs.getBinaryStream(column);
+        if (in == null || rs.wasNull()) {
+            return null;
+        }
+        BlobMode current = mode;
+        if (current == BlobMode.LAZY) {
+            return in;
+        }
+        try {
+            try {
+                return current == BlobMode.SPILL ? copy(in, spillThreshold, true) : copy(in, MAX_ARRAY, false);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            SQLException ex = new SQLException("Error reading binary column " + column + ": " + e.getMessage());
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    /**
+     * Copia o stream para a memória, ou para um arquivo temporário quando o
+     * tamanho passa de <code>threshold</code> e <code>spill</code> é
+     * verdadeiro. Nenhum array passa de {@link #MAX_ARRAY}.
+     */
+    private static InputStream copy(InputStream in, int threshold, boolean spill) throws IOException, SQLException {
+        int limit = Math.min(threshold, MAX_ARRAY);
+        byte[] buffer = new byte[Math.min(8192, limit)];
+        int length = 0;
+        while (true) {
+            if (length == buffer.length) {
+                if (length == limit) {
+                    int next = in.read();
+                    if (next < 0) {
+                        break;
+                    } else if (!spill) {
+                        throw new SQLException("Binary column larger than " + MAX_ARRAY
+                                + " bytes cannot be read into memory, use BlobMode.SPILL or BlobMode.LAZY");
+                    }
+                    return spill(in, buffer, length, next);
+                }
+                byte[] larger = new byte[(int) Math.min(buffer.length * 2L, limit)];
+                System.arraycopy(buffer, 0, larger, 0, length);
+                buffer = larger;
+            }
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        if (length != buffer.length) {
+            byte[] exact = new byte[length];
+            System.arraycopy(buffer, 0, exact, 0, length);
+            buffer = exact;
+        }
+        return new ByteArrayInputStream(buffer);
+    }
+
+    private static InputStream spill(InputStream in, byte[] head, int length, int next) throws IOException {
+        purge();
+        File file = File.createTempFile("dbutil", ".blob");
+        boolean ok = false;
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(head, 0, length);
+                out.write(next);
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+            InputStream result = new TempFileInputStream(file);
+            ok = true;
+            return result;
+        } finally {
+            if (!ok) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Apaga os arquivos dos streams que foram descartados sem serem fechados
+     */
+    private static void purge() {
+        TempFileReference reference;
+        while ((reference = (TempFileReference) collected.poll()) != null) {
+            pending.remove(reference);
+            reference.file.delete();
+        }
+    }
+
+    /**
+     * Stream de um arquivo temporário, apagado quando o stream é fechado
+     */
+    private static final class TempFileInputStream extends FileInputStream {
+
+        private final TempFileReference reference;
+
+        TempFileInputStream(File file) throws IOException {
+            super(file);
+            reference = new TempFileReference(this, file);
+            pending.add(reference);
+        }
+
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                pending.remove(reference);
+                reference.clear();
+                reference.file.delete();
+            }
+        }
+    }
+
+    /**
+     * Referência que avisa quando um stream foi descartado, guardando o
+     * arquivo que deve ser apagado
+     */
+    private static final class TempFileReference extends PhantomReference<TempFileInputStream> {
+
+        final File file;
+
+        TempFileReference(TempFileInputStream stream, File file) {
+            super(stream, collected);
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,476 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resultado de uma query organizado por colunas ({@link Query#columns()}).
+ * <p>
+ * Cada coluna é guardada em um array do tipo primitivo correspondente ao tipo
+ * SQL, lido direto do <i>ResultSet</i> pelo índice da coluna, sem criar
+ * objetos por linha:
+ * <ul>
+ * <li>inteiros (até 9 dígitos) e booleanos: <code>int[]</code></li>
+ * <li>BIGINT e decimais sem casas (até 18 dígitos): <code>long[]</code></li>
+ * <li>ponto flutuante e demais decimais: <code>double[]</code></li>
+ * <li>datas e horas: <code>long[]</code>, em milissegundos</li>
+ * <li>textos: códigos <code>int[]</code> de um dicionário com os valores
+ * distintos</li>
+ * <li>BLOBs e CLOBs: <code>Object[]</code> com o conteúdo já lido, como
+ * <code>byte[]</code> e <i>String</i>, pois os locators deixam de valer quando
+ * o ResultSet é fechado</li>
+ * <li>demais tipos: <code>Object[]</code></li>
+ * </ul>
+ * Os valores nulos ficam marcados em um <i>BitSet</i> por coluna, e o array
+ * guarda zero (ou o código -1, nos textos) nessas posições.
+ * 
+ * @author Thiago
+ */
+public class ColumnarResult {
+
+    private final String[] labels;
+    private final Map<String, Integer> index = new HashMap<String, Integer>();
+    private final Column[] columns;
+    private int rows;
+
+    ColumnarResult(ResultSetMetaData metaData, int capacity) throws SQLException {
+        int count = metaData.getColumnCount();
+        labels = new String[count];
+        columns = new Column[count];
+        for (int i = 0; i < count; i++) {
+            labels[i] = metaData.getColumnLabel(i + 1);
+            if (!index.containsKey(labels[i].toLowerCase())) {
+                index.put(labels[i].toLowerCase(), Integer.valueOf(i));
+            }
+            columns[i] = column(metaData.getColumnType(i + 1), metaData.getPrecision(i + 1), metaData.getScale(i + 1),
+                    Math.max(16, capacity));
+        }
+    }
+
+    private static Column column(int type, int precision, int scale, int capacity) {
+        switch (type) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIT:
+        case Types.BOOLEAN:
+            return new IntColumn(capacity);
+        case Types.BIGINT:
+            return new LongColumn(capacity);
+        case Types.NUMERIC:
+        case Types.DECIMAL:
+            if (scale == 0 && precision > 0 && precision <= 9) {
+                return new IntColumn(capacity);
+            } else if (scale == 0 && precision > 0 && precision <= 18) {
+                return new LongColumn(capacity);
+            }
+            return new DoubleColumn(capacity);
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+            return new DoubleColumn(capacity);
+        case Types.DATE:
+        case Types.TIME:
+        case Types.TIMESTAMP:
+            return new DateColumn(capacity);
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+            return new StringColumn(capacity);
+        default:
+            return new ObjectColumn(capacity);
+        }
+    }
+
+    /**
+     * Lê a linha atual do ResultSet
+     */
+    void read(ResultSet rs) throws SQLException {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].read(rs, i + 1, rows);
+        }
+        rows++;
+    }
+
+    /**
+     * Reduz os arrays ao tamanho do resultado
+     */
+    void trim() {
+        for (Column column : columns) {
+            column.trim(rows);
+        }
+    }
+
+    /**
+     * @return a quantidade de linhas
+     */
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @return a quantidade de colunas
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * @param column
+     *            o índice da coluna, a partir de 0
+     * @return o nome (label) da coluna
+     */
+    public String getLabel(int column) {
+        return labels[column];
+    }
+
+    /**
+     * @param label
+     *            o nome da coluna, sem diferenciar maiúsculas
+     * @return o índice da coluna, a partir de 0, ou -1 se não existir
+     */
+    public int getColumnIndex(String label) {
+        Integer i = index.get(label.toLowerCase());
+        return i == null ? -1 : i.intValue();
+    }
+
+    /**
+     * @return se o valor da linha é nulo na coluna
+     */
+    public boolean isNull(int row, int column) {
+        return columns[column].nulls.get(row);
+    }
+
+    /**
+     * @return as linhas com valor nulo na coluna (o BitSet não deve ser
+     *         alterado)
+     */
+    public BitSet getNulls(int column) {
+        return columns[column].nulls;
+    }
+
+    /**
+     * @return o valor da linha na coluna, convertido para objeto
+     */
+    public Object getValue(int row, int column) {
+        return isNull(row, column) ? null : columns[column].get(row);
+    }
+
+    /**
+     * @return os valores de uma coluna inteira (o array não deve ser alterado)
+     */
+    public int[] getInts(int column) {
+        return as(column, IntColumn.class).values;
+    }
+
+    public int[] getInts(String label) {
+        return getInts(require(label));
+    }
+
+    /**
+     * @return os valores de uma coluna BIGINT, decimal sem casas ou data (o
+     *         array não deve ser alterado)
+     */
+    public long[] getLongs(int column) {
+        return as(column, LongColumn.class).values;
+    }
+
+    public long[] getLongs(String label) {
+        return getLongs(require(label));
+    }
+
+    /**
+     * @return os valores de uma coluna de ponto flutuante ou decimal (o array
+     *         não deve ser alterado)
+     */
+    public double[] getDoubles(int column) {
+        return as(column, DoubleColumn.class).values;
+    }
+
+    public double[] getDoubles(String label) {
+        return getDoubles(require(label));
+    }
+
+    /**
+     * @return os códigos dos valores de uma coluna de texto no
+     *         {@link #getDictionary(int) dicionário}, ou -1 para nulos (o array
+     *         não deve ser alterado)
+     */
+    public int[] getCodes(int column) {
+        return as(column, StringColumn.class).codes;
+    }
+
+    public int[] getCodes(String label) {
+        return getCodes(require(label));
+    }
+
+    /**
+     * @return os valores distintos de uma coluna de texto, na ordem em que
+     *         apareceram
+     */
+    public String[] getDictionary(int column) {
+        return as(column, StringColumn.class).dictionary();
+    }
+
+    public String[] getDictionary(String label) {
+        return getDictionary(require(label));
+    }
+
+    private int require(String label) {
+        int column = getColumnIndex(label);
+        if (column < 0) {
+            throw new IllegalArgumentException("Column " + label + " not found");
+        }
+        return column;
+    }
+
+    private <C extends Column> C as(int column, Class<C> type) {
+        Column c = columns[column];
+        if (!type.isInstance(c)) {
+            throw new IllegalArgumentException("Column " + labels[column] + " is stored as "
+                    + c.getClass().getSimpleName());
+        }
+        return type.cast(c);
+    }
+
+    private abstract static class Column {
+
+        final BitSet nulls = new BitSet();
+
+        abstract void read(ResultSet rs, int column, int row) throws SQLException;
+
+        abstract void trim(int rows);
+
+        abstract Object get(int row);
+
+        static int grow(int length, int row) {
+            return row < length ? length : Math.max(row + 1, length * 2);
+        }
+    }
+
+    private static class IntColumn extends Column {
+
+        int[] values;
+
+        IntColumn(int capacity) {
+            values = new int[capacity];
+        }
+
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            if (row == values.length) {
+                values = copy(values, grow(values.length, row));
+            }
+            values[row] = rs.getInt(column);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        void trim(int rows) {
+            values = copy(values, rows);
+        }
+
+        Object get(int row) {
+            return Integer.valueOf(values[row]);
+        }
+
+        private static int[] copy(int[] values, int length) {
+            int[] result = new int[length];
+            System.arraycopy(values, 0, result, 0, Math.min(length, values.length));
+            return result;
+        }
+    }
+
+    private static class LongColumn extends Column {
+
+        long[] values;
+
+        LongColumn(int capacity) {
+            values = new long[capacity];
+        }
+
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            ensure(row);
+            values[row] = rs.getLong(column);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        void ensure(int row) {
+            if (row == values.length) {
+                values = copy(values, grow(values.length, row));
+            }
+        }
+
+        void trim(int rows) {
+            values = copy(values, rows);
+        }
+
+        Object get(int row) {
+            return Long.valueOf(values[row]);
+        }
+
+        private static long[] copy(long[] values, int length) {
+            long[] result = new long[length];
+            System.arraycopy(values, 0, result, 0, Math.min(length, values.length));
+            return result;
+        }
+    }
+
+    private static final class DateColumn extends LongColumn {
+
+        DateColumn(int capacity) {
+            super(capacity);
+        }
+
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            ensure(row);
+            Timestamp value = rs.getTimestamp(column);
+            if (value == null) {
+                values[row] = 0;
+                nulls.set(row);
+            } else {
+                values[row] = value.getTime();
+            }
+        }
+
+        Object get(int row) {
+            return new Timestamp(values[row]);
+        }
+    }
+
+    private static final class DoubleColumn extends Column {
+
+        double[] values;
+
+        DoubleColumn(int capacity) {
+            values = new double[capacity];
+        }
+
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            if (row == values.length) {
+                values = copy(values, grow(values.length, row));
+            }
+            values[row] = rs.getDouble(column);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        void trim(int rows) {
+            values = copy(values, rows);
+        }
+
+        Object get(int row) {
+            return Double.valueOf(values[row]);
+        }
+
+        private static double[] copy(double[] values, int length) {
+            double[] result = new double[length];
+            System.arraycopy(values, 0, result, 0, Math.min(length, values.length));
+            return result;
+        }
+    }
+
+    private static final class StringColumn extends Column {
+
+        int[] codes;
+        private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        private final List<String> values = new ArrayList<String>();
+
+        StringColumn(int capacity) {
+            codes = new int[capacity];
+        }
+
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            if (row == codes.length) {
+                codes = IntColumn.copy(codes, grow(codes.length, row));
+            }
+            String value = rs.getString(column);
+            if (value == null) {
+                codes[row] = -1;
+                nulls.set(row);
+                return;
+            }
+            Integer code = dictionary.get(value);
+            if (code == null) {
+                code = Integer.valueOf(values.size());
+                dictionary.put(value, code);
+                values.add(value);
+            }
+            codes[row] = code.intValue();
+        }
+
+        void trim(int rows) {
+            codes = IntColumn.copy(codes, rows);
+        }
+
+        Object get(int row) {
+            return values.get(codes[row]);
+        }
+
+        String[] dictionary() {
+            return values.toArray(new String[values.size()]);
+        }
+    }
+
+    private static final class ObjectColumn extends Column {
+
+        private Object[] values;
+
+        ObjectColumn(int capacity) {
+            values = new Object[capacity];
+        }
+
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            if (row == values.length) {
+                values = copy(values, grow(values.length, row));
+            }
+            values[row] = Row.materialize(rs.getObject(column));
+            if (values[row] == null) {
+                nulls.set(row);
+            }
+        }
+
+        void trim(int rows) {
+            values = copy(values, rows);
+        }
+
+        Object get(int row) {
+            return values[row];
+        }
+
+        private static Object[] copy(Object[] values, int length) {
+            Object[] result = new Object[length];
+            System.arraycopy(values, 0, result, 0, Math.min(length, values.length));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,675 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Pool de conexões simples, para ambientes que não possuem um pool próprio
+ * (por exemplo, conexões obtidas direto do <i>DriverManager</i>).
+ * <p>
+ * A quantidade de conexões em uso é limitada por um semáforo, e quem pede uma
+ * conexão com o pool cheio espera até o tempo definido em
+ * {@link #setAcquireTimeout(long)}. As conexões livres são reaproveitadas da
+ * mais recente para a mais antiga; as que ficam livres por mais de
+ * {@link #setMaxIdleTime(long)} são fechadas. Essa limpeza é feita quando uma
+ * conexão é pedida ou devolvida: um pool sem nenhum uso só diminui com uma
+ * chamada de {@link #evictIdle()}. Antes de ser entregue, uma
+ * conexão que estava parada há mais de {@link #setValidationInterval(long)} é
+ * validada com a {@link #setValidationQuery(String) query de validação}.
+ * <p>
+ * As conexões entregues são proxies: o <code>close()</code> devolve a conexão
+ * ao pool, desfazendo a transação pendente e restaurando o
+ * <i>autoCommit</i>, o <i>readOnly</i> e o nível de isolamento originais.
+ * Os statements, result sets e metadados obtidos da conexão também são
+ * proxies, e o <code>getConnection()</code> deles devolve o proxy, nunca a
+ * conexão física. Uma conexão que gerou um erro de comunicação (SQLState
+ * <code>08xxx</code>) em qualquer um desses objetos é descartada.
+ * <p>
+ * Como é um <i>DataSource</i>, pode ser usado direto no {@link DbUtil}, que
+ * então obtém uma conexão para cada query:
+ * 
+ * <pre>
+ * ConnectionPool pool = new ConnectionPool(&quot;jdbc:hsqldb:mem:test&quot;, &quot;sa&quot;, &quot;&quot;, 10);
+ * DbUtil db = new DbUtil(pool);
+ * </pre>
+ * 
+ * @author Thiago
+ */
+public class ConnectionPool implements DataSource {
+
+    private static final Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+    private final DataSource dataSource;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final Semaphore permits;
+    private final List<PooledConnection> idle = new ArrayList<PooledConnection>();
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong lastEviction = new AtomicLong(System.nanoTime());
+    private volatile long acquireTimeout = TimeUnit.SECONDS.toNanos(30);
+    private volatile long maxIdleTime = TimeUnit.MINUTES.toNanos(10);
+    private volatile long validationInterval = TimeUnit.SECONDS.toNanos(5);
+    private volatile String validationQuery;
+    private volatile int statementCacheSize;
+    private volatile boolean closed;
+    private PrintWriter logWriter;
+    private int loginTimeout;
+
+    /**
+     * Cria um pool com as conexões obtidas do <i>DataSource</i>
+     * 
+     * @param dataSource
+     *            o datasource que abre as conexões físicas
+     * @param maxSize
+     *            a quantidade máxima de conexões abertas
+     */
+    public ConnectionPool(DataSource dataSource, int maxSize) {
+        this(dataSource, null, null, null, maxSize);
+    }
+
+    /**
+     * Cria um pool com as conexões obtidas do <i>DriverManager</i>
+     * 
+     * @param url
+     *            a url JDBC
+     * @param user
+     *            o usuário
+     * @param password
+     *            a senha
+     * @param maxSize
+     *            a quantidade máxima de conexões abertas
+     */
+    public ConnectionPool(String url, String user, String password, int maxSize) {
+        this(null, url, user, password, maxSize);
+    }
+
+    private ConnectionPool(DataSource dataSource, String url, String user, String password, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be greater than zero");
+        }
+        this.dataSource = dataSource;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize);
+    }
+
+    /**
+     * Obtém uma conexão livre do pool, abrindo uma nova se necessário
+     * 
+     * @throws SQLException
+     *             caso o tempo de espera se esgote ou a conexão não possa ser
+     *             aberta
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(acquireTimeout, TimeUnit.NANOSECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLException("Timeout waiting for a connection (" + maxSize + " in use)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection");
+        }
+        try {
+            long now = System.nanoTime();
+            evictIfDue(now);
+            PooledConnection pooled;
+            while ((pooled = pop()) != null) {
+                if (validate(pooled, now)) {
+                    return pooled.lease();
+                }
+                discard(pooled);
+            }
+            Connection conn = open();
+            try {
+                pooled = new PooledConnection(conn);
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
+            open.incrementAndGet();
+            created.incrementAndGet();
+            return pooled.lease();
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Não suportado: o usuário e a senha são definidos na criação do pool
+     */
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLException("ConnectionPool does not support per-call credentials");
+    }
+
+    /**
+     * Fecha as conexões livres que estão paradas há mais tempo que o
+     * permitido em {@link #setMaxIdleTime(long)}.
+     */
+    public void evictIdle() {
+        long now = System.nanoTime();
+        lastEviction.set(now);
+        List<PooledConnection> expired = new ArrayList<PooledConnection>();
+        synchronized (idle) {
+            // a lista está ordenada do mais antigo para o mais recente
+            int count = 0;
+            while (count < idle.size() && isExpired(idle.get(count), now)) {
+                count++;
+            }
+            if (count > 0) {
+                List<PooledConnection> head = idle.subList(0, count);
+                expired.addAll(head);
+                head.clear();
+            }
+        }
+        for (PooledConnection pooled : expired) {
+            discard(pooled);
+        }
+    }
+
+    /**
+     * Fecha o pool e todas as conexões livres. As conexões em uso são fechadas
+     * quando devolvidas.
+     */
+    public void close() {
+        closed = true;
+        List<PooledConnection> all;
+        synchronized (idle) {
+            all = new ArrayList<PooledConnection>(idle);
+            idle.clear();
+        }
+        for (PooledConnection pooled : all) {
+            discard(pooled);
+        }
+    }
+
+    /**
+     * @return a quantidade de conexões físicas abertas (livres e em uso)
+     */
+    public int getOpenCount() {
+        return open.get();
+    }
+
+    /**
+     * @return a quantidade de conexões livres
+     */
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * @return a quantidade de conexões em uso
+     */
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    /**
+     * @return a quantidade máxima de conexões
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return a quantidade de conexões físicas abertas desde a criação do pool
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * @return a quantidade de pedidos que desistiram de esperar uma conexão
+     */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /**
+     * Define quanto tempo um pedido espera por uma conexão com o pool cheio. O
+     * padrão é 30 segundos.
+     */
+    public void setAcquireTimeout(long millis) {
+        this.acquireTimeout = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Define quanto tempo uma conexão pode ficar livre antes de ser fechada, ou
+     * 0 para nunca fechar. O padrão é 10 minutos.
+     */
+    public void setMaxIdleTime(long millis) {
+        this.maxIdleTime = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Define a query executada para validar uma conexão (por exemplo,
+     * <code>SELECT 1</code>). Sem ela, a conexão só é descartada se estiver
+     * fechada.
+     */
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    /**
+     * Define depois de quanto tempo parada uma conexão precisa ser validada
+     * antes de ser entregue. O padrão é 5 segundos; 0 valida sempre.
+     */
+    public void setValidationInterval(long millis) {
+        this.validationInterval = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Habilita o cache de <i>PreparedStatement</i>s de cada conexão do pool,
+     * usado pelo {@link DbUtil}. Vale para as conexões abertas depois da
+     * chamada.
+     * 
+     * @param size
+     *            a quantidade máxima de statements por conexão, ou 0 para
+     *            desabilitar (padrão)
+     */
+    public void setStatementCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Statement cache size must not be negative");
+        }
+        this.statementCacheSize = size;
+    }
+
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    public void setLogWriter(PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    public int getLoginTimeout() {
+        return loginTimeout;
+    }
+
+    public void setLoginTimeout(int seconds) {
+        this.loginTimeout = seconds;
+    }
+
+    public Logger getParentLogger() {
+        return logger;
+    }
+
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * @return o cache de statements da conexão, se ela foi obtida de um pool
+     *         com o cache habilitado
+     */
+    static StatementCache getStatementCache(Connection conn) {
+        if (conn == null || !Proxy.isProxyClass(conn.getClass())) {
+            return null;
+        }
+        InvocationHandler handler = Proxy.getInvocationHandler(conn);
+        return handler instanceof Lease ? ((Lease) handler).pooled.statements : null;
+    }
+
+    private Connection open() throws SQLException {
+        Connection conn = dataSource != null ? dataSource.getConnection() : DriverManager.getConnection(url, user, password);
+        if (conn == null) {
+            throw new SQLException("No connection returned for " + (url != null ? url : dataSource));
+        }
+        return conn;
+    }
+
+    private PooledConnection pop() {
+        synchronized (idle) {
+            return idle.isEmpty() ? null : idle.remove(idle.size() - 1);
+        }
+    }
+
+    private boolean isExpired(PooledConnection pooled, long now) {
+        return maxIdleTime > 0 && now - pooled.lastUsed > maxIdleTime;
+    }
+
+    private void evictIfDue(long now) {
+        long last = lastEviction.get();
+        long interval = maxIdleTime > 0 ? Math.max(maxIdleTime / 4, TimeUnit.SECONDS.toNanos(1)) : 0;
+        if (interval > 0 && now - last > interval && lastEviction.compareAndSet(last, now)) {
+            evictIdle();
+        }
+    }
+
+    private boolean validate(PooledConnection pooled, long now) {
+        if (isExpired(pooled, now)) {
+            return false;
+        }
+        if (now - pooled.lastUsed < validationInterval) {
+            return true;
+        }
+        try {
+            if (pooled.connection.isClosed()) {
+                return false;
+            }
+            String sql = validationQuery;
+            if (sql != null) {
+                Statement stmt = pooled.connection.createStatement();
+                try {
+                    stmt.execute(sql);
+                } finally {
+                    stmt.close();
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            logger.log(Level.FINE, "Discarding invalid connection", e);
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        try {
+            boolean reusable = !closed && !pooled.broken;
+            if (reusable) {
+                try {
+                    pooled.reset();
+                } catch (SQLException e) {
+                    reusable = false;
+                }
+            }
+            if (reusable) {
+                long now = System.nanoTime();
+                pooled.lastUsed = now;
+                synchronized (idle) {
+                    idle.add(pooled);
+                }
+                evictIfDue(now);
+            } else {
+                discard(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        open.decrementAndGet();
+        if (pooled.statements != null) {
+            pooled.statements.close();
+        }
+        try {
+            pooled.connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * Conexão física do pool
+     */
+    private final class PooledConnection {
+
+        final Connection connection;
+        final StatementCache statements;
+        private final boolean autoCommit;
+        private final boolean readOnly;
+        private final int isolation;
+        volatile Connection current;
+        volatile long lastUsed = System.nanoTime();
+        volatile boolean broken;
+        volatile boolean modified;
+
+        PooledConnection(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.autoCommit = connection.getAutoCommit();
+            this.readOnly = connection.isReadOnly();
+            this.isolation = connection.getTransactionIsolation();
+            int size = statementCacheSize;
+            // os statements do cache sobrevivem aos empréstimos, e também
+            // precisam detectar os erros de comunicação
+            this.statements = size > 0 ? new StatementCache((Connection) guard(this, connection, Connection.class,
+                    null, null), size) : null;
+        }
+
+        Connection lease() {
+            Connection lease = (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Lease(this));
+            current = lease;
+            return lease;
+        }
+
+        /**
+         * Desfaz a transação pendente e volta a conexão ao estado em que foi
+         * aberta
+         */
+        void reset() throws SQLException {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+            }
+            if (connection.getAutoCommit() != autoCommit) {
+                connection.setAutoCommit(autoCommit);
+            }
+            if (modified) {
+                if (connection.isReadOnly() != readOnly) {
+                    connection.setReadOnly(readOnly);
+                }
+                if (connection.getTransactionIsolation() != isolation) {
+                    connection.setTransactionIsolation(isolation);
+                }
+                modified = false;
+            }
+            connection.clearWarnings();
+        }
+
+        void failed(Throwable cause) {
+            if (cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+                if (state != null && state.startsWith("08")) {
+                    broken = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Envolve num proxy os objetos JDBC obtidos de uma conexão do pool
+     * 
+     * @param parent
+     *            o proxy do statement que criou o objeto, devolvido pelo
+     *            <code>getStatement()</code> de um result set
+     * @param owner
+     *            o empréstimo que deve fechar o statement, se ele ainda estiver
+     *            aberto quando a conexão for devolvida
+     */
+    private static Object guard(PooledConnection pooled, Object target, Class<?> type, Object parent, Lease owner) {
+        if (target == null || !(type == Connection.class || type == Statement.class
+                || type == PreparedStatement.class || type == CallableStatement.class || type == ResultSet.class
+                || type == DatabaseMetaData.class)) {
+            return target;
+        }
+        Object proxy = Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[] { type },
+                new Guard(pooled, target, parent, owner));
+        if (owner != null && proxy instanceof Statement) {
+            owner.opened((Statement) proxy);
+        }
+        return proxy;
+    }
+
+    private static Object invoke(PooledConnection pooled, Object target, Method method, Object[] args)
+            throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            pooled.failed(cause);
+            throw cause;
+        }
+    }
+
+    /**
+     * Proxy dos statements, result sets e metadados de uma conexão do pool:
+     * detecta os erros de comunicação e não deixa a conexão física escapar.
+     */
+    private static final class Guard implements InvocationHandler {
+
+        private final PooledConnection pooled;
+        private final Object target;
+        private final Object parent;
+        private final Lease owner;
+
+        Guard(PooledConnection pooled, Object target, Object parent, Lease owner) {
+            this.pooled = pooled;
+            this.target = target;
+            this.parent = parent;
+            this.owner = owner;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            boolean noArgs = method.getParameterTypes().length == 0;
+            if ("equals".equals(name) && !noArgs) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name) && noArgs) {
+                return System.identityHashCode(proxy);
+            } else if ("toString".equals(name) && noArgs) {
+                return target.toString();
+            } else if ("getConnection".equals(name) && noArgs) {
+                return pooled.current;
+            } else if ("getStatement".equals(name) && noArgs && parent != null) {
+                return parent;
+            } else if ("close".equals(name) && noArgs && owner != null) {
+                owner.closed((Statement) proxy);
+            }
+            Object result = ConnectionPool.invoke(pooled, target, method, args);
+            return guard(pooled, result, method.getReturnType(), proxy instanceof Statement ? proxy : null, null);
+        }
+    }
+
+    /**
+     * Empréstimo de uma conexão: cada chamada de getConnection() gera um novo
+     * proxy, que deixa de funcionar depois do close(). Os statements criados
+     * pelo empréstimo e esquecidos abertos são fechados na devolução.
+     */
+    private final class Lease implements InvocationHandler {
+
+        final PooledConnection pooled;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final Map<Statement, Boolean> statements = new IdentityHashMap<Statement, Boolean>();
+
+        Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        void opened(Statement stmt) {
+            synchronized (statements) {
+                statements.put(stmt, Boolean.TRUE);
+            }
+        }
+
+        void closed(Statement stmt) {
+            synchronized (statements) {
+                statements.remove(stmt);
+            }
+        }
+
+        private void closeStatements() {
+            List<Statement> open;
+            synchronized (statements) {
+                open = new ArrayList<Statement>(statements.keySet());
+                statements.clear();
+            }
+            for (Statement stmt : open) {
+                try {
+                    stmt.close();
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name) && method.getParameterTypes().length == 0) {
+                if (released.compareAndSet(false, true)) {
+                    try {
+                        closeStatements();
+                    } finally {
+                        release(pooled);
+                    }
+                }
+                return null;
+            } else if ("isClosed".equals(name)) {
+                return released.get() || pooled.connection.isClosed();
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("toString".equals(name)) {
+                return "Pooled[" + pooled.connection + "]";
+            } else if (released.get()) {
+                throw new SQLException("Connection is closed");
+            } else if ("setReadOnly".equals(name) || "setTransactionIsolation".equals(name)) {
+                pooled.modified = true;
+            }
+            Object result = ConnectionPool.invoke(pooled, pooled.connection, method, args);
+            return guard(pooled, result, method.getReturnType(), null, this);
+        }
+    }
+}
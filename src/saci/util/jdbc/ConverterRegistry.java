@@ -0,0 +1,616 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro dos {@link TypeConverter}s usados para ler colunas e gravar
+ * parametros.
+ * <p>
+ * O conversor é escolhido pelo par (tipo JDBC, tipo Java): primeiro o
+ * conversor registrado para o tipo JDBC da coluna, depois o registrado para
+ * qualquer tipo JDBC, e então os das superclasses e interfaces do tipo Java.
+ * Enums sem conversor registrado são gravados e lidos pelo nome; enums
+ * guardados pelo ordinal devem ser registrados com
+ * {@link #registerOrdinal(Class)}. A resolução é feita uma vez por coluna do
+ * plano de mapeamento.
+ * 
+ * @author Thiago
+ */
+public final class ConverterRegistry {
+
+    /**
+     * Indica que o conversor vale para qualquer tipo JDBC
+     */
+    public static final int ANY_TYPE = Integer.MIN_VALUE;
+
+    private static final TypeConverter NONE = new UnsupportedConverter(Object.class);
+    private static final Map<Key, TypeConverter> converters = new ConcurrentHashMap<Key, TypeConverter>();
+    private static final Map<Key, TypeConverter> resolved = new ConcurrentHashMap<Key, TypeConverter>();
+
+    private ConverterRegistry() {
+    }
+
+    static {
+        registerDefaults();
+    }
+
+    /**
+     * Registra o conversor para o tipo Java, valendo para qualquer tipo JDBC
+     * 
+     * @param javaType
+     *            o tipo Java (inclusive superclasses e interfaces)
+     * @param converter
+     *            o conversor
+     */
+    public static void register(Class<?> javaType, TypeConverter converter) {
+        register(ANY_TYPE, javaType, converter);
+    }
+
+    /**
+     * Registra o enum para ser gravado e lido pelo ordinal (em colunas
+     * numéricas), ao invés do nome
+     * 
+     * @param enumType
+     *            o tipo do enum
+     */
+    public static <E extends Enum<E>> void registerOrdinal(Class<E> enumType) {
+        register(enumType, new EnumConverter(enumType, true));
+    }
+
+    /**
+     * Registra o conversor para o par (tipo JDBC, tipo Java)
+     * 
+     * @param sqlType
+     *            o tipo JDBC da coluna ({@link java.sql.Types}) ou
+     *            {@link #ANY_TYPE}
+     * @param javaType
+     *            o tipo Java (inclusive superclasses e interfaces)
+     * @param converter
+     *            o conversor
+     */
+    public static void register(int sqlType, Class<?> javaType, TypeConverter converter) {
+        synchronized (resolved) {
+            converters.put(new Key(sqlType, javaType), converter);
+            resolved.clear();
+        }
+        DbUtil.clearMappingPlans();
+    }
+
+    /**
+     * Retorna o conversor para ler uma coluna do tipo JDBC informado para o
+     * tipo Java
+     * 
+     * @return o conversor, ou <code>null</code> se o tipo não é suportado
+     */
+    public static TypeConverter getConverter(int sqlType, Class<?> javaType) {
+        Key key = new Key(sqlType, javaType);
+        TypeConverter converter = resolved.get(key);
+        if (converter == null) {
+            // a resolução e o registro usam o mesmo lock, para que uma
+            // resolução feita durante o register() não guarde o conversor
+            // antigo depois que o cache foi limpo
+            synchronized (resolved) {
+                converter = resolve(sqlType, javaType);
+                resolved.put(key, converter == null ? NONE : converter);
+            }
+        }
+        return converter == NONE ? null : converter;
+    }
+
+    /**
+     * Retorna o conversor para o tipo Java, independente do tipo JDBC
+     * 
+     * @return o conversor, ou <code>null</code> se o tipo não é suportado
+     */
+    public static TypeConverter getConverter(Class<?> javaType) {
+        return getConverter(ANY_TYPE, javaType);
+    }
+
+    /**
+     * @return se existe conversor para o tipo Java
+     */
+    public static boolean isSupported(Class<?> javaType) {
+        return getConverter(javaType) != null;
+    }
+
+    static TypeConverter unsupported(Class<?> javaType) {
+        return new UnsupportedConverter(javaType);
+    }
+
+    private static TypeConverter resolve(int sqlType, Class<?> javaType) {
+        if (javaType.isEnum()) {
+            TypeConverter converter = lookup(sqlType, javaType);
+            return converter != null ? converter : new EnumConverter(javaType, false);
+        }
+        for (Class<?> type = javaType; type != null; type = type.getSuperclass()) {
+            TypeConverter converter = lookup(sqlType, type);
+            if (converter == null) {
+                converter = lookupInterfaces(sqlType, type);
+            }
+            if (converter != null) {
+                return converter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Procura o conversor nas interfaces do tipo e, em seguida, nas interfaces
+     * que elas estendem
+     */
+    private static TypeConverter lookupInterfaces(int sqlType, Class<?> type) {
+        for (Class<?> i : type.getInterfaces()) {
+            TypeConverter converter = lookup(sqlType, i);
+            if (converter != null) {
+                return converter;
+            }
+        }
+        for (Class<?> i : type.getInterfaces()) {
+            TypeConverter converter = lookupInterfaces(sqlType, i);
+            if (converter != null) {
+                return converter;
+            }
+        }
+        return null;
+    }
+
+    private static TypeConverter lookup(int sqlType, Class<?> javaType) {
+        TypeConverter converter = sqlType == ANY_TYPE ? null : converters.get(new Key(sqlType, javaType));
+        return converter != null ? converter : converters.get(new Key(ANY_TYPE, javaType));
+    }
+
+    private static void registerDefaults() {
+        TypeConverter intConverter = new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                return dbUtil.getInt(column, rs);
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                dbUtil.set(index, (Integer) value, stmt);
+            }
+
+            public void read(DbUtil dbUtil, ResultSet rs, int column, Object bean, PropertyWriter writer)
+                    throws SQLException {
+                if (dbUtil.isExtended()) {
+                    super.read(dbUtil, rs, column, bean, writer);
+                    return;
+                }
+                writer.setInt(bean, rs.getInt(column));
+            }
+
+            public void bind(DbUtil dbUtil, PreparedStatement stmt, int index, Object bean, PropertyReader reader)
+                    throws SQLException {
+                if (dbUtil.isExtended()) {
+                    super.bind(dbUtil, stmt, index, bean, reader);
+                    return;
+                }
+                stmt.setInt(index, reader.getInt(bean));
+            }
+        };
+        TypeConverter longConverter = new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                return dbUtil.getLong(column, rs);
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                dbUtil.set(index, (Long) value, stmt);
+            }
+
+            public void read(DbUtil dbUtil, ResultSet rs, int column, Object bean, PropertyWriter writer)
+                    throws SQLException {
+                if (dbUtil.isExtended()) {
+                    super.read(dbUtil, rs, column, bean, writer);
+                    return;
+                }
+                writer.setLong(bean, rs.getLong(column));
+            }
+
+            public void bind(DbUtil dbUtil, PreparedStatement stmt, int index, Object bean, PropertyReader reader)
+                    throws SQLException {
+                if (dbUtil.isExtended()) {
+                    super.bind(dbUtil, stmt, index, bean, reader);
+                    return;
+                }
+                stmt.setLong(index, reader.getLong(bean));
+            }
+        };
+        TypeConverter floatConverter = new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                return dbUtil.getFloat(column, rs);
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                dbUtil.set(index, (Float) value, stmt);
+            }
+
+            public void read(DbUtil dbUtil, ResultSet rs, int column, Object bean, PropertyWriter writer)
+                    throws SQLException {
+                if (dbUtil.isExtended()) {
+                    super.read(dbUtil, rs, column, bean, writer);
+                    return;
+                }
+                writer.setFloat(bean, rs.getFloat(column));
+            }
+
+            public void bind(DbUtil dbUtil, PreparedStatement stmt, int index, Object bean, PropertyReader reader)
+                    throws SQLException {
+                if (dbUtil.isExtended()) {
+                    super.bind(dbUtil, stmt, index, bean, reader);
+                    return;
+                }
+                float value = reader.getFloat(bean);
+                if (Float.isNaN(value) || Float.isInfinite(value)) {
+                    stmt.setNull(index, Types.NUMERIC);
+                } else {
+                    stmt.setFloat(index, value);
+                }
+            }
+        };
+        TypeConverter doubleConverter = new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                return dbUtil.getDouble(column, rs);
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                dbUtil.set(index, (Double) value, stmt);
+            }
+
+            public void read(DbUtil dbUtil, ResultSet rs, int column, Object bean, PropertyWriter writer)
+                    throws SQLException {
+                if (dbUtil.isExtended()) {
+                    super.read(dbUtil, rs, column, bean, writer);
+                    return;
+                }
+                writer.setDouble(bean, rs.getDouble(column));
+            }
+
+            public void bind(DbUtil dbUtil, PreparedStatement stmt, int index, Object bean, PropertyReader reader)
+                    throws SQLException {
+                if (dbUtil.isExtended()) {
+                    super.bind(dbUtil, stmt, index, bean, reader);
+                    return;
+                }
+                double value = reader.getDouble(bean);
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    stmt.setNull(index, Types.NUMERIC);
+                } else {
+                    stmt.setDouble(index, value);
+                }
+            }
+        };
+        TypeConverter booleanConverter = new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                return dbUtil.getBoolean(column, rs);
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                dbUtil.set(index, (Boolean) value, stmt);
+            }
+
+            public void read(DbUtil dbUtil, ResultSet rs, int column, Object bean, PropertyWriter writer)
+                    throws SQLException {
+                if (dbUtil.isExtended()) {
+                    super.read(dbUtil, rs, column, bean, writer);
+                    return;
+                }
+                writer.setBoolean(bean, Boolean.TRUE.equals(dbUtil.getBoolean(column, rs)));
+            }
+
+            public void bind(DbUtil dbUtil, PreparedStatement stmt, int index, Object bean, PropertyReader reader)
+                    throws SQLException {
+                if (dbUtil.isExtended()) {
+                    super.bind(dbUtil, stmt, index, bean, reader);
+                    return;
+                }
+                stmt.setString(index, reader.getBoolean(bean) ? "S" : "N");
+            }
+        };
+        TypeConverter byteConverter = new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                byte val = rs.getByte(column);
+                return rs.wasNull() ? null : Byte.valueOf(val);
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                dbUtil.set(index, (Byte) value, stmt);
+            }
+
+            public void read(DbUtil dbUtil, ResultSet rs, int column, Object bean, PropertyWriter writer)
+                    throws SQLException {
+                // coluna nula em propriedade primitiva fica com 0, como nos outros tipos
+                writer.setObject(bean, Byte.valueOf(rs.getByte(column)));
+            }
+        };
+        TypeConverter shortConverter = new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                short val = rs.getShort(column);
+                return rs.wasNull() ? null : Short.valueOf(val);
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                dbUtil.set(index, (Short) value, stmt);
+            }
+
+            public void read(DbUtil dbUtil, ResultSet rs, int column, Object bean, PropertyWriter writer)
+                    throws SQLException {
+                // coluna nula em propriedade primitiva fica com 0, como nos outros tipos
+                writer.setObject(bean, Short.valueOf(rs.getShort(column)));
+            }
+        };
+        put(Integer.TYPE, intConverter);
+        put(Long.TYPE, longConverter);
+        put(Float.TYPE, floatConverter);
+        put(Double.TYPE, doubleConverter);
+        put(Boolean.TYPE, booleanConverter);
+        put(Byte.TYPE, byteConverter);
+        put(Short.TYPE, shortConverter);
+        put(Integer.class, new ObjectConverter(intConverter));
+        put(Long.class, new ObjectConverter(longConverter));
+        put(Float.class, new ObjectConverter(floatConverter));
+        put(Double.class, new ObjectConverter(doubleConverter));
+        put(Boolean.class, new ObjectConverter(booleanConverter));
+        put(Byte.class, new ObjectConverter(byteConverter));
+        put(Short.class, new ObjectConverter(shortConverter));
+        put(String.class, new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                Object o = rs.getObject(column);
+                if (rs.wasNull()) {
+                    return null;
+                } else if (o instanceof Date) {
+                    return saci.util.Types.parseString((Date) o);
+                } else {
+                    return o.toString();
+                }
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                dbUtil.set(index, (String) value, stmt);
+            }
+        });
+        put(BigDecimal.class, new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                return dbUtil.getBigDecimal(column, rs);
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                dbUtil.set(index, (BigDecimal) value, stmt);
+            }
+        });
+        put(BigInteger.class, new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                return dbUtil.getBigInteger(column, rs);
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                dbUtil.set(index, (BigInteger) value, stmt);
+            }
+        });
+        put(Date.class, new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                return dbUtil.getDate(column, rs);
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                dbUtil.set(index, (Date) value, stmt);
+            }
+        });
+        put(Timestamp.class, new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                return rs.getTimestamp(column);
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                dbUtil.set(index, (Date) value, stmt);
+            }
+        });
+        put(java.sql.Date.class, new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                return rs.getDate(column);
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                if (value == null) {
+                    stmt.setNull(index, Types.DATE);
+                } else {
+                    stmt.setDate(index, (java.sql.Date) value);
+                }
+            }
+        });
+        put(Time.class, new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                return rs.getTime(column);
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                if (value == null) {
+                    stmt.setNull(index, Types.TIME);
+                } else {
+                    stmt.setTime(index, (Time) value);
+                }
+            }
+        });
+        put(InputStream.class, new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                return BlobReader.read(rs, column);
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                if (value == null) {
+                    stmt.setNull(index, Types.BLOB);
+                } else {
+                    stmt.setObject(index, value);
+                }
+            }
+        });
+        put(byte[].class, new TypeConverter() {
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                // o driver aloca o array uma única vez, já no tamanho do valor
+                return rs.getBytes(column);
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+                dbUtil.set(index, (byte[]) value, stmt);
+            }
+        });
+    }
+
+    private static void put(Class<?> javaType, TypeConverter converter) {
+        converters.put(new Key(ANY_TYPE, javaType), converter);
+    }
+
+    private static final class Key {
+
+        private final int sqlType;
+        private final Class<?> javaType;
+
+        Key(int sqlType, Class<?> javaType) {
+            this.sqlType = sqlType;
+            this.javaType = javaType;
+        }
+
+        public int hashCode() {
+            return 31 * javaType.hashCode() + sqlType;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return sqlType == other.sqlType && javaType.equals(other.javaType);
+        }
+    }
+
+    /**
+     * Conversor dos wrappers (Integer, Long, ...), que preserva o valor nulo
+     */
+    private static final class ObjectConverter extends TypeConverter {
+
+        private final TypeConverter converter;
+
+        ObjectConverter(TypeConverter converter) {
+            this.converter = converter;
+        }
+
+        public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+            return converter.getValue(dbUtil, rs, column);
+        }
+
+        public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                throws SQLException {
+            converter.setParameter(dbUtil, stmt, index, value);
+        }
+
+        public void read(DbUtil dbUtil, ResultSet rs, int column, Object bean, PropertyWriter writer)
+                throws SQLException {
+            writer.setObject(bean, converter.getValue(dbUtil, rs, column));
+        }
+    }
+
+    private static final class EnumConverter extends TypeConverter {
+
+        private final Object[] constants;
+        private final boolean ordinal;
+
+        EnumConverter(Class<?> enumType, boolean ordinal) {
+            this.constants = enumType.getEnumConstants();
+            this.ordinal = ordinal;
+        }
+
+        public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+            if (ordinal) {
+                int val = rs.getInt(column);
+                if (rs.wasNull()) {
+                    return null;
+                }
+                if (val < 0 || val >= constants.length) {
+                    throw new SQLException("Invalid ordinal " + val + " for " + constants.getClass().getComponentType());
+                }
+                return constants[val];
+            }
+            String name = rs.getString(column);
+            if (name == null) {
+                return null;
+            }
+            for (Object constant : constants) {
+                if (((Enum<?>) constant).name().equals(name)) {
+                    return constant;
+                }
+            }
+            throw new SQLException("Invalid value " + name + " for " + constants.getClass().getComponentType()
+                    + " (ordinal columns require ConverterRegistry.registerOrdinal)");
+        }
+
+        public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                throws SQLException {
+            if (ordinal) {
+                dbUtil.set(index, value == null ? null : Integer.valueOf(((Enum<?>) value).ordinal()), stmt);
+            } else {
+                dbUtil.set(index, value == null ? null : ((Enum<?>) value).name(), stmt);
+            }
+        }
+    }
+
+    private static final class UnsupportedConverter extends TypeConverter {
+
+        private final Class<?> javaType;
+
+        UnsupportedConverter(Class<?> javaType) {
+            this.javaType = javaType;
+        }
+
+        public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+            throw new SQLException("Invalid data type " + javaType);
+        }
+
+        public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                throws SQLException {
+            throw new SQLException("Invalid data type " + javaType);
+        }
+    }
+}
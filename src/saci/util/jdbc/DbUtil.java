@@ -25,6 +25,7 @@ import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
@@ -33,11 +34,23 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,8 +58,8 @@ import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 
-import saci.util.Cache;
-import saci.util.SimpleCache;
+import saci.util.CacheStatistics;
+import saci.util.ConcurrentCache;
 
 /**
  * Classe utilitária para facilitar o uso de JDBC.
@@ -79,16 +92,26 @@ import saci.util.SimpleCache;
  */
 public class DbUtil {
 
-    private static Cache<Class<?>, Map<String, AccessorMap>> beanMap = new SimpleCache<Class<?>, Map<String, AccessorMap>>();
+    private static final ConcurrentCache<MappingPlan.Key, MappingPlan> beanMap = new ConcurrentCache<MappingPlan.Key, MappingPlan>(
+            4096, 256);
     static Logger logger = Logger.getLogger(DbUtil.class.getName());
+    static final ResultCache resultCache = new ResultCache();
     private Connection connection;
-    private boolean datasource = false;
+    private DataSource dataSource;
+    private final ThreadLocal<Connection> pinned = new ThreadLocal<Connection>();
+    private int statementCacheSize;
+    private StatementCache statementCache;
+    private static volatile Executor defaultExecutor;
+    private Executor executor;
+    private volatile Dialect dialect;
+    private final boolean extended = getClass() != DbUtil.class;
 
     protected class AccessorMap {
 
         Method method;
         Field field;
         Class<?> paramType;
+        PropertyWriter writer;
 
     }
 
@@ -108,13 +131,16 @@ public class DbUtil {
     }
 
     /**
-     * Cria uma nova instância com o datasource passado por parametro
+     * Cria uma nova instância com o datasource passado por parametro. Cada
+     * query obtém sua própria conexão do datasource e a fecha ao terminar, de
+     * forma que a instância pode ser compartilhada entre threads. Uma
+     * transação com vários comandos prende uma conexão à thread, com
+     * {@link #begin()}. Para ambientes sem pool, veja {@link ConnectionPool}.
      * 
      * @param conn
      */
     public DbUtil(DataSource datasource) throws SQLException {
-        this(datasource.getConnection());
-        this.datasource = true;
+        this.dataSource = datasource;
     }
 
     /**
@@ -124,126 +150,541 @@ public class DbUtil {
      */
     public DbUtil(String datasourceJndi) throws SQLException {
         try {
-            DataSource datasource = (DataSource) new InitialContext().lookup(datasourceJndi);
-            this.connection = datasource.getConnection();
-            this.datasource = true;
+            this.dataSource = (DataSource) new InitialContext().lookup(datasourceJndi);
         } catch (NamingException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Habilita ou desabilita a geração de classes para preencher os VOs. Quando
+     * desabilitada, os setters e campos são acessados via reflection.
+     * 
+     * @param enabled
+     *            se as classes de acesso devem ser geradas (padrão
+     *            <code>true</code>)
+     */
+    public static void setCompiledAccessors(boolean enabled) {
+        AccessorGenerator.setEnabled(enabled);
+        clearMappingPlans();
+    }
+
+    /**
+     * @return se a instância é de uma subclasse, que pode ter sobrescrito os
+     *         métodos <code>getXxx</code> e <code>setXxx</code>. Nesse caso os
+     *         conversores não leem as colunas primitivas diretamente.
+     */
+    boolean isExtended() {
+        return extended;
+    }
+
+    static void clearMappingPlans() {
+        beanMap.clear();
+        ParameterBinder.clear();
+    }
+
+    /**
+     * @return se as classes de acesso aos VOs estão sendo geradas
+     */
+    public static boolean isCompiledAccessors() {
+        return AccessorGenerator.isEnabled();
+    }
+
+    /**
+     * Altera a quantidade máxima de planos de mapeamento (VO + formato do
+     * <i>ResultSet</i>) mantidos em cache. O padrão é 4096.
+     * 
+     * @param capacity
+     *            a nova capacidade
+     */
+    public static void setMappingPlanCacheCapacity(int capacity) {
+        beanMap.setCacheCapacity(capacity);
+    }
+
+    /**
+     * @return as estatísticas do cache de planos de mapeamento
+     */
+    public static CacheStatistics getMappingPlanStatistics() {
+        return beanMap.getStatistics();
+    }
+
+    /**
+     * Define como as colunas binárias são lidas para as propriedades do tipo
+     * <i>InputStream</i>. O padrão é {@link BlobMode#MEMORY}; com
+     * {@link BlobMode#SPILL}, os streams lidos devem ser fechados para que os
+     * arquivos temporários sejam apagados.
+     * 
+     * @param mode
+     *            a forma de leitura
+     */
+    public static void setBlobMode(BlobMode mode) {
+        BlobReader.setMode(mode);
+    }
+
+    /**
+     * Define o tamanho a partir do qual, no modo {@link BlobMode#SPILL}, as
+     * colunas binárias são copiadas para um arquivo temporário ao invés da
+     * memória. O padrão é 1MB.
+     * 
+     * @param bytes
+     *            o tamanho em bytes
+     */
+    public static void setBlobSpillThreshold(int bytes) {
+        BlobReader.setSpillThreshold(bytes);
+    }
+
+    /**
+     * Habilita o cache de resultados das queries marcadas com
+     * {@link Query#cached(long)}.
+     * 
+     * @param capacity
+     *            a quantidade máxima de resultados guardados, ou 0 para
+     *            desabilitar o cache (padrão)
+     */
+    public static void setResultCacheCapacity(int capacity) {
+        resultCache.setCapacity(capacity);
+    }
+
+    /**
+     * @return as estatísticas do cache de resultados
+     */
+    public static CacheStatistics getResultCacheStatistics() {
+        return resultCache.getStatistics();
+    }
+
+    /**
+     * Invalida os resultados guardados que leram a tabela. Deve ser usado
+     * quando a tabela é alterada fora do {@link DbUtil}.
+     * 
+     * @param table
+     *            o nome da tabela, ou <code>null</code> para invalidar todos os
+     *            resultados
+     */
+    public static void invalidateResultCache(String table) {
+        resultCache.invalidate(table);
+    }
+
+    /**
+     * Descarta todos os resultados guardados
+     */
+    public static void clearResultCache() {
+        resultCache.clear();
+    }
+
+    /**
+     * Habilita o ajuste automático do fetch size das queries. Para cada SQL, o
+     * fetch size cresce conforme a quantidade de linhas lidas nas execuções
+     * anteriores, até que o resultado esperado caiba em uma única ida ao
+     * servidor, sem que as linhas (com largura estimada pelos metadados)
+     * passem do tamanho do buffer. Queries com {@link Query#setFetchSize(int)}
+     * não são ajustadas.
+     * 
+     * @param bytes
+     *            o tamanho máximo do buffer de linhas de cada query, ou 0 para
+     *            desabilitar (padrão)
+     */
+    public static void setAdaptiveFetchBuffer(int bytes) {
+        FetchSizeAdvisor.setBufferSize(bytes);
+    }
+
+    /**
+     * Define o tempo a partir do qual uma execução é registrada no log de
+     * queries lentas (logger <code>saci.util.jdbc.SlowQuery</code>), com o SQL,
+     * os valores dos parametros, o tempo e a quantidade de linhas. Os valores
+     * dos parametros só são guardados pelas queries criadas com o log já
+     * habilitado; as criadas antes registram os parametros como não
+     * capturados.
+     * 
+     * @param millis
+     *            o tempo em milissegundos, ou 0 para desabilitar (padrão)
+     */
+    public static void setSlowQueryThreshold(long millis) {
+        SlowQueryLog.setThreshold(millis * 1000000L);
+    }
+
+    /**
+     * Define o tamanho máximo dos valores de parametros no log de queries
+     * lentas. Valores maiores são truncados. O padrão é 100.
+     * 
+     * @param length
+     *            o tamanho máximo
+     * @throws IllegalArgumentException
+     *             se o tamanho for negativo
+     */
+    public static void setSlowQueryParameterLength(int length) {
+        SlowQueryLog.setMaxParameterLength(length);
+    }
+
+    /**
+     * Define os parametros nomeados cujos valores não devem aparecer no log de
+     * queries lentas (senhas, documentos, ...)
+     * 
+     * @param names
+     *            os nomes dos parametros
+     */
+    public static void setSlowQueryRedactedParameters(String... names) {
+        SlowQueryLog.setRedactedParameters(names);
+    }
+
     <T> List<T> list(Query query, Class<T> voClass) throws SQLException {
+        ResultCache.Key key = resultCache.key(query, voClass, false);
+        Object cached = key == null ? null : resultCache.get(key);
+        if (cached != null) {
+            release(query, null);
+            return DbUtil.<List<T>> cached(cached);
+        }
+        long[] versions = key == null ? null : resultCache.versions(key);
         PreparedStatement stmt = null;
         ResultSet rs = null;
+        long ini = System.nanoTime();
+        int rows = -1;
         try {
             stmt = query.getPreparedStatement();
-            long ini = System.currentTimeMillis();
-            rs = stmt.executeQuery();
-            if (logger.isLoggable(Level.INFO)) {
-                logger.info("Tempo da query: " + (System.currentTimeMillis() - ini));
+            rs = executeQuery(query, stmt);
+            List<T> result = new ArrayList<T>();
+            MappingPlan plan = resultPlan(voClass, rs.getMetaData());
+            while (rs.next()) {
+                result.add(mapRow(query, voClass, rs, plan));
             }
+            rows = result.size();
+            if (key != null && isCacheable(query) && ResultCache.isCacheable(plan)) {
+                resultCache.put(key, result, versions, query.getCacheTtl());
+            }
+            return result;
+        } finally {
+            release(query, rs);
+            executed(query, ini, rows);
+        }
+    }
+    
+    <T> List<T> list(Query query, JoinMapping<T> mapping) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        long ini = System.nanoTime();
+        int rows = -1;
+        try {
+            stmt = query.getPreparedStatement();
+            rs = executeQuery(query, stmt);
+            JoinMapping.Reader<T> reader = mapping.reader(this, rs.getMetaData());
+            int count = 0;
+            while (rs.next()) {
+                T vo = reader.read(rs);
+                if (vo != null) {
+                    query.callListeners(vo, rs);
+                }
+                count++;
+            }
+            rows = count;
+            return reader.getResult();
+        } finally {
+            release(query, rs);
+            executed(query, ini, rows);
+        }
+    }
+
+    /**
+     * Executa a query como {@link #list(Query, Class)}, guardando em
+     * <i>lastKey</i> o valor da coluna chave na última linha. Uma chave nula
+     * faria a página seguinte voltar ao início, por isso é rejeitada.
+     */
+    <T> List<T> listPage(Query query, Class<T> voClass, String keyColumn, Object[] lastKey) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        long ini = System.nanoTime();
+        int rows = -1;
+        try {
+            stmt = query.getPreparedStatement();
+            rs = executeQuery(query, stmt);
             List<T> result = new ArrayList<T>();
-            if (isPrintable(voClass)) {
-                while (rs.next()) {
-                    result.add(saci.util.Types.cast(rs.getObject(1), voClass));
+            MappingPlan plan = resultPlan(voClass, rs.getMetaData());
+            int key = rs.findColumn(keyColumn);
+            while (rs.next()) {
+                result.add(mapRow(query, voClass, rs, plan));
+                Object value = rs.getObject(key);
+                if (value == null) {
+                    throw new SQLException("Null value in key column " + keyColumn
+                            + ": keyset pagination requires a NOT NULL, unique key");
                 }
-            } else {
-                while (rs.next()) {
-                    T vo = voClass.newInstance();
-                    fillBean(vo, rs);
-                    query.callListeners(vo, rs);
-                    result.add(vo);
+                if (lastKey != null) {
+                    lastKey[0] = value;
                 }
             }
+            rows = result.size();
             return result;
-        } catch (InstantiationException e) {
-            throw new RuntimeException(e);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
         } finally {
-            closeStatement(stmt);
-            closeResultSet(rs);
-            closeConnectionDS();
+            release(query, rs);
+            executed(query, ini, rows);
         }
     }
-    
+
     private boolean isPrintable(Class<?> value) {
-        return saci.util.Types.isPrintable(value) || InputStream.class.isAssignableFrom(value) || byte[].class.equals(value);
+        return ConverterRegistry.isSupported(value);
+    }
+
+    MappingPlan resultPlan(Class<?> voClass, ResultSetMetaData metaData) throws SQLException {
+        if (isPrintable(voClass)) {
+            return new MappingPlan(voClass, ConverterRegistry.getConverter(metaData.getColumnType(1), voClass));
+        }
+        return mappingPlan(voClass, metaData);
+    }
+
+    List<Row> listRows(Query query) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        long ini = System.nanoTime();
+        int rows = -1;
+        try {
+            stmt = query.getPreparedStatement();
+            rs = executeQuery(query, stmt);
+            Row.Columns columns = new Row.Columns(rs.getMetaData());
+            List<Row> result = new ArrayList<Row>();
+            while (rs.next()) {
+                result.add(columns.read(rs));
+            }
+            rows = result.size();
+            return result;
+        } finally {
+            release(query, rs);
+            executed(query, ini, rows);
+        }
+    }
+
+    ColumnarResult columns(Query query) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        long ini = System.nanoTime();
+        int rows = -1;
+        try {
+            stmt = query.getPreparedStatement();
+            rs = executeQuery(query, stmt);
+            ColumnarResult result = new ColumnarResult(rs.getMetaData(), stmt.getFetchSize());
+            while (rs.next()) {
+                result.read(rs);
+            }
+            result.trim();
+            rows = result.getRowCount();
+            return result;
+        } finally {
+            release(query, rs);
+            executed(query, ini, rows);
+        }
     }
 
     <T> T get(Query query, Class<T> voClass) throws SQLException {
+        ResultCache.Key key = resultCache.key(query, voClass, true);
+        Object cached = key == null ? null : resultCache.get(key);
+        if (cached != null) {
+            release(query, null);
+            return DbUtil.<T> cached(cached);
+        }
+        long[] versions = key == null ? null : resultCache.versions(key);
         PreparedStatement stmt = null;
         ResultSet rs = null;
+        long ini = System.nanoTime();
+        int rows = -1;
         try {
             stmt = query.getPreparedStatement();
-            long ini = System.currentTimeMillis();
-            rs = stmt.executeQuery();
-            if (logger.isLoggable(Level.INFO)) {
-                logger.info("Tempo da query: " + (System.currentTimeMillis() - ini));
-            }
-            if (isPrintable(voClass)) {
-                if (rs.next()) {
-                    return saci.util.Types.cast(rs.getObject(1), voClass);
+            rs = executeQuery(query, stmt);
+            T result = null;
+            MappingPlan plan = resultPlan(voClass, rs.getMetaData());
+            if (rs.next()) {
+                result = mapRow(query, voClass, rs, plan);
+            }
+            rows = result == null ? 0 : 1;
+            if (key != null && isCacheable(query) && ResultCache.isCacheable(plan)) {
+                resultCache.put(key, result, versions, query.getCacheTtl());
+            }
+            return result;
+        } finally {
+            release(query, rs);
+            executed(query, ini, rows);
+        }
+    }
+
+    boolean get(Query query, Object vo) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        long ini = System.nanoTime();
+        int rows = -1;
+        try {
+            stmt = query.getPreparedStatement();
+            rs = executeQuery(query, stmt);
+            boolean found = rs.next();
+            if (found) {
+                fillBean(vo, rs, mappingPlan(vo.getClass(), rs.getMetaData()));
+                query.callListeners(vo, rs);
+            }
+            rows = found ? 1 : 0;
+            return found;
+        } finally {
+            release(query, rs);
+            executed(query, ini, rows);
+        }
+    }
+
+    <T> int forEach(Query query, Class<T> voClass, RowVisitor<T> visitor) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        long ini = System.nanoTime();
+        int rows = 0;
+        boolean failed = true;
+        try {
+            stmt = query.getPreparedStatement();
+            rs = executeQuery(query, stmt);
+            MappingPlan plan = resultPlan(voClass, rs.getMetaData());
+            if (plan.valueConverter != null) {
+                while (rs.next()) {
+                    visitor.visit(this.<T> value(plan, rs));
+                    rows++;
                 }
             } else {
-                if (rs.next()) {
-                    T vo = voClass.newInstance();
-                    fillBean(vo, rs);
+                T vo = voClass.newInstance();
+                while (rs.next()) {
+                    fillBean(vo, rs, plan);
                     query.callListeners(vo, rs);
-                    return vo;
+                    visitor.visit(vo);
+                    rows++;
                 }
             }
-            return null;
+            failed = false;
+            return rows;
         } catch (InstantiationException e) {
             throw new RuntimeException(e);
         } catch (IllegalAccessException e) {
             throw new RuntimeException(e);
         } finally {
-            closeStatement(stmt);
-            closeResultSet(rs);
-            closeConnectionDS();
+            release(query, rs);
+            executed(query, ini, failed ? -1 : rows);
         }
     }
 
-    boolean get(Query query, Object vo) throws SQLException {
+    <T> ResultIterator<T> iterate(Query query, Class<T> voClass) throws SQLException {
         PreparedStatement stmt = null;
         ResultSet rs = null;
+        long ini = System.nanoTime();
         try {
             stmt = query.getPreparedStatement();
-            long ini = System.currentTimeMillis();
-            rs = stmt.executeQuery();
-            if (logger.isLoggable(Level.INFO)) {
-                logger.info("Tempo da query: " + (System.currentTimeMillis() - ini));
-            }
-            if (rs.next()) {
-                fillBean(vo, rs);
-                query.callListeners(vo, rs);
-                return true;
-            }
-            return false;
-        } finally {
-            closeStatement(stmt);
-            closeResultSet(rs);
-            closeConnectionDS();
+            rs = executeQuery(query, stmt);
+            MappingPlan plan = resultPlan(voClass, rs.getMetaData());
+            return new ResultIterator<T>(this, query, voClass, rs, plan, ini);
+        } catch (SQLException e) {
+            release(query, rs);
+            executed(query, ini, -1);
+            throw e;
+        } catch (RuntimeException e) {
+            release(query, rs);
+            executed(query, ini, -1);
+            throw e;
+        }
+    }
+
+    /**
+     * Executa a query, ajustando o fetch size pelas execuções anteriores
+     * quando ele não foi definido na query
+     */
+    private ResultSet executeQuery(Query query, PreparedStatement stmt) throws SQLException {
+        boolean adaptive = FetchSizeAdvisor.isEnabled() && !query.isFetchSizeSet();
+        if (adaptive) {
+            FetchSizeAdvisor.apply(query.getSql(), stmt, query.getMaxRows());
         }
+        ResultSet rs = stmt.executeQuery();
+        if (adaptive) {
+            FetchSizeAdvisor.describe(query.getSql(), rs.getMetaData());
+        }
+        return rs;
+    }
+
+    <T> T mapRow(Query query, Class<T> voClass, ResultSet rs, MappingPlan plan) throws SQLException {
+        if (plan.valueConverter != null) {
+            return this.<T> value(plan, rs);
+        }
+        try {
+            T vo = voClass.newInstance();
+            fillBean(vo, rs, plan);
+            query.callListeners(vo, rs);
+            return vo;
+        } catch (InstantiationException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cached(Object value) {
+        return ResultCache.isNull(value) ? null : (T) value;
+    }
+
+    /**
+     * Um resultado lido dentro de uma transação pode conter alterações que
+     * ainda serão desfeitas, e não deve ser visto pelas outras conexões
+     */
+    private static boolean isCacheable(Query query) throws SQLException {
+        return query.getConnection().getAutoCommit();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T value(MappingPlan plan, ResultSet rs) throws SQLException {
+        return (T) plan.valueConverter.getValue(this, rs, 1);
     }
 
     int update(Query query) throws SQLException {
         PreparedStatement stmt = null;
+        long ini = System.nanoTime();
+        int rows = -1;
+        try {
+            stmt = query.getPreparedStatement();
+            rows = stmt.executeUpdate();
+            return rows;
+        } finally {
+            release(query, null);
+            executed(query, ini, rows);
+            updated(query);
+        }
+    }
+
+    int[] batch(Query query, List<?> parameters, int batchSize) throws SQLException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be greater than zero");
+        }
+        PreparedStatement stmt = null;
+        long ini = System.nanoTime();
+        int rows = -1;
         try {
             stmt = query.getPreparedStatement();
-            long ini = System.currentTimeMillis();
-            int result = stmt.executeUpdate();
-            if (logger.isLoggable(Level.INFO)) {
-                logger.info("Tempo do update: " + (System.currentTimeMillis() - ini));
+            int[] result = new int[parameters.size()];
+            int offset = 0;
+            int pending = 0;
+            for (Object parameter : parameters) {
+                // um parametro ausente no objeto não pode herdar o valor da
+                // linha anterior
+                stmt.clearParameters();
+                query.setNamedParameter(parameter);
+                stmt.addBatch();
+                if (++pending == batchSize) {
+                    offset = executeBatch(stmt, result, offset);
+                    pending = 0;
+                }
             }
+            if (pending > 0) {
+                executeBatch(stmt, result, offset);
+            }
+            rows = parameters.size();
             return result;
         } finally {
-            closeStatement(stmt);
-            closeConnectionDS();
+            release(query, null);
+            executed(query, ini, rows);
+            updated(query);
         }
     }
 
+    private int executeBatch(PreparedStatement stmt, int[] result, int offset) throws SQLException {
+        int[] counts = stmt.executeBatch();
+        int length = Math.min(counts.length, result.length - offset);
+        System.arraycopy(counts, 0, result, offset, length);
+        return offset + length;
+    }
+
     /**
      * Cria uma nova query baseada no comando passado por parametro.
      * 
@@ -254,153 +695,428 @@ public class DbUtil {
      *             caso ocorra algum erro de SQLException
      */
     public Query execute(String query) throws SQLException {
-        assert (connection != null);
-        return new Query(this, query, connection);
+        if (dataSource == null) {
+            assert (connection != null);
+            return new Query(this, query, connection);
+        }
+        Connection conn = pinned.get();
+        if (conn != null) {
+            return new Query(this, query, conn);
+        }
+        // a conexão só é obtida do datasource quando a query é executada
+        return new Query(this, query, null);
     }
 
     /**
-     * Preenche o objeto passado por parametro, baseado nas informações do
-     * <i>ResultSet</i>
+     * @return uma conexão do datasource, para a execução de uma query
+     */
+    Connection leaseConnection() throws SQLException {
+        DataSource ds = dataSource;
+        if (ds == null) {
+            throw new SQLException("No DataSource configured");
+        }
+        return ds.getConnection();
+    }
+
+    /**
+     * Insere os objetos na tabela, em lotes de até 1000 registros
      * 
-     * @param bean
-     *            o objeto que deve ser preenchido
-     * @param rs
-     *            o ResultSet que contém as informações
+     * @see #insertAll(String, List, int)
+     */
+    public int insertAll(String table, List<?> beans) throws SQLException {
+        return insertAll(table, beans, 1000);
+    }
+
+    /**
+     * Insere os objetos na tabela, com todas as propriedades
+     * 
+     * @see #insertAll(String, List, int, String...)
+     */
+    public int insertAll(String table, List<?> beans, int chunkSize) throws SQLException {
+        return insertAll(table, beans, chunkSize, new String[0]);
+    }
+
+    /**
+     * Insere os objetos na tabela. As colunas são lidas dos metadados da
+     * tabela, e cada uma recebe a propriedade de mesmo nome, sem os
+     * <code>_</code> e sem diferenciar maiúsculas (como na leitura:
+     * <code>razao_social</code> recebe <code>razaoSocial</code>). Só entram
+     * as propriedades com getter e setter de tipos suportados pelo
+     * {@link ConverterRegistry}, menos as excluídas, e todos os objetos devem
+     * ser da mesma classe.
+     * <p>
+     * Quando o {@link #getDialect() dialeto} aceita, cada lote é enviado como
+     * um único <code>INSERT ... VALUES (...), (...)</code>, limitado à
+     * quantidade de parametros do banco. Caso contrário, os registros são
+     * enviados em lotes JDBC (<code>addBatch</code>). Com um
+     * <i>DataSource</i>, cada lote usa uma conexão, e só um DbUtil com conexão
+     * fixa garante que todos os lotes fiquem na mesma transação.
+     * 
+     * @param table
+     *            o nome da tabela
+     * @param beans
+     *            os objetos que devem ser inseridos
+     * @param chunkSize
+     *            a quantidade máxima de registros enviados de cada vez
+     * @param excludedColumns
+     *            as colunas ou propriedades que não devem ser inseridas (por
+     *            exemplo, uma chave gerada pelo banco)
+     * @return a quantidade de registros inseridos
      * @throws SQLException
-     *             caso ocorra algum erro de SQLException
+     * @throws IllegalArgumentException
+     *             se a lista tiver objetos nulos ou de classes diferentes
      */
-    public void fillBean(Object bean, ResultSet rs) throws SQLException {
-        Map<String, AccessorMap> fields = beanMap(bean.getClass(), rs.getMetaData());
-        Iterator<String> it = fields.keySet().iterator();
-        Object[] param = new Object[1];
-        while (it.hasNext()) {
-            String campo = it.next();
-            AccessorMap accessorMap = fields.get(campo);
-            if (accessorMap != null) {
-                Class<?> paramClass = accessorMap.paramType;
-                try {
-                    setAttributeValue(bean, rs, param, campo, accessorMap, paramClass);
-                } catch (SQLException e) {
-                    System.err.println(campo + " " + rs.getObject(campo) + "\n" + e.toString());
-                    throw e;
+    public int insertAll(String table, List<?> beans, int chunkSize, String... excludedColumns) throws SQLException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be greater than zero");
+        }
+        if (beans.isEmpty()) {
+            return 0;
+        }
+        Class<?> beanClass = beans.get(0) == null ? null : beans.get(0).getClass();
+        for (Object bean : beans) {
+            if (bean == null || bean.getClass() != beanClass) {
+                throw new IllegalArgumentException("All beans must be non-null instances of the same class ("
+                        + (beanClass == null ? null : beanClass.getName()) + ")");
+            }
+        }
+        Set<String> excluded = new HashSet<String>();
+        for (String column : excludedColumns) {
+            excluded.add(getFieldName(column));
+        }
+        Set<String> properties = new HashSet<String>(Arrays.asList(ParameterBinder.columns(beanClass)));
+        // as colunas da tabela são ligadas às propriedades pela mesma regra
+        // da leitura (getFieldName): razao_social -> razaoSocial
+        List<String> columns = new ArrayList<String>();
+        List<String> parameters = new ArrayList<String>();
+        for (String column : tableColumns(table)) {
+            String property = getFieldName(column);
+            if (properties.contains(property) && !excluded.contains(property) && !parameters.contains(property)) {
+                columns.add(column);
+                parameters.add(property);
+            }
+        }
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException("No properties of " + beanClass.getName() + " match the columns of "
+                    + table);
+        }
+        StringBuilder sb = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder values = new StringBuilder(" VALUES (");
+        StringBuilder row = new StringBuilder("(");
+        for (int i = 0; i < columns.size(); i++) {
+            sb.append(i == 0 ? "" : ", ").append(columns.get(i));
+            values.append(i == 0 ? ":" : ", :").append(parameters.get(i));
+            row.append(i == 0 ? "?" : ", ?");
+        }
+        sb.append(')');
+        row.append(')');
+        String single = sb.toString() + values.append(')');
+        Dialect dialect = getDialect();
+        if (!dialect.isMultiRowInsert()) {
+            int total = 0;
+            for (int count : execute(single).batch(beans, chunkSize)) {
+                // SUCCESS_NO_INFO (-2) conta como um registro
+                total += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+            }
+            return total;
+        }
+        ParameterBinder binder = ParameterBinder.get(beanClass, QueryMap.mapQuery(single));
+        int rows = chunkSize;
+        if (dialect.getMaxRows() > 0) {
+            rows = Math.min(rows, dialect.getMaxRows());
+        }
+        if (dialect.getMaxParameters() > 0) {
+            rows = Math.max(1, Math.min(rows, dialect.getMaxParameters() / columns.size()));
+        }
+        int total = 0;
+        String chunkSql = null;
+        int chunkRows = 0;
+        for (int from = 0; from < beans.size(); from += rows) {
+            int count = Math.min(rows, beans.size() - from);
+            if (count != chunkRows) {
+                StringBuilder chunk = new StringBuilder(sb).append(" VALUES ").append(row);
+                for (int i = 1; i < count; i++) {
+                    chunk.append(", ").append(row);
+                }
+                chunkSql = chunk.toString();
+                chunkRows = count;
+            }
+            Query query = execute(chunkSql);
+            try {
+                for (int i = 0; i < count; i++) {
+                    binder.bind(query, beans.get(from + i), i * columns.size());
                 }
+            } catch (SQLException e) {
+                release(query, null);
+                throw e;
+            } catch (RuntimeException e) {
+                release(query, null);
+                throw e;
             }
+            total += query.update();
         }
+        return total;
     }
 
-    private void setAttributeValue(Object bean, ResultSet rs, Object[] param, String campo, AccessorMap accessorMap,
-            Class<?> paramClass) throws SQLException {
-        readValue(rs, param, campo, paramClass);
-        setValue(accessorMap, bean, param);
-    }
-
-    private void readValue(ResultSet rs, Object[] param, String campo, Class<?> paramClass) throws SQLException {
-        if (paramClass.equals(Integer.class) || paramClass.equals(Integer.TYPE)) {
-            readInteger(rs, param, campo, paramClass);
-        } else if (paramClass.equals(Long.class) || paramClass.equals(Long.TYPE)) {
-            readLong(rs, param, campo, paramClass);
-        } else if (paramClass.equals(Float.class) || paramClass.equals(Float.TYPE)) {
-            readFloat(rs, param, campo, paramClass);
-        } else if (paramClass.equals(Double.class) || paramClass.equals(Double.TYPE)) {
-            readDouble(rs, param, campo, paramClass);
-        } else if (paramClass.equals(Boolean.class) || paramClass.equals(Boolean.TYPE)) {
-            readBoolean(rs, param, campo, paramClass);
-        } else if (paramClass.equals(String.class)) {
-            readString(rs, param, campo);
-        } else if (paramClass.equals(BigDecimal.class)) {
-            readBigDecimal(rs, param, campo);
-        } else if (paramClass.equals(BigInteger.class)) {
-            readBigInteger(rs, param, campo);
-        } else if (Date.class.isAssignableFrom(paramClass)) {
-            readDate(rs, param, campo);
-        } else if (InputStream.class.isAssignableFrom(paramClass) || byte[].class.equals(paramClass)) {
-            readInputStream(rs, param, campo, paramClass);
-        } else {
-            throw new SQLException("Invalid data type " + paramClass);
+    /**
+     * @return os nomes das colunas da tabela, lidos dos metadados da conexão.
+     *         O nome é procurado como informado, em maiúsculas e em minúsculas,
+     *         e pode ter o esquema (<code>esquema.tabela</code>).
+     */
+    private List<String> tableColumns(String table) throws SQLException {
+        int dot = table.lastIndexOf('.');
+        String schema = dot < 0 ? null : table.substring(0, dot);
+        String name = table.substring(dot + 1);
+        Connection held = dataSource == null ? connection : pinned.get();
+        Connection conn = held != null ? held : dataSource.getConnection();
+        try {
+            DatabaseMetaData metaData = conn.getMetaData();
+            String[][] candidates = { { schema, name },
+                    { schema == null ? null : schema.toUpperCase(), name.toUpperCase() },
+                    { schema == null ? null : schema.toLowerCase(), name.toLowerCase() } };
+            for (String[] candidate : candidates) {
+                List<String> columns = new ArrayList<String>();
+                ResultSet rs = metaData.getColumns(null, candidate[0], candidate[1], null);
+                try {
+                    while (rs.next()) {
+                        columns.add(rs.getString("COLUMN_NAME"));
+                    }
+                } finally {
+                    rs.close();
+                }
+                if (!columns.isEmpty()) {
+                    return columns;
+                }
+            }
+            throw new SQLException("Table " + table + " not found");
+        } finally {
+            if (held == null) {
+                close(conn);
+            }
         }
     }
 
-    private void readInputStream(ResultSet rs, Object[] param, String campo, Class<?> paramClass) throws SQLException {
-        InputStream in = getInputStream(campo, rs);
-        param[0] = saci.util.Types.cast(in, paramClass);
+    /**
+     * Define o dialeto do banco de dados, que normalmente é identificado pela
+     * conexão
+     * 
+     * @param dialect
+     *            o dialeto, ou <code>null</code> para identificar pela conexão
+     */
+    public void setDialect(Dialect dialect) {
+        this.dialect = dialect;
     }
 
-    private void readDate(ResultSet rs, Object[] param, String campo) throws SQLException {
-        param[0] = getDate(campo, rs);
+    /**
+     * @return o dialeto do banco de dados, identificado pela conexão na
+     *         primeira chamada
+     * @throws SQLException
+     */
+    public Dialect getDialect() throws SQLException {
+        Dialect result = dialect;
+        if (result == null) {
+            Connection held = dataSource == null ? connection : pinned.get();
+            Connection conn = held != null ? held : dataSource.getConnection();
+            try {
+                DatabaseMetaData metaData = conn.getMetaData();
+                result = Dialect.forProductName(metaData == null ? null : metaData.getDatabaseProductName());
+            } finally {
+                if (held == null) {
+                    close(conn);
+                }
+            }
+            dialect = result;
+        }
+        return result;
     }
 
-    private void readBigInteger(ResultSet rs, Object[] param, String campo) throws SQLException {
-        param[0] = getBigInteger(campo, rs);
+    /**
+     * Cria uma query que é executada em paralelo, dividida em fatias de uma
+     * faixa de chaves. O comando deve usar os parametros <code>:lo</code> e
+     * <code>:hi</code> para limitar cada fatia.
+     * 
+     * @param query
+     *            a query que deve ser executada
+     * @param partitions
+     *            a quantidade de fatias
+     * @return a nova query
+     * @see PartitionedQuery
+     */
+    public PartitionedQuery partition(String query, int partitions) {
+        return new PartitionedQuery(this, query, partitions);
     }
 
-    private void readBigDecimal(ResultSet rs, Object[] param, String campo) throws SQLException {
-        param[0] = getBigDecimal(campo, rs);
+    /**
+     * Cria uma query paginada pela chave: cada página é lida a partir da
+     * última chave da página anterior, com o limite de linhas na sintaxe do
+     * {@link #getDialect() dialeto}.
+     * 
+     * @param query
+     *            a query que deve ser executada, sem ORDER BY
+     * @param keyColumn
+     *            a coluna única e NOT NULL do resultado usada para ordenar e
+     *            paginar
+     * @param pageSize
+     *            a quantidade de linhas de cada página
+     * @return a nova query
+     * @see KeysetQuery
+     */
+    public KeysetQuery keyset(String query, String keyColumn, int pageSize) {
+        return new KeysetQuery(this, query, keyColumn, pageSize);
     }
 
-    private void readString(ResultSet rs, Object[] param, String campo) throws SQLException {
-        Object o = rs.getObject(campo);
-        if (rs.wasNull()) {
-            param[0] = null;
-        } else {
-            if (o instanceof Date) {
-                param[0] = saci.util.Types.parseString((Date) o);
-            } else {
-                param[0] = o.toString();
-            }
+    /**
+     * @return se as conexões são obtidas de um datasource para cada query (e
+     *         não há uma conexão presa à thread atual)
+     */
+    boolean isDataSource() {
+        return dataSource != null && pinned.get() == null;
+    }
+
+    /**
+     * Habilita o cache de <i>PreparedStatement</i>s da conexão. Os statements
+     * das queries executadas voltam para o cache ao invés de serem fechados, e
+     * são reaproveitados pelas próximas queries com o mesmo comando. Os
+     * statements do cache são fechados junto com a conexão.
+     * 
+     * @param size
+     *            a quantidade máxima de statements mantidos abertos, ou 0 para
+     *            desabilitar o cache (padrão)
+     */
+    public void setStatementCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Statement cache size must not be negative");
         }
+        closeStatementCache();
+        this.statementCacheSize = size;
+    }
+
+    /**
+     * @return as estatísticas do cache de statements da conexão atual
+     */
+    public CacheStatistics getStatementCacheStatistics() {
+        return statementCache == null ? new CacheStatistics(0, 0, 0, 0) : statementCache.getStatistics();
     }
 
-    private void readBoolean(ResultSet rs, Object[] param, String campo, Class<?> paramClass) throws SQLException {
-        param[0] = getBoolean(campo, rs);
-        if (param[0] == null && paramClass.equals(Boolean.TYPE)) {
-            param[0] = Boolean.FALSE;
+    PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+        StatementCache cache = ConnectionPool.getStatementCache(conn);
+        if (cache != null) {
+            return cache.prepare(sql);
+        }
+        if (statementCacheSize == 0 || conn != connection) {
+            return conn.prepareStatement(sql);
+        }
+        if (statementCache == null || statementCache.getConnection() != conn) {
+            closeStatementCache();
+            statementCache = new StatementCache(conn, statementCacheSize);
         }
+        return statementCache.prepare(sql);
     }
 
-    private void readDouble(ResultSet rs, Object[] param, String campo, Class<?> paramClass) throws SQLException {
-        param[0] = getDouble(campo, rs);
-        if (param[0] == null && paramClass.equals(Double.TYPE)) {
-            param[0] = new Double(0);
+    private void closeStatementCache() {
+        if (statementCache != null) {
+            statementCache.close();
+            statementCache = null;
         }
     }
 
-    private void readFloat(ResultSet rs, Object[] param, String campo, Class<?> paramClass) throws SQLException {
-        param[0] = getFloat(campo, rs);
-        if (param[0] == null && paramClass.equals(Float.TYPE)) {
-            param[0] = new Float(0);
+    /**
+     * Define o executor usado pelas execuções assíncronas das queries desta
+     * instância ({@link Query#listAsync(Class)}, ...). Quando não definido, é
+     * usado o executor padrão.
+     * 
+     * @param executor
+     *            o executor, ou <code>null</code> para usar o padrão
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Define o executor padrão das execuções assíncronas. Se nenhum for
+     * definido, é criado um que usa virtual threads, quando a JVM as suporta,
+     * ou um pool de threads daemon.
+     * 
+     * @param executor
+     *            o executor, ou <code>null</code> para voltar ao padrão
+     */
+    public static void setDefaultExecutor(Executor executor) {
+        defaultExecutor = executor;
+    }
+
+    private Executor getExecutor() {
+        if (executor != null) {
+            return executor;
+        }
+        Executor result = defaultExecutor;
+        if (result == null) {
+            synchronized (DbUtil.class) {
+                result = defaultExecutor;
+                if (result == null) {
+                    result = defaultExecutor = createExecutor();
+                }
+            }
         }
+        return result;
     }
 
-    private void readLong(ResultSet rs, Object[] param, String campo, Class<?> paramClass) throws SQLException {
-        param[0] = getLong(campo, rs);
-        if (param[0] == null && paramClass.equals(Long.TYPE)) {
-            param[0] = new Long(0);
+    private static Executor createExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            // JVM sem virtual threads
         }
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DbUtil-async-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
-    private void readInteger(ResultSet rs, Object[] param, String campo, Class<?> paramClass) throws SQLException {
-        param[0] = getInt(campo, rs);
-        if (param[0] == null && paramClass.equals(Integer.TYPE)) {
-            param[0] = new Integer(0);
+    /**
+     * Executa a tarefa da query no executor. Se o executor recusar a tarefa, o
+     * statement e a conexão da query são liberados.
+     */
+    <T> Future<T> submit(Query query, Callable<T> task) {
+        FutureTask<T> future = new FutureTask<T>(task);
+        try {
+            getExecutor().execute(future);
+        } catch (RejectedExecutionException e) {
+            release(query, null);
+            throw e;
         }
+        return future;
     }
 
-    private void setValue(AccessorMap accessorMap, Object bean, Object[] param) throws IllegalArgumentException,
-            SQLException {
-        if (accessorMap.method != null) {
-            try {
-                accessorMap.method.invoke(bean, param);
-            } catch (IllegalAccessException e) {
-                throw new SQLException(e.toString());
-            } catch (InvocationTargetException e) {
-                throw new SQLException(e.toString());
-            }
-        } else {
+    /**
+     * Preenche o objeto passado por parametro, baseado nas informações do
+     * <i>ResultSet</i>
+     * 
+     * @param bean
+     *            o objeto que deve ser preenchido
+     * @param rs
+     *            o ResultSet que contém as informações
+     * @throws SQLException
+     *             caso ocorra algum erro de SQLException
+     */
+    public void fillBean(Object bean, ResultSet rs) throws SQLException {
+        fillBean(bean, rs, mappingPlan(bean.getClass(), rs.getMetaData()));
+    }
+
+    void fillBean(Object bean, ResultSet rs, MappingPlan plan) throws SQLException {
+        for (int i = 0; i < plan.size(); i++) {
+            int column = plan.columns[i];
             try {
-                accessorMap.field.set(bean, param[0]);
-            } catch (IllegalArgumentException e) {
-                throw new SQLException(e.toString());
-            } catch (IllegalAccessException e) {
+                plan.converters[i].read(this, rs, column, bean, plan.accessors[i].writer);
+            } catch (SQLException e) {
+                System.err.println(plan.labels[i] + " " + rs.getObject(column) + "\n" + e.toString());
+                throw e;
+            } catch (RuntimeException e) {
                 throw new SQLException(e.toString());
             }
         }
@@ -411,7 +1127,7 @@ public class DbUtil {
         if (rs.wasNull()) {
             return null;
         } else {
-            return new Integer(val);
+            return Integer.valueOf(val);
         }
     }
 
@@ -420,7 +1136,7 @@ public class DbUtil {
         if (rs.wasNull()) {
             return null;
         } else {
-            return new Long(val);
+            return Long.valueOf(val);
         }
     }
 
@@ -429,7 +1145,7 @@ public class DbUtil {
         if (rs.wasNull()) {
             return null;
         } else {
-            return new Float(val);
+            return Float.valueOf(val);
         }
     }
 
@@ -438,7 +1154,7 @@ public class DbUtil {
         if (rs.wasNull()) {
             return null;
         } else {
-            return new Double(val);
+            return Double.valueOf(val);
         }
     }
 
@@ -492,6 +1208,87 @@ public class DbUtil {
         }
     }
 
+    public Integer getInt(int column, ResultSet rs) throws SQLException {
+        int val = rs.getInt(column);
+        if (rs.wasNull()) {
+            return null;
+        } else {
+            return Integer.valueOf(val);
+        }
+    }
+
+    public Long getLong(int column, ResultSet rs) throws SQLException {
+        long val = rs.getLong(column);
+        if (rs.wasNull()) {
+            return null;
+        } else {
+            return Long.valueOf(val);
+        }
+    }
+
+    public Float getFloat(int column, ResultSet rs) throws SQLException {
+        float val = rs.getFloat(column);
+        if (rs.wasNull()) {
+            return null;
+        } else {
+            return Float.valueOf(val);
+        }
+    }
+
+    public Double getDouble(int column, ResultSet rs) throws SQLException {
+        double val = rs.getDouble(column);
+        if (rs.wasNull()) {
+            return null;
+        } else {
+            return Double.valueOf(val);
+        }
+    }
+
+    public Date getDate(int column, ResultSet rs) throws SQLException {
+        java.sql.Timestamp val = rs.getTimestamp(column);
+        if (rs.wasNull()) {
+            return null;
+        } else {
+            return val;
+        }
+    }
+
+    public String getString(int column, ResultSet rs) throws SQLException {
+        String val = rs.getString(column);
+        if (rs.wasNull()) {
+            return null;
+        } else {
+            return val;
+        }
+    }
+
+    public Boolean getBoolean(int column, ResultSet rs) throws SQLException {
+        String s = getString(column, rs);
+        if (s != null) {
+            return s.equals("S") || s.equals("true") || s.equals("1") ? Boolean.TRUE : Boolean.FALSE;
+        } else {
+            return null;
+        }
+    }
+
+    public BigDecimal getBigDecimal(int column, ResultSet rs) throws SQLException {
+        return rs.getBigDecimal(column);
+    }
+
+    public BigInteger getBigInteger(int column, ResultSet rs) throws SQLException {
+        BigDecimal b = getBigDecimal(column, rs);
+        return b == null ? null : b.toBigInteger();
+    }
+
+    public InputStream getInputStream(int column, ResultSet rs) throws SQLException {
+        InputStream in = rs.getBinaryStream(column);
+        if (rs.wasNull()) {
+            return null;
+        } else {
+            return in;
+        }
+    }
+
     public void setInt(int i, Integer value, PreparedStatement stmt) throws SQLException {
         if (value == null) {
             stmt.setNull(i, Types.NUMERIC);
@@ -596,6 +1393,38 @@ public class DbUtil {
         }
     }
 
+    /**
+     * Grava o stream como parametro. Streams maiores que 2GB usam o
+     * <code>setBinaryStream(int, InputStream, long)</code> do JDBC 4, quando o
+     * driver possui.
+     */
+    public void setInputStream(int i, InputStream value, long length, PreparedStatement stmt) throws SQLException {
+        if (value == null) {
+            stmt.setNull(i, Types.BLOB);
+        } else if (length <= Integer.MAX_VALUE) {
+            stmt.setBinaryStream(i, value, (int) length);
+        } else {
+            try {
+                // o método da interface, e não o da classe do driver, que pode
+                // não ser pública
+                Method method = PreparedStatement.class.getMethod("setBinaryStream", Integer.TYPE,
+                        InputStream.class, Long.TYPE);
+                method.invoke(stmt, Integer.valueOf(i), value, Long.valueOf(length));
+            } catch (NoSuchMethodException e) {
+                throw new SQLException("Streams larger than 2GB require a JDBC 4 driver");
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                } else if (e.getCause() instanceof AbstractMethodError) {
+                    throw new SQLException("Streams larger than 2GB require a JDBC 4 driver");
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
     public void set(int i, Integer value, PreparedStatement stmt) throws SQLException {
         setInt(i, value, stmt);
     }
@@ -648,41 +1477,107 @@ public class DbUtil {
         setInputStream(i, value, length, stmt);
     }
 
+    public void set(int i, InputStream value, long length, PreparedStatement stmt) throws SQLException {
+        setInputStream(i, value, length, stmt);
+    }
+
     protected Map<String, AccessorMap> beanMap(Class<?> beanClass, ResultSetMetaData metaData) throws SQLException {
-        Map<String, AccessorMap> map = beanMap.get(beanClass);
-        if (map == null) {
-            map = createBeanMap(beanClass, metaData);
-            beanMap.put(beanClass, map);
+        return mappingPlan(beanClass, metaData).getAccessorMap();
+    }
+
+    MappingPlan mappingPlan(Class<?> beanClass, ResultSetMetaData metaData) throws SQLException {
+        MappingPlan.Key key = new MappingPlan.Key(beanClass, metaData);
+        MappingPlan plan = beanMap.get(key);
+        if (plan == null) {
+            plan = beanMap.putIfAbsent(key, createMappingPlan(beanClass, metaData));
         }
-        return map;
+        return plan;
+    }
+
+    private MappingPlan createMappingPlan(Class<?> beanClass, ResultSetMetaData metaData) throws SQLException {
+        return createMappingPlan(beanClass, metaData, "", null);
     }
 
-    private Map<String, AccessorMap> createBeanMap(Class<?> beanClass, ResultSetMetaData metaData) throws SQLException {
+    /**
+     * Monta o plano somente com as colunas indicadas, cujos nomes começam pelo
+     * prefixo (que é removido do nome da coluna)
+     * 
+     * @param owned
+     *            os índices das colunas que pertencem ao VO, ou
+     *            <code>null</code> para todas as colunas
+     */
+    MappingPlan createMappingPlan(Class<?> beanClass, ResultSetMetaData metaData, String prefix,
+            Set<Integer> owned) throws SQLException {
         Map<String, AccessorMap> map = new HashMap<String, AccessorMap>();
+        List<Integer> columns = new ArrayList<Integer>();
+        List<TypeConverter> converters = new ArrayList<TypeConverter>();
+        List<String> labels = new ArrayList<String>();
+        List<AccessorMap> accessors = new ArrayList<AccessorMap>();
         Method[] methods = beanClass.getMethods();
         Field[] fields = beanClass.getFields();
         for (int i = 1; i <= metaData.getColumnCount(); i++) {
             String column = metaData.getColumnLabel(i).toLowerCase();
+            if (!column.startsWith(prefix) || (owned != null && !owned.contains(Integer.valueOf(i)))) {
+                continue;
+            }
+            column = column.substring(prefix.length());
+            if (map.containsKey(column)) {
+                continue;
+            }
             String field = getFieldName(column);
             String method = "set" + field;
             AccessorMap accessorMap = new AccessorMap();
             accessorMap.method = seekMethod(method, methods);
             if (accessorMap.method != null) {
                 accessorMap.paramType = accessorMap.method.getParameterTypes()[0];
-                map.put(column, accessorMap);
+                accessorMap.writer = AccessorGenerator.writer(accessorMap.method);
             } else {
                 accessorMap.field = seekField(field, fields);
-                if (accessorMap.field != null) {
-                    accessorMap.paramType = accessorMap.field.getType();
-                    map.put(column, accessorMap);
+                if (accessorMap.field == null) {
+                    continue;
                 }
+                accessorMap.paramType = accessorMap.field.getType();
+                accessorMap.writer = AccessorGenerator.writer(accessorMap.field);
             }
+            TypeConverter converter = ConverterRegistry.getConverter(metaData.getColumnType(i), accessorMap.paramType);
+            map.put(column, accessorMap);
+            converters.add(converter != null ? converter : ConverterRegistry.unsupported(accessorMap.paramType));
+            columns.add(i);
+            labels.add(column);
+            accessors.add(accessorMap);
         }
-        return map;
+        int[] columnIndex = new int[columns.size()];
+        for (int i = 0; i < columnIndex.length; i++) {
+            columnIndex[i] = columns.get(i);
+        }
+        return new MappingPlan(beanClass, columnIndex, labels.toArray(new String[labels.size()]), accessors
+                .toArray(new AccessorMap[accessors.size()]), converters.toArray(new TypeConverter[converters.size()]),
+                map);
+    }
+
+    /**
+     * @return se a coluna (sem prefixo) tem uma propriedade correspondente no
+     *         VO, procurada da mesma forma que em
+     *         {@link #createMappingPlan(Class, ResultSetMetaData, String, Set)}
+     */
+    boolean hasProperty(Class<?> beanClass, String column) {
+        String field = getFieldName(column);
+        for (Method method : beanClass.getMethods()) {
+            if (method.getName().equalsIgnoreCase("set" + field) && method.getParameterTypes().length == 1
+                    && isValid(method.getParameterTypes()[0])) {
+                return true;
+            }
+        }
+        for (Field f : beanClass.getFields()) {
+            if (f.getName().equalsIgnoreCase(field) && isValid(f.getType())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private boolean isValid(Class<?> clazz) {
-        return saci.util.Types.isPrintable(clazz) || InputStream.class.isAssignableFrom(clazz);
+        return ConverterRegistry.isSupported(clazz);
     }
 
     protected Method seekMethod(String fieldName, Method[] methods) {
@@ -725,6 +1620,47 @@ public class DbUtil {
         return sb.toString().toLowerCase();
     }
 
+    /**
+     * Registra o tempo de execução da query nas estatísticas
+     * 
+     * @param rows
+     *            a quantidade de linhas, ou um valor negativo em caso de erro
+     */
+    void executed(Query query, long ini, int rows) {
+        long elapsed = System.nanoTime() - ini;
+        QueryMetrics.record(query.getSql(), elapsed, rows);
+        if (FetchSizeAdvisor.isEnabled()) {
+            FetchSizeAdvisor.observed(query.getSql(), rows);
+        }
+        if (SlowQueryLog.isEnabled() && elapsed >= SlowQueryLog.getThreshold()) {
+            SlowQueryLog.log(query, elapsed, rows);
+        }
+    }
+
+    /**
+     * Invalida os resultados em cache das tabelas alteradas pelo comando
+     */
+    private void updated(Query query) {
+        if (resultCache.isEnabled()) {
+            resultCache.updated(query.getQueryMap());
+        }
+    }
+
+    /**
+     * Fecha o ResultSet e o statement da query, e devolve a conexão quando
+     * ela foi obtida do datasource
+     */
+    void release(Query query, ResultSet rs) {
+        query.closeStreams();
+        closeResultSet(rs);
+        if (query.isPrepared()) {
+            closeStatement(query.getConnection(), query.getStatement());
+        }
+        if (query.isLeased() && query.getConnection() != null) {
+            close(query.getConnection());
+        }
+    }
+
     private void closeResultSet(ResultSet resultSet) {
         if (resultSet == null) {
             return;
@@ -737,10 +1673,18 @@ public class DbUtil {
         }
     }
 
-    private void closeStatement(Statement statement) {
+    private void closeStatement(Connection conn, PreparedStatement statement) {
         if (statement == null) {
             return;
         }
+        StatementCache cache = ConnectionPool.getStatementCache(conn);
+        if (cache == null && conn == connection) {
+            cache = statementCache;
+        }
+        if (cache != null) {
+            cache.release(statement);
+            return;
+        }
 
         try {
             statement.close();
@@ -749,13 +1693,20 @@ public class DbUtil {
         }
     }
 
-    private void closeConnectionDS() {
-        if (datasource) {
-            closeConnection();
+    private void close(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
         }
     }
 
+    /**
+     * Fecha a conexão fixa da instância ou, com um datasource, devolve a
+     * conexão presa à thread atual
+     */
     public void closeConnection() {
+        closeStatementCache();
+        unpin();
         if (connection == null) {
             return;
         }
@@ -767,15 +1718,139 @@ public class DbUtil {
         }
     }
 
+    /**
+     * Retorna a conexão usada pelas queries. Com um datasource, a conexão é
+     * obtida na primeira chamada e fica presa à thread atual: todas as queries
+     * da thread passam a usá-la (por exemplo, para controlar uma transação),
+     * até que ela seja devolvida por {@link #closeConnection()},
+     * {@link #commit()} ou {@link #rollback()}.
+     * 
+     * @return a conexão fixa da instância, ou a conexão presa à thread
+     * @throws RuntimeException
+     *             se a conexão não puder ser obtida do datasource
+     */
     public Connection getConnection() {
-        return connection;
+        if (dataSource == null) {
+            return connection;
+        }
+        try {
+            return pin();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Inicia uma transação, desligando o <i>autoCommit</i>. Com um datasource,
+     * a conexão fica presa à thread atual até o {@link #commit()} ou
+     * {@link #rollback()}, que devem ser chamados num bloco
+     * <code>finally</code>:
+     * 
+     * <pre>
+     * dbUtil.begin();
+     * boolean ok = false;
+     * try {
+     *     dbUtil.execute(&quot;UPDATE ...&quot;).update();
+     *     dbUtil.execute(&quot;INSERT ...&quot;).update();
+     *     ok = true;
+     * } finally {
+     *     if (ok) {
+     *         dbUtil.commit();
+     *     } else {
+     *         dbUtil.rollback();
+     *     }
+     * }
+     * </pre>
+     * 
+     * @return a conexão da transação
+     */
+    public Connection begin() throws SQLException {
+        Connection conn = dataSource == null ? connection : pin();
+        try {
+            conn.setAutoCommit(false);
+        } catch (SQLException e) {
+            unpin();
+            throw e;
+        }
+        return conn;
+    }
+
+    /**
+     * Confirma a transação iniciada por {@link #begin()} e, com um datasource,
+     * devolve a conexão
+     */
+    public void commit() throws SQLException {
+        Connection conn = transaction();
+        try {
+            conn.commit();
+        } finally {
+            end(conn);
+        }
+    }
+
+    /**
+     * Desfaz a transação iniciada por {@link #begin()} e, com um datasource,
+     * devolve a conexão
+     */
+    public void rollback() throws SQLException {
+        Connection conn = transaction();
+        try {
+            conn.rollback();
+        } finally {
+            end(conn);
+        }
+    }
+
+    private Connection pin() throws SQLException {
+        Connection conn = pinned.get();
+        if (conn == null) {
+            conn = dataSource.getConnection();
+            pinned.set(conn);
+        }
+        return conn;
+    }
+
+    private void unpin() {
+        Connection conn = pinned.get();
+        if (conn != null) {
+            pinned.remove();
+            close(conn);
+        }
+    }
+
+    private Connection transaction() {
+        Connection conn = dataSource == null ? connection : pinned.get();
+        if (conn == null) {
+            throw new IllegalStateException("No transaction in progress");
+        }
+        return conn;
+    }
+
+    private void end(Connection conn) throws SQLException {
+        try {
+            conn.setAutoCommit(true);
+        } finally {
+            if (dataSource != null) {
+                unpin();
+            }
+        }
     }
 
     public void setConnection(Connection connection) {
+        closeStatementCache();
+        unpin();
         this.connection = connection;
+        this.dataSource = null;
     }
 
+    /**
+     * Passa a obter uma conexão do datasource para cada query, como em
+     * {@link #DbUtil(DataSource)}
+     */
     public void setDataSource(DataSource ds) throws SQLException {
-        this.connection = ds.getConnection();
+        closeStatementCache();
+        unpin();
+        this.connection = null;
+        this.dataSource = ds;
     }
 }
@@ -0,0 +1,107 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Statement de uma query cuja conexão ainda não foi obtida do datasource.
+ * <p>
+ * As chamadas que só gravam valores (<code>setXxx</code> e
+ * <code>clearParameters</code>) são guardadas e repetidas, na mesma ordem, no
+ * statement real quando a query é executada. Assim a conexão fica emprestada
+ * apenas durante a execução, e uma query que nunca é executada (por um erro
+ * nos parametros, por exemplo) não prende nenhuma conexão do pool.
+ * 
+ * @author Thiago
+ */
+final class DeferredStatement implements InvocationHandler {
+
+    private final List<Method> methods = new ArrayList<Method>();
+    private final List<Object[]> arguments = new ArrayList<Object[]>();
+
+    private DeferredStatement() {
+    }
+
+    static PreparedStatement create() {
+        return (PreparedStatement) Proxy.newProxyInstance(DeferredStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, new DeferredStatement());
+    }
+
+    /**
+     * @return as chamadas guardadas do statement, ou <code>null</code> se ele
+     *         não for um statement adiado
+     */
+    static DeferredStatement of(PreparedStatement stmt) {
+        if (stmt == null || !Proxy.isProxyClass(stmt.getClass())) {
+            return null;
+        }
+        InvocationHandler handler = Proxy.getInvocationHandler(stmt);
+        return handler instanceof DeferredStatement ? (DeferredStatement) handler : null;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        } else if ("toString".equals(name)) {
+            return "DeferredStatement[" + methods.size() + " calls]";
+        } else if (method.getReturnType().equals(Void.TYPE)
+                && (name.startsWith("set") || "clearParameters".equals(name))) {
+            methods.add(method);
+            arguments.add(args);
+            return null;
+        }
+        throw new IllegalStateException("The statement is only prepared when the query is executed (" + name + ")");
+    }
+
+    /**
+     * Repete as chamadas guardadas no statement real
+     */
+    void replay(PreparedStatement stmt) throws SQLException {
+        for (int i = 0; i < methods.size(); i++) {
+            try {
+                methods.get(i).invoke(stmt, arguments.get(i));
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    throw (SQLException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+        methods.clear();
+        arguments.clear();
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+/**
+ * Características de cada banco de dados usadas pelo {@link DbUtil} para
+ * montar os comandos.
+ * <p>
+ * O dialeto é identificado pelo nome do produto informado pelo driver, e pode
+ * ser definido manualmente em {@link DbUtil#setDialect(Dialect)}.
+ * 
+ * @author Thiago
+ */
+public enum Dialect {
+
+    /**
+     * Banco não identificado: usa somente recursos comuns do JDBC
+     */
+    GENERIC(false, 0, 0),
+    POSTGRESQL(true, 32767, 0),
+    MYSQL(true, 65535, 0),
+    SQLSERVER(true, 2100, 1000),
+    ORACLE(false, 0, 0),
+    DB2(true, 32767, 0),
+    H2(true, 0, 0),
+    HSQLDB(true, 0, 0),
+    DERBY(true, 0, 0);
+
+    private final boolean multiRowInsert;
+    private final int maxParameters;
+    private final int maxRows;
+
+    private Dialect(boolean multiRowInsert, int maxParameters, int maxRows) {
+        this.multiRowInsert = multiRowInsert;
+        this.maxParameters = maxParameters;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * @return se o banco aceita <code>INSERT ... VALUES (...), (...)</code>
+     */
+    public boolean isMultiRowInsert() {
+        return multiRowInsert;
+    }
+
+    /**
+     * @return a quantidade máxima de parametros em um comando, ou 0 se não há
+     *         limite conhecido
+     */
+    public int getMaxParameters() {
+        return maxParameters;
+    }
+
+    /**
+     * @return a quantidade máxima de linhas em um <code>VALUES</code>, ou 0 se
+     *         não há limite conhecido
+     */
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    /**
+     * Limita a quantidade de linhas retornadas pelo comando, com a sintaxe do
+     * banco (<code>LIMIT</code>, <code>TOP</code>, <code>ROWNUM</code> ou
+     * <code>FETCH FIRST</code>). Em {@link #GENERIC} o comando não é alterado,
+     * e o limite deve ser feito por {@link Query#setMaxRows(int)}.
+     * 
+     * @param sql
+     *            um comando iniciado por <code>SELECT</code>, já com o ORDER
+     *            BY
+     * @param rows
+     *            a quantidade máxima de linhas
+     * @return o comando com o limite
+     */
+    public String limit(String sql, int rows) {
+        switch (this) {
+        case POSTGRESQL:
+        case MYSQL:
+        case H2:
+        case HSQLDB:
+            return sql + " LIMIT " + rows;
+        case SQLSERVER:
+            return "SELECT TOP (" + rows + ")" + sql.trim().substring("SELECT".length());
+        case ORACLE:
+            return "SELECT * FROM (" + sql + ") WHERE ROWNUM <= " + rows;
+        case DB2:
+        case DERBY:
+            return sql + " FETCH FIRST " + rows + " ROWS ONLY";
+        default:
+            return sql;
+        }
+    }
+
+    /**
+     * Identifica o dialeto pelo nome do produto
+     * (<code>DatabaseMetaData.getDatabaseProductName()</code>)
+     * 
+     * @param productName
+     *            o nome do banco de dados
+     * @return o dialeto, ou {@link #GENERIC} se o banco não for reconhecido
+     */
+    public static Dialect forProductName(String productName) {
+        if (productName == null) {
+            return GENERIC;
+        }
+        String name = productName.toLowerCase();
+        if (name.contains("postgres")) {
+            return POSTGRESQL;
+        } else if (name.contains("mysql") || name.contains("mariadb")) {
+            return MYSQL;
+        } else if (name.contains("sql server")) {
+            return SQLSERVER;
+        } else if (name.contains("oracle")) {
+            return ORACLE;
+        } else if (name.startsWith("db2")) {
+            return DB2;
+        } else if (name.equals("h2")) {
+            return H2;
+        } else if (name.contains("hsql")) {
+            return HSQLDB;
+        } else if (name.contains("derby")) {
+            return DERBY;
+        }
+        return GENERIC;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import saci.util.ConcurrentCache;
+
+/**
+ * Ajuste automático do <i>fetch size</i> das queries, habilitado por
+ * {@link DbUtil#setAdaptiveFetchBuffer(int)}.
+ * <p>
+ * Para cada SQL normalizado é guardada a largura estimada de uma linha
+ * (calculada pelos metadados na primeira execução) e a maior quantidade de
+ * linhas lidas recentemente. Nas execuções seguintes o fetch size é o
+ * suficiente para trazer o resultado esperado em uma única ida ao servidor,
+ * limitado pelo tamanho do buffer configurado. A quantidade esperada cai aos
+ * poucos quando as execuções passam a trazer menos linhas.
+ * 
+ * @author Thiago
+ */
+final class FetchSizeAdvisor {
+
+    private static final int MAX_STATEMENTS = 5000;
+    private static final int MIN_FETCH_SIZE = 10;
+    private static final int MAX_FETCH_SIZE = 10000;
+    private static volatile int bufferSize;
+    // os SQLs menos usados são descartados quando o limite é atingido
+    private static final ConcurrentCache<String, Entry> entries = new ConcurrentCache<String, Entry>(
+            MAX_STATEMENTS, MAX_STATEMENTS / 16);
+
+    private FetchSizeAdvisor() {
+    }
+
+    static boolean isEnabled() {
+        return bufferSize > 0;
+    }
+
+    static void setBufferSize(int bytes) {
+        bufferSize = Math.max(0, bytes);
+        if (bytes <= 0) {
+            entries.clear();
+        }
+    }
+
+    static void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Define o fetch size do statement a partir das execuções anteriores do
+     * SQL. Na primeira execução o padrão do driver é mantido.
+     * 
+     * @param maxRows
+     *            o limite de linhas da query, ou 0
+     */
+    static void apply(String sql, PreparedStatement stmt, int maxRows) throws SQLException {
+        int fetchSize = getFetchSize(sql);
+        if (fetchSize == 0) {
+            return;
+        }
+        if (maxRows > 0 && fetchSize > maxRows) {
+            fetchSize = maxRows;
+        }
+        stmt.setFetchSize(fetchSize);
+    }
+
+    /**
+     * Guarda a largura estimada das linhas do SQL, caso ainda não seja
+     * conhecida
+     */
+    static void describe(String sql, ResultSetMetaData metaData) throws SQLException {
+        if (entries.containsKey(sql)) {
+            return;
+        }
+        entries.putIfAbsent(sql, new Entry(rowWidth(metaData)));
+    }
+
+    /**
+     * Registra a quantidade de linhas lidas por uma execução do SQL
+     */
+    static void observed(String sql, int rows) {
+        Entry entry = entries.get(sql);
+        if (entry == null || rows < 0) {
+            return;
+        }
+        synchronized (entry) {
+            int expected = entry.expectedRows;
+            entry.expectedRows = rows >= expected ? rows : Math.max(rows, expected - expected / 4);
+        }
+    }
+
+    /**
+     * @return o fetch size que será usado na próxima execução do SQL, ou 0 se
+     *         ele ainda não foi executado
+     */
+    static int getFetchSize(String sql) {
+        Entry entry = entries.get(sql);
+        if (entry == null || entry.expectedRows < 0) {
+            return 0;
+        }
+        int fetchSize = Math.min(entry.expectedRows + 1, Math.max(1, bufferSize / entry.rowWidth));
+        return Math.max(MIN_FETCH_SIZE, Math.min(MAX_FETCH_SIZE, fetchSize));
+    }
+
+    private static int rowWidth(ResultSetMetaData metaData) throws SQLException {
+        int width = 0;
+        int count = metaData.getColumnCount();
+        for (int i = 1; i <= count; i++) {
+            width += columnWidth(metaData, i);
+        }
+        return Math.max(1, width);
+    }
+
+    private static int columnWidth(ResultSetMetaData metaData, int column) throws SQLException {
+        switch (metaData.getColumnType(column)) {
+        case Types.BIT:
+        case Types.BOOLEAN:
+        case Types.TINYINT:
+        case Types.SMALLINT:
+            return 2;
+        case Types.INTEGER:
+        case Types.REAL:
+            return 4;
+        case Types.BIGINT:
+        case Types.DOUBLE:
+        case Types.FLOAT:
+        case Types.DATE:
+        case Types.TIME:
+        case Types.TIMESTAMP:
+            return 8;
+        case Types.NUMERIC:
+        case Types.DECIMAL:
+            return 16;
+        case Types.BLOB:
+        case Types.CLOB:
+        case Types.LONGVARBINARY:
+        case Types.LONGVARCHAR:
+            // o driver normalmente traz apenas o localizador do LOB
+            return 64;
+        default:
+            int size = metaData.getColumnDisplaySize(column);
+            return size <= 0 ? 32 : Math.min(size, 1024);
+        }
+    }
+
+    private static final class Entry {
+
+        final int rowWidth;
+        volatile int expectedRows = -1;
+
+        Entry(int rowWidth) {
+            this.rowWidth = rowWidth;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Mapeamento de um resultado com JOIN para um grafo de VOs: um VO principal
+ * com as suas coleções de VOs filhos, lidos em uma única query no lugar de uma
+ * query por linha.
+ * <p>
+ * As colunas de cada filho são identificadas por um prefixo (que é removido
+ * antes de procurar a propriedade no VO), e as demais colunas pertencem ao VO
+ * principal. Uma coluna com o prefixo de um filho só é do filho se ele tiver a
+ * propriedade; se o pai também tiver uma propriedade com o nome completo da
+ * coluna, a leitura lança <i>SQLException</i>. As colunas chave de cada VO identificam as linhas repetidas pelo
+ * JOIN: cada chave gera uma única instância (<i>identity map</i>), e cada
+ * filho é adicionado uma única vez à coleção do pai. Um filho com as chaves
+ * nulas (LEFT JOIN sem correspondência) é ignorado.
+ * 
+ * <pre>
+ * JoinMapping&lt;Pedido&gt; mapping = new JoinMapping&lt;Pedido&gt;(Pedido.class, &quot;id&quot;)
+ *     .join(&quot;itens&quot;, &quot;item_&quot;, new JoinMapping&lt;Item&gt;(Item.class, &quot;id&quot;));
+ * List&lt;Pedido&gt; pedidos = dbUtil.execute(
+ *         &quot;SELECT p.*, i.id AS item_id, i.produto AS item_produto &quot;
+ *         + &quot;FROM pedido p LEFT JOIN item i ON i.pedido = p.id ORDER BY p.id&quot;)
+ *     .list(mapping);
+ * </pre>
+ * 
+ * A propriedade do pai pode ser uma coleção (<i>List</i> ou <i>Set</i>, criada
+ * quando estiver nula) ou um único VO. Os filhos também podem ter os seus
+ * próprios filhos, com prefixos diferentes.
+ * 
+ * @author Thiago
+ */
+public class JoinMapping<T> {
+
+    private final Class<T> voClass;
+    private final String[] keyColumns;
+    private final List<Link> links = new ArrayList<Link>();
+    private String prefix = "";
+    private boolean joined;
+
+    /**
+     * @param voClass
+     *            a classe do VO
+     * @param keyColumns
+     *            as colunas que identificam o VO, sem o prefixo
+     */
+    public JoinMapping(Class<T> voClass, String... keyColumns) {
+        if (keyColumns.length == 0) {
+            throw new IllegalArgumentException("At least one key column is required");
+        }
+        this.voClass = voClass;
+        this.keyColumns = new String[keyColumns.length];
+        for (int i = 0; i < keyColumns.length; i++) {
+            this.keyColumns[i] = keyColumns[i].toLowerCase();
+        }
+    }
+
+    /**
+     * Adiciona um VO filho ao mapeamento
+     * 
+     * @param property
+     *            a propriedade do VO que recebe os filhos
+     * @param prefix
+     *            o prefixo das colunas do filho
+     * @param child
+     *            o mapeamento do filho
+     * @return
+     */
+    public JoinMapping<T> join(String property, String prefix, JoinMapping<?> child) {
+        if (child.joined || child == this) {
+            throw new IllegalArgumentException("The mapping of " + child.voClass.getName() + " is already in use");
+        }
+        if (prefix == null || prefix.length() == 0) {
+            throw new IllegalArgumentException("The columns of " + property + " require a prefix");
+        }
+        child.joined = true;
+        child.prefix = prefix.toLowerCase();
+        links.add(new Link(property, child));
+        return this;
+    }
+
+    public Class<T> getVoClass() {
+        return voClass;
+    }
+
+    /**
+     * Prepara a leitura de um resultado: monta os planos de cada VO a partir
+     * dos metadados
+     */
+    Reader<T> reader(DbUtil dbUtil, ResultSetMetaData metaData) throws SQLException {
+        List<JoinMapping<?>> mappings = new ArrayList<JoinMapping<?>>();
+        mappings.add(this);
+        collectChildren(mappings);
+        return new Reader<T>(dbUtil, this, metaData, columns(dbUtil, metaData, mappings));
+    }
+
+    private void collectChildren(List<JoinMapping<?>> mappings) {
+        for (Link link : links) {
+            mappings.add(link.child);
+            link.child.collectChildren(mappings);
+        }
+    }
+
+    /**
+     * Distribui as colunas entre os VOs: uma coluna pertence ao VO cujo
+     * prefixo ela tem e que tem a propriedade com o restante do nome. Uma
+     * coluna que serve a mais de um VO (<code>item_count</code> com a
+     * propriedade <i>itemCount</i> no pai e <i>count</i> no filho com prefixo
+     * <code>item_</code>) é ambígua e deve ser renomeada na query.
+     * 
+     * @return os índices das colunas de cada VO
+     */
+    private static Map<JoinMapping<?>, Set<Integer>> columns(DbUtil dbUtil, ResultSetMetaData metaData,
+            List<JoinMapping<?>> mappings) throws SQLException {
+        Map<JoinMapping<?>, Set<Integer>> result = new IdentityHashMap<JoinMapping<?>, Set<Integer>>();
+        for (JoinMapping<?> mapping : mappings) {
+            result.put(mapping, new HashSet<Integer>());
+        }
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            String label = metaData.getColumnLabel(i).toLowerCase();
+            JoinMapping<?> owner = null;
+            for (JoinMapping<?> mapping : mappings) {
+                if (!label.startsWith(mapping.prefix)
+                        || !dbUtil.hasProperty(mapping.voClass, label.substring(mapping.prefix.length()))) {
+                    continue;
+                }
+                if (owner != null) {
+                    throw new SQLException("Column " + label + " is ambiguous: it matches properties of "
+                            + owner.voClass.getName() + " and " + mapping.voClass.getName());
+                }
+                owner = mapping;
+            }
+            if (owner != null) {
+                result.get(owner).add(Integer.valueOf(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Leitura de um resultado: guarda as instâncias já criadas de cada VO
+     */
+    static final class Reader<T> {
+
+        private final Map<Object, T> roots = new LinkedHashMap<Object, T>();
+        private final Node root;
+
+        Reader(DbUtil dbUtil, JoinMapping<T> mapping, ResultSetMetaData metaData,
+                Map<JoinMapping<?>, Set<Integer>> columns) throws SQLException {
+            this.root = new Node(dbUtil, mapping, metaData, columns);
+        }
+
+        /**
+         * Lê a linha, retornando o VO principal quando ele é novo
+         */
+        T read(ResultSet rs) throws SQLException {
+            Object key = root.key(rs);
+            if (key == null) {
+                return null;
+            }
+            T vo = roots.get(key);
+            boolean created = vo == null;
+            if (created) {
+                vo = root.<T> create(rs);
+                roots.put(key, vo);
+            }
+            root.readChildren(vo, rs);
+            return created ? vo : null;
+        }
+
+        List<T> getResult() {
+            return new ArrayList<T>(roots.values());
+        }
+    }
+
+    /**
+     * Um VO do mapeamento, com o plano e as colunas chave já resolvidos
+     */
+    private static final class Node {
+
+        private final DbUtil dbUtil;
+        private final MappingPlan plan;
+        private final int[] keys;
+        private final List<Link> links;
+        private final Node[] children;
+        private final Map<Object, Object> instances = new HashMap<Object, Object>();
+        private final Map<Object, Set<Object>> attached = new IdentityHashMap<Object, Set<Object>>();
+
+        Node(DbUtil dbUtil, JoinMapping<?> mapping, ResultSetMetaData metaData,
+                Map<JoinMapping<?>, Set<Integer>> columns) throws SQLException {
+            this.dbUtil = dbUtil;
+            this.plan = dbUtil.createMappingPlan(mapping.voClass, metaData, mapping.prefix, columns.get(mapping));
+            this.keys = new int[mapping.keyColumns.length];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = column(metaData, mapping.prefix + mapping.keyColumns[i]);
+            }
+            this.links = mapping.links;
+            this.children = new Node[links.size()];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = new Node(dbUtil, links.get(i).child, metaData, columns);
+            }
+        }
+
+        private static int column(ResultSetMetaData metaData, String label) throws SQLException {
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                if (metaData.getColumnLabel(i).equalsIgnoreCase(label)) {
+                    return i;
+                }
+            }
+            throw new SQLException("Key column " + label + " not found");
+        }
+
+        /**
+         * @return a chave da linha, ou <code>null</code> se todas as colunas
+         *         chave forem nulas
+         */
+        Object key(ResultSet rs) throws SQLException {
+            if (keys.length == 1) {
+                return rs.getObject(keys[0]);
+            }
+            Object[] values = new Object[keys.length];
+            boolean empty = true;
+            for (int i = 0; i < keys.length; i++) {
+                values[i] = rs.getObject(keys[i]);
+                empty &= values[i] == null;
+            }
+            return empty ? null : Arrays.asList(values);
+        }
+
+        @SuppressWarnings("unchecked")
+        <V> V create(ResultSet rs) throws SQLException {
+            try {
+                Object vo = plan.beanClass.getDeclaredConstructor().newInstance();
+                dbUtil.fillBean(vo, rs, plan);
+                return (V) vo;
+            } catch (NoSuchMethodException e) {
+                throw new RuntimeException(e);
+            } catch (InstantiationException e) {
+                throw new RuntimeException(e);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        void readChildren(Object vo, ResultSet rs) throws SQLException {
+            for (int i = 0; i < children.length; i++) {
+                Object child = children[i].read(rs);
+                if (child == null) {
+                    continue;
+                }
+                Set<Object> added = attached.get(vo);
+                if (added == null) {
+                    added = new LinkedHashSet<Object>();
+                    attached.put(vo, added);
+                }
+                // os filhos vem do identity map, então a identidade basta
+                if (added.add(new Identity(i, child))) {
+                    links.get(i).attach(vo, child);
+                }
+            }
+        }
+
+        private Object read(ResultSet rs) throws SQLException {
+            Object key = key(rs);
+            if (key == null) {
+                return null;
+            }
+            Object vo = instances.get(key);
+            if (vo == null) {
+                vo = create(rs);
+                instances.put(key, vo);
+            }
+            readChildren(vo, rs);
+            return vo;
+        }
+    }
+
+    /**
+     * Um filho já adicionado ao pai, comparado pela identidade do objeto
+     */
+    private static final class Identity {
+
+        private final int link;
+        private final Object vo;
+
+        Identity(int link, Object vo) {
+            this.link = link;
+            this.vo = vo;
+        }
+
+        public int hashCode() {
+            return 31 * link + System.identityHashCode(vo);
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Identity)) {
+                return false;
+            }
+            Identity other = (Identity) obj;
+            return link == other.link && vo == other.vo;
+        }
+    }
+
+    /**
+     * A propriedade do pai que recebe um filho
+     */
+    private static final class Link {
+
+        private final String property;
+        private final JoinMapping<?> child;
+        private volatile Class<?> ownerClass;
+        private volatile Method getter;
+        private volatile Method setter;
+        private volatile Field field;
+        private volatile Class<?> type;
+
+        Link(String property, JoinMapping<?> child) {
+            this.property = property;
+            this.child = child;
+        }
+
+        @SuppressWarnings("unchecked")
+        void attach(Object parent, Object vo) {
+            resolve(parent.getClass());
+            try {
+                if (Collection.class.isAssignableFrom(type)) {
+                    Collection<Object> collection = (Collection<Object>) get(parent);
+                    if (collection == null) {
+                        collection = Set.class.isAssignableFrom(type) ? new LinkedHashSet<Object>()
+                                : new ArrayList<Object>();
+                        set(parent, collection);
+                    }
+                    collection.add(vo);
+                } else {
+                    set(parent, vo);
+                }
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        private Object get(Object parent) throws IllegalAccessException, InvocationTargetException {
+            return getter != null ? getter.invoke(parent) : field.get(parent);
+        }
+
+        private void set(Object parent, Object value) throws IllegalAccessException, InvocationTargetException {
+            if (setter != null) {
+                setter.invoke(parent, value);
+            } else {
+                field.set(parent, value);
+            }
+        }
+
+        private void resolve(Class<?> parentClass) {
+            if (ownerClass == parentClass) {
+                return;
+            }
+            Method get = null;
+            Method set = null;
+            for (Method method : parentClass.getMethods()) {
+                int params = method.getParameterTypes().length;
+                if (params == 0 && (method.getName().equalsIgnoreCase("get" + property))) {
+                    get = method;
+                } else if (params == 1 && method.getName().equalsIgnoreCase("set" + property)) {
+                    set = method;
+                }
+            }
+            Field publicField = null;
+            if (get == null || set == null) {
+                for (Field f : parentClass.getFields()) {
+                    if (f.getName().equalsIgnoreCase(property)) {
+                        publicField = f;
+                    }
+                }
+                if (publicField == null) {
+                    throw new IllegalArgumentException("Property " + property + " not found in "
+                            + parentClass.getName());
+                }
+                get = null;
+                set = null;
+            }
+            type = publicField != null ? publicField.getType() : set.getParameterTypes()[0];
+            getter = get;
+            setter = set;
+            field = publicField;
+            ownerClass = parentClass;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Query paginada pela chave (<i>keyset pagination</i>): cada página começa
+ * depois da última chave da página anterior, em vez de usar
+ * <code>OFFSET</code>. Assim o banco usa o índice da chave para chegar ao
+ * início da página, e as páginas do final custam o mesmo que a primeira.
+ * <p>
+ * O comando é colocado em uma subquery, que recebe o filtro pela chave, a
+ * ordenação e o limite de linhas na sintaxe do {@link Dialect} do banco. Por
+ * isso o comando não deve ter ORDER BY, e a chave deve ser uma coluna única do
+ * resultado, referenciada pelo seu nome no SELECT.
+ * <p>
+ * A chave deve ser NOT NULL: uma linha com a chave nula lança
+ * <i>SQLException</i>, pois não há como continuar depois dela. Se a chave não
+ * for única, as linhas com o mesmo valor da última chave de uma página são
+ * puladas na página seguinte.
+ * 
+ * <pre>
+ * KeysetQuery query = dbUtil.keyset(&quot;SELECT * FROM pedido WHERE cliente = :cliente&quot;, &quot;id&quot;, 100)
+ *     .setParameter(&quot;cliente&quot;, cliente);
+ * for (List&lt;Pedido&gt; pagina : query.pages(Pedido.class)) {
+ *     ...
+ * }
+ * </pre>
+ * 
+ * @author Thiago
+ */
+public class KeysetQuery {
+
+    /**
+     * Nome do parametro que recebe a última chave da página anterior
+     */
+    public static final String LAST_KEY = "lastkey";
+
+    private final DbUtil dbUtil;
+    private final String query;
+    private final String keyColumn;
+    private final int pageSize;
+    private final Map<String, Object> parameters = new HashMap<String, Object>();
+    private String firstPage;
+    private String nextPage;
+
+    KeysetQuery(DbUtil dbUtil, String query, String keyColumn, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be greater than zero");
+        }
+        this.dbUtil = dbUtil;
+        this.query = query;
+        this.keyColumn = keyColumn;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Define um parametro nomeado, comum a todas as páginas
+     * 
+     * @param name
+     *            o nome do parametro
+     * @param value
+     *            o valor do parametro
+     * @return
+     */
+    public KeysetQuery setParameter(String name, Object value) {
+        parameters.put(name.toLowerCase(), value);
+        return this;
+    }
+
+    /**
+     * Executa a query, retornando a página seguinte à chave
+     * 
+     * @param <T>
+     * @param voClass
+     *            A classe que deve ser usada para recuperar os dados da query
+     * @param lastKey
+     *            a última chave da página anterior, ou <code>null</code> para
+     *            a primeira página
+     * @return as linhas da página, ordenadas pela chave
+     * @throws SQLException
+     */
+    public <T> List<T> page(Class<T> voClass, Object lastKey) throws SQLException {
+        return dbUtil.listPage(query(lastKey), voClass, keyColumn, null);
+    }
+
+    /**
+     * Percorre todas as páginas da query. Cada página é lida do banco somente
+     * quando é pedida ao iterator, e os erros de acesso ao banco são lançados
+     * como <i>RuntimeException</i>.
+     * 
+     * @param <T>
+     * @param voClass
+     *            A classe que deve ser usada para recuperar os dados da query
+     * @return as páginas, em ordem de chave
+     */
+    public <T> Iterable<List<T>> pages(final Class<T> voClass) {
+        return new Iterable<List<T>>() {
+
+            public Iterator<List<T>> iterator() {
+                return new PageIterator<T>(voClass);
+            }
+        };
+    }
+
+    private Query query(Object lastKey) throws SQLException {
+        Map<String, Object> values = new HashMap<String, Object>(parameters);
+        String sql;
+        if (lastKey == null) {
+            sql = firstPage();
+        } else {
+            sql = nextPage();
+            values.put(LAST_KEY, lastKey);
+        }
+        return dbUtil.execute(sql).setMaxRows(pageSize).setNamedParameter(values);
+    }
+
+    private String firstPage() throws SQLException {
+        if (firstPage == null) {
+            firstPage = dbUtil.getDialect().limit(
+                    "SELECT * FROM (" + query + ") p ORDER BY p." + keyColumn, pageSize);
+        }
+        return firstPage;
+    }
+
+    private String nextPage() throws SQLException {
+        if (nextPage == null) {
+            nextPage = dbUtil.getDialect().limit(
+                    "SELECT * FROM (" + query + ") p WHERE p." + keyColumn + " > :" + LAST_KEY + " ORDER BY p."
+                            + keyColumn, pageSize);
+        }
+        return nextPage;
+    }
+
+    private class PageIterator<T> implements Iterator<List<T>> {
+
+        private final Class<T> voClass;
+        private final Object[] lastKey = new Object[1];
+        private List<T> page;
+        private boolean done;
+
+        PageIterator(Class<T> voClass) {
+            this.voClass = voClass;
+        }
+
+        public boolean hasNext() {
+            if (page == null && !done) {
+                try {
+                    page = dbUtil.listPage(query(lastKey[0]), voClass, keyColumn, lastKey);
+                } catch (SQLException e) {
+                    done = true;
+                    throw new RuntimeException(e);
+                }
+                if (page.size() < pageSize) {
+                    done = true;
+                }
+                if (page.isEmpty()) {
+                    page = null;
+                }
+            }
+            return page != null;
+        }
+
+        public List<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            List<T> result = page;
+            page = null;
+            return result;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
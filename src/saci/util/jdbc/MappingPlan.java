@@ -0,0 +1,119 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import saci.util.jdbc.DbUtil.AccessorMap;
+
+/**
+ * Plano de mapeamento de um <i>ResultSet</i> para um VO: para cada coluna
+ * mapeada guarda o índice da coluna, o acessor e o conversor. É montado uma
+ * única vez a partir do <i>ResultSetMetaData</i>, de forma que o preenchimento
+ * de cada linha é apenas um percurso pelos arrays.
+ * 
+ * @author Thiago
+ */
+final class MappingPlan {
+
+    final Class<?> beanClass;
+    final int[] columns;
+    final String[] labels;
+    final AccessorMap[] accessors;
+    final TypeConverter[] converters;
+    final TypeConverter valueConverter;
+    private final Map<String, AccessorMap> accessorMap;
+
+    MappingPlan(Class<?> beanClass, int[] columns, String[] labels, AccessorMap[] accessors,
+            TypeConverter[] converters, Map<String, AccessorMap> accessorMap) {
+        this.beanClass = beanClass;
+        this.columns = columns;
+        this.labels = labels;
+        this.accessors = accessors;
+        this.converters = converters;
+        this.valueConverter = null;
+        this.accessorMap = accessorMap;
+    }
+
+    /**
+     * Plano para queries que retornam um único valor por linha (String,
+     * Integer, ...), lido da primeira coluna
+     */
+    MappingPlan(Class<?> valueClass, TypeConverter valueConverter) {
+        this.beanClass = valueClass;
+        this.columns = new int[0];
+        this.labels = new String[0];
+        this.accessors = new AccessorMap[0];
+        this.converters = new TypeConverter[0];
+        this.valueConverter = valueConverter;
+        this.accessorMap = Collections.<String, AccessorMap> emptyMap();
+    }
+
+    /**
+     * Chave do cache de planos: a classe do VO mais os rótulos e tipos das
+     * colunas, na ordem do <i>ResultSet</i>.
+     */
+    static final class Key {
+
+        private final Class<?> beanClass;
+        private final String[] labels;
+        private final int[] types;
+        private final int hash;
+
+        Key(Class<?> beanClass, ResultSetMetaData metaData) throws SQLException {
+            int count = metaData.getColumnCount();
+            this.beanClass = beanClass;
+            this.labels = new String[count];
+            this.types = new int[count];
+            for (int i = 0; i < count; i++) {
+                labels[i] = metaData.getColumnLabel(i + 1);
+                types[i] = metaData.getColumnType(i + 1);
+            }
+            this.hash = 31 * (31 * beanClass.hashCode() + Arrays.hashCode(labels)) + Arrays.hashCode(types);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && beanClass.equals(other.beanClass) && Arrays.equals(types, other.types)
+                    && Arrays.equals(labels, other.labels);
+        }
+    }
+
+    int size() {
+        return columns.length;
+    }
+
+    Map<String, AccessorMap> getAccessorMap() {
+        return accessorMap;
+    }
+}
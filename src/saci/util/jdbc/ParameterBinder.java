@@ -0,0 +1,205 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+
+import saci.util.ConcurrentCache;
+
+/**
+ * Grava os parametros nomeados de uma query a partir dos getters de um VO
+ * ({@link Query#setNamedParameter(Object)}).
+ * <p>
+ * O binder é montado uma única vez para cada classe de VO e query, e fica em
+ * cache global. Cada parametro guarda o {@link PropertyReader} do getter e o
+ * {@link TypeConverter} do tipo, de forma que a gravação não usa reflection e,
+ * para os tipos primitivos, não faz boxing.
+ * 
+ * @author Thiago
+ */
+final class ParameterBinder {
+
+    private static final ConcurrentCache<Key, ParameterBinder> cache = new ConcurrentCache<Key, ParameterBinder>(
+            2048, 128);
+    private final int[][] indexes;
+    private final PropertyReader[] readers;
+    private final TypeConverter[] converters;
+    private final String[] missing;
+
+    private ParameterBinder(Class<?> beanClass, QueryMap queryMap) {
+        Map<String, Method> getters = getters(beanClass);
+        List<int[]> indexList = new ArrayList<int[]>();
+        List<PropertyReader> readerList = new ArrayList<PropertyReader>();
+        List<TypeConverter> converterList = new ArrayList<TypeConverter>();
+        List<String> missingList = new ArrayList<String>();
+        for (Entry<String, List<Integer>> parameter : queryMap.listParameters()) {
+            Method getter = getters.get(parameter.getKey());
+            if (getter == null) {
+                missingList.add(parameter.getKey());
+                continue;
+            }
+            int[] index = new int[parameter.getValue().size()];
+            for (int i = 0; i < index.length; i++) {
+                index[i] = parameter.getValue().get(i).intValue();
+            }
+            indexList.add(index);
+            readerList.add(AccessorGenerator.reader(getter));
+            converterList.add(ConverterRegistry.getConverter(getter.getReturnType()));
+        }
+        this.indexes = indexList.toArray(new int[indexList.size()][]);
+        this.readers = readerList.toArray(new PropertyReader[readerList.size()]);
+        this.converters = converterList.toArray(new TypeConverter[converterList.size()]);
+        this.missing = missingList.toArray(new String[missingList.size()]);
+    }
+
+    /**
+     * @return o binder da classe para a query
+     */
+    static ParameterBinder get(Class<?> beanClass, QueryMap queryMap) {
+        Key key = new Key(beanClass, queryMap.getQuery());
+        ParameterBinder binder = cache.get(key);
+        if (binder == null) {
+            binder = cache.putIfAbsent(key, new ParameterBinder(beanClass, queryMap));
+        }
+        return binder;
+    }
+
+    static void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Grava os parametros da query com os valores do VO
+     */
+    void bind(Query query, Object bean) throws SQLException {
+        bind(query, bean, 0);
+    }
+
+    /**
+     * Grava os parametros com os valores do VO, somando <code>offset</code>
+     * aos índices (para os comandos com várias linhas no VALUES)
+     */
+    void bind(Query query, Object bean, int offset) throws SQLException {
+        if (missing.length > 0 && DbUtil.logger.isLoggable(Level.INFO)) {
+            for (String name : missing) {
+                DbUtil.logger.info("Parameter " + name + " not found in " + bean.getClass().getName());
+            }
+        }
+        PreparedStatement stmt = query.getStatement();
+        DbUtil dbUtil = query.getDbUtil();
+        boolean capture = query.isCapturing();
+        for (int i = 0; i < readers.length; i++) {
+            TypeConverter converter = converters[i];
+            if (capture || converter == null) {
+                Object value = readers[i].get(bean);
+                for (int index : indexes[i]) {
+                    query.bound(index + offset, value);
+                    if (converter != null) {
+                        converter.setParameter(dbUtil, stmt, index + offset, value);
+                    } else {
+                        stmt.setObject(index + offset, value);
+                    }
+                }
+            } else {
+                for (int index : indexes[i]) {
+                    converter.bind(dbUtil, stmt, index + offset, bean, readers[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return os nomes das propriedades da classe que podem ser gravadas no
+     *         banco e lidas de volta (com getter e setter do mesmo tipo), em
+     *         ordem alfabética
+     */
+    static String[] columns(Class<?> beanClass) {
+        Set<String> setters = new HashSet<String>();
+        for (Method method : beanClass.getMethods()) {
+            Class<?>[] types = method.getParameterTypes();
+            if (method.getName().startsWith("set") && types.length == 1) {
+                setters.add(method.getName().substring(3).toLowerCase() + ":" + types[0].getName());
+            }
+        }
+        Set<String> columns = new TreeSet<String>();
+        for (Entry<String, Method> getter : getters(beanClass).entrySet()) {
+            Class<?> type = getter.getValue().getReturnType();
+            if (ConverterRegistry.isSupported(type) && setters.contains(getter.getKey() + ":" + type.getName())) {
+                columns.add(getter.getKey());
+            }
+        }
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    /**
+     * @return os getters da classe, indexados pelo nome da propriedade em
+     *         minúsculas
+     */
+    static Map<String, Method> getters(Class<?> beanClass) {
+        Map<String, Method> map = new HashMap<String, Method>();
+        for (Method method : beanClass.getMethods()) {
+            String methodName = method.getName();
+            if (method.getParameterTypes().length > 0 || method.getDeclaringClass().equals(Object.class)) {
+                continue;
+            }
+            if (methodName.startsWith("get")) {
+                map.put(methodName.substring(3).toLowerCase(), method);
+            } else if (methodName.startsWith("is")) {
+                map.put(methodName.substring(2).toLowerCase(), method);
+            }
+        }
+        return map;
+    }
+
+    private static final class Key {
+
+        private final Class<?> beanClass;
+        private final String query;
+        private final int hash;
+
+        Key(Class<?> beanClass, String query) {
+            this.beanClass = beanClass;
+            this.query = query;
+            this.hash = beanClass.hashCode() * 31 + query.hashCode();
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return beanClass == other.beanClass && query.equals(other.query);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Streams usados para gravar arquivos, <i>ByteBuffer</i>s e canais como
+ * parametros binários, sem copiar o conteúdo para um <code>byte[]</code>.
+ * 
+ * @author Thiago
+ */
+final class ParameterStreams {
+
+    private ParameterStreams() {
+    }
+
+    /**
+     * @return um stream que lê o arquivo pelo seu canal. O arquivo só é aberto
+     *         na primeira leitura, de forma que uma query que nunca é
+     *         executada não prende o arquivo, e é liberado assim que o stream
+     *         é fechado.
+     */
+    static InputStream open(File file) {
+        return new FileChannelInputStream(file);
+    }
+
+    /**
+     * @return um stream sobre os bytes restantes do buffer, sem alterar a
+     *         posição do buffer original
+     */
+    static InputStream open(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer
+                    .remaining());
+        }
+        return new ByteBufferInputStream(buffer.duplicate());
+    }
+
+    static InputStream open(ReadableByteChannel channel) {
+        return Channels.newInputStream(channel);
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return se há bytes para ler em <code>buffer</code>
+         */
+        boolean ensure() throws IOException {
+            return buffer.hasRemaining();
+        }
+
+        public int read() throws IOException {
+            return ensure() ? buffer.get() & 0xFF : -1;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensure()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && ensure()) {
+                int step = (int) Math.min(n - skipped, buffer.remaining());
+                buffer.position(buffer.position() + step);
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        public int available() throws IOException {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Lê o arquivo pelo canal em um buffer direto reaproveitado, sem mapear o
+     * arquivo em memória: uma região mapeada só é liberada pelo coletor de
+     * lixo e, até lá, mantém o arquivo bloqueado no Windows
+     */
+    private static final class FileChannelInputStream extends ByteBufferInputStream {
+
+        private static final int BUFFER = 64 * 1024;
+        private final File file;
+        private final long size;
+        private FileChannel channel;
+        private boolean closed;
+        private long position;
+
+        FileChannelInputStream(File file) {
+            super(null);
+            this.file = file;
+            this.size = file.length();
+        }
+
+        boolean ensure() throws IOException {
+            if (buffer != null && buffer.hasRemaining()) {
+                return true;
+            }
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(BUFFER);
+            }
+            buffer.clear();
+            int read = fill(buffer);
+            buffer.flip();
+            return read > 0;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len >= BUFFER && (buffer == null || !buffer.hasRemaining())) {
+                // leituras grandes vão direto para o array do chamador
+                int read = fill(ByteBuffer.wrap(b, off, len));
+                return read > 0 ? read : -1;
+            }
+            return super.read(b, off, len);
+        }
+
+        /**
+         * @return a quantidade de bytes lidos para <code>target</code>, ou -1
+         *         no fim do arquivo
+         */
+        private int fill(ByteBuffer target) throws IOException {
+            if (channel == null) {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                channel = new RandomAccessFile(file, "r").getChannel();
+            }
+            int read;
+            do {
+                read = channel.read(target);
+            } while (read == 0 && target.hasRemaining());
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        public int available() throws IOException {
+            long remaining = Math.max(0, size - position) + (buffer == null ? 0 : buffer.remaining());
+            return (int) Math.min(Integer.MAX_VALUE, remaining);
+        }
+
+        public void close() throws IOException {
+            buffer = null;
+            closed = true;
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+}
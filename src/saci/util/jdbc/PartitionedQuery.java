@@ -0,0 +1,283 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Query executada em fatias de uma faixa de chaves, em paralelo.
+ * <p>
+ * O comando deve conter os parametros nomeados <code>:lo</code> e
+ * <code>:hi</code>, que recebem os limites de cada fatia (o inferior
+ * inclusivo e o superior exclusivo). Cada fatia é executada em uma conexão
+ * própria, no executor do {@link DbUtil}, e os resultados são juntados no
+ * final. Com uma conexão fixa no {@link DbUtil}, as fatias são executadas uma
+ * após a outra.
+ * 
+ * <pre>
+ * List&lt;Cliente&gt; clientes = dbUtil.partition(
+ *         &quot;SELECT * FROM cliente WHERE id &gt;= :lo AND id &lt; :hi AND estado = :estado&quot;, 8)
+ *     .setParameter(&quot;estado&quot;, &quot;SP&quot;)
+ *     .setRange(0, 1000000)
+ *     .list(Cliente.class);
+ * </pre>
+ * 
+ * @author Thiago
+ */
+public class PartitionedQuery {
+
+    /**
+     * Nome do parametro que recebe o limite inferior (inclusivo) da fatia
+     */
+    public static final String LO = "lo";
+    /**
+     * Nome do parametro que recebe o limite superior (exclusivo) da fatia
+     */
+    public static final String HI = "hi";
+
+    private final DbUtil dbUtil;
+    private final String query;
+    private final int partitions;
+    private final Map<String, Object> parameters = new HashMap<String, Object>();
+    private long lo;
+    private long hi;
+    private boolean ranged;
+
+    PartitionedQuery(DbUtil dbUtil, String query, int partitions) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("Partitions must be greater than zero");
+        }
+        this.dbUtil = dbUtil;
+        this.query = query;
+        this.partitions = partitions;
+    }
+
+    /**
+     * Define um parametro nomeado, comum a todas as fatias
+     * 
+     * @param name
+     *            o nome do parametro
+     * @param value
+     *            o valor do parametro
+     * @return
+     */
+    public PartitionedQuery setParameter(String name, Object value) {
+        parameters.put(name.toLowerCase(), value);
+        return this;
+    }
+
+    /**
+     * Define a faixa de chaves que será dividida entre as fatias
+     * 
+     * @param lo
+     *            o menor valor da chave (inclusivo)
+     * @param hi
+     *            o maior valor da chave (exclusivo)
+     * @return
+     * @throws IllegalArgumentException
+     *             se a faixa for invertida ou maior que
+     *             <code>Long.MAX_VALUE</code>
+     */
+    public PartitionedQuery setRange(long lo, long hi) {
+        // hi - lo negativo com hi >= lo é um overflow
+        if (hi < lo || hi - lo < 0) {
+            throw new IllegalArgumentException("Invalid range [" + lo + ", " + hi + ")");
+        }
+        this.lo = lo;
+        this.hi = hi;
+        this.ranged = true;
+        return this;
+    }
+
+    /**
+     * Executa as fatias, retornando os resultados na ordem das fatias
+     * 
+     * @param <T>
+     * @param voClass
+     *            A classe que deve ser usada para recuperar os dados da query
+     * @return a lista com os resultados de todas as fatias
+     * @throws SQLException
+     */
+    public <T> List<T> list(Class<T> voClass) throws SQLException {
+        List<List<T>> slices = execute(voClass);
+        int size = 0;
+        for (List<T> slice : slices) {
+            size += slice.size();
+        }
+        List<T> result = new ArrayList<T>(size);
+        for (List<T> slice : slices) {
+            result.addAll(slice);
+        }
+        return result;
+    }
+
+    /**
+     * Executa as fatias, intercalando os resultados segundo o
+     * <i>comparator</i>. O resultado de cada fatia já deve estar nesta ordem
+     * (normalmente pelo ORDER BY da query).
+     * 
+     * @param <T>
+     * @param voClass
+     *            A classe que deve ser usada para recuperar os dados da query
+     * @param comparator
+     *            a ordem dos resultados
+     * @return a lista ordenada com os resultados de todas as fatias
+     * @throws SQLException
+     */
+    public <T> List<T> list(Class<T> voClass, final Comparator<? super T> comparator) throws SQLException {
+        final List<List<T>> slices = execute(voClass);
+        final int[] positions = new int[slices.size()];
+        PriorityQueue<Integer> heads = new PriorityQueue<Integer>(Math.max(1, slices.size()),
+                new Comparator<Integer>() {
+
+                    public int compare(Integer a, Integer b) {
+                        return comparator.compare(slices.get(a).get(positions[a]), slices.get(b).get(positions[b]));
+                    }
+                });
+        int size = 0;
+        for (int i = 0; i < slices.size(); i++) {
+            size += slices.get(i).size();
+            if (!slices.get(i).isEmpty()) {
+                heads.add(Integer.valueOf(i));
+            }
+        }
+        List<T> result = new ArrayList<T>(size);
+        while (!heads.isEmpty()) {
+            Integer slice = heads.poll();
+            List<T> rows = slices.get(slice);
+            result.add(rows.get(positions[slice]++));
+            if (positions[slice] < rows.size()) {
+                heads.add(slice);
+            }
+        }
+        return result;
+    }
+
+    private <T> List<List<T>> execute(Class<T> voClass) throws SQLException {
+        if (!ranged) {
+            throw new IllegalStateException("setRange must be called before executing a partitioned query");
+        }
+        long[] bounds = bounds();
+        int count = bounds.length - 1;
+        // todas as fatias são montadas antes da primeira execução, para que
+        // um erro nos parametros não deixe fatias executando
+        List<Query> queries = new ArrayList<Query>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                queries.add(slice(bounds[i], bounds[i + 1]));
+            }
+        } catch (SQLException e) {
+            release(queries);
+            throw e;
+        } catch (RuntimeException e) {
+            release(queries);
+            throw e;
+        }
+        int next = 0;
+        if (!dbUtil.isDataSource()) {
+            try {
+                List<List<T>> result = new ArrayList<List<T>>(count);
+                while (next < count) {
+                    result.add(queries.get(next++).list(voClass));
+                }
+                return result;
+            } finally {
+                release(queries.subList(next, count));
+            }
+        }
+        List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>(count);
+        List<List<T>> result = new ArrayList<List<T>>(count);
+        Throwable error = null;
+        try {
+            while (next < count) {
+                futures.add(queries.get(next++).listAsync(voClass));
+            }
+        } catch (RuntimeException e) {
+            error = e;
+        } finally {
+            release(queries.subList(next, count));
+            // aguarda todas as fatias já enviadas, mesmo em caso de erro,
+            // para que nenhuma conexão continue em uso depois do retorno
+            boolean interrupted = false;
+            for (Future<List<T>> future : futures) {
+                while (true) {
+                    try {
+                        result.add(future.get());
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        if (error == null) {
+                            error = e.getCause();
+                        }
+                        break;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (error instanceof SQLException) {
+            throw (SQLException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error != null) {
+            throw new RuntimeException(error);
+        }
+        return result;
+    }
+
+    private void release(List<Query> queries) {
+        for (Query query : queries) {
+            dbUtil.release(query, null);
+        }
+    }
+
+    private Query slice(long from, long to) throws SQLException {
+        Map<String, Object> values = new HashMap<String, Object>(parameters);
+        values.put(LO, Long.valueOf(from));
+        values.put(HI, Long.valueOf(to));
+        return dbUtil.execute(query).setNamedParameter(values);
+    }
+
+    /**
+     * @return os limites das fatias, com a faixa dividida em partes iguais
+     */
+    long[] bounds() {
+        long length = hi - lo;
+        int count = (int) Math.max(1, Math.min(partitions, length));
+        long[] bounds = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            bounds[i] = lo + length / count * i + Math.min(i, length % count);
+        }
+        bounds[count] = hi;
+        return bounds;
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+/**
+ * Lê o valor de uma propriedade (getter) de um VO.
+ * <p>
+ * As implementações são geradas em tempo de execução pelo
+ * {@link AccessorGenerator}, chamando o getter diretamente, sem reflection. Os
+ * métodos tipados (<code>getInt</code>, <code>getLong</code>, ...) evitam o
+ * boxing quando a propriedade é de um tipo primitivo.
+ * 
+ * @author Thiago
+ * @see PropertyWriter
+ */
+public abstract class PropertyReader {
+
+    private final Class<?> type;
+    private final int kind;
+
+    protected PropertyReader(Class<?> type) {
+        this.type = type;
+        this.kind = PropertyWriter.kindOf(type);
+    }
+
+    /**
+     * @return o tipo da propriedade
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    int getKind() {
+        return kind;
+    }
+
+    /**
+     * Lê o valor da propriedade, convertendo os tipos primitivos para os
+     * wrappers correspondentes
+     * 
+     * @param bean
+     *            o objeto que deve ser lido
+     * @return o valor da propriedade
+     */
+    public Object get(Object bean) {
+        switch (kind) {
+        case PropertyWriter.INT:
+            return Integer.valueOf(getInt(bean));
+        case PropertyWriter.LONG:
+            return Long.valueOf(getLong(bean));
+        case PropertyWriter.FLOAT:
+            return Float.valueOf(getFloat(bean));
+        case PropertyWriter.DOUBLE:
+            return Double.valueOf(getDouble(bean));
+        case PropertyWriter.BOOLEAN:
+            return Boolean.valueOf(getBoolean(bean));
+        default:
+            return getObject(bean);
+        }
+    }
+
+    public int getInt(Object bean) {
+        return ((Number) getObject(bean)).intValue();
+    }
+
+    public long getLong(Object bean) {
+        return ((Number) getObject(bean)).longValue();
+    }
+
+    public float getFloat(Object bean) {
+        return ((Number) getObject(bean)).floatValue();
+    }
+
+    public double getDouble(Object bean) {
+        return ((Number) getObject(bean)).doubleValue();
+    }
+
+    public boolean getBoolean(Object bean) {
+        return ((Boolean) getObject(bean)).booleanValue();
+    }
+
+    public Object getObject(Object bean) {
+        throw new UnsupportedOperationException("Property of type " + type.getName() + " is not an object");
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+/**
+ * Escreve o valor de uma propriedade (setter ou campo público) de um VO.
+ * <p>
+ * As implementações são geradas em tempo de execução pelo
+ * {@link AccessorGenerator}, chamando o setter diretamente, sem reflection. Os
+ * métodos tipados (<code>setInt</code>, <code>setLong</code>, ...) evitam o
+ * boxing quando a propriedade é de um tipo primitivo.
+ * 
+ * @author Thiago
+ */
+public abstract class PropertyWriter {
+
+    static final int OBJECT = 0;
+    static final int INT = 1;
+    static final int LONG = 2;
+    static final int FLOAT = 3;
+    static final int DOUBLE = 4;
+    static final int BOOLEAN = 5;
+
+    private final Class<?> type;
+    private final int kind;
+
+    protected PropertyWriter(Class<?> type) {
+        this.type = type;
+        this.kind = kindOf(type);
+    }
+
+    static int kindOf(Class<?> type) {
+        if (type.equals(Integer.TYPE)) {
+            return INT;
+        } else if (type.equals(Long.TYPE)) {
+            return LONG;
+        } else if (type.equals(Float.TYPE)) {
+            return FLOAT;
+        } else if (type.equals(Double.TYPE)) {
+            return DOUBLE;
+        } else if (type.equals(Boolean.TYPE)) {
+            return BOOLEAN;
+        }
+        return OBJECT;
+    }
+
+    /**
+     * @return o tipo da propriedade
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Altera o valor da propriedade, convertendo o valor para o tipo primitivo
+     * quando necessário. Valores nulos em propriedades primitivas são gravados
+     * como zero (ou <code>false</code>).
+     * 
+     * @param bean
+     *            o objeto que deve ser alterado
+     * @param value
+     *            o novo valor
+     */
+    public void set(Object bean, Object value) {
+        switch (kind) {
+        case INT:
+            setInt(bean, value == null ? 0 : ((Number) value).intValue());
+            break;
+        case LONG:
+            setLong(bean, value == null ? 0L : ((Number) value).longValue());
+            break;
+        case FLOAT:
+            setFloat(bean, value == null ? 0F : ((Number) value).floatValue());
+            break;
+        case DOUBLE:
+            setDouble(bean, value == null ? 0D : ((Number) value).doubleValue());
+            break;
+        case BOOLEAN:
+            setBoolean(bean, value == null ? false : ((Boolean) value).booleanValue());
+            break;
+        default:
+            setObject(bean, value);
+        }
+    }
+
+    public void setInt(Object bean, int value) {
+        setObject(bean, Integer.valueOf(value));
+    }
+
+    public void setLong(Object bean, long value) {
+        setObject(bean, Long.valueOf(value));
+    }
+
+    public void setFloat(Object bean, float value) {
+        setObject(bean, Float.valueOf(value));
+    }
+
+    public void setDouble(Object bean, double value) {
+        setObject(bean, Double.valueOf(value));
+    }
+
+    public void setBoolean(Object bean, boolean value) {
+        setObject(bean, Boolean.valueOf(value));
+    }
+
+    public void setObject(Object bean, Object value) {
+        throw new UnsupportedOperationException("Property of type " + type.getName() + " does not accept objects");
+    }
+}
@@ -18,11 +18,16 @@
 
 package saci.util.jdbc;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -34,6 +39,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 
 /**
@@ -43,22 +51,143 @@ import java.util.logging.Level;
  */
 public class Query {
 
-    private Map<Class<?>, Map<String, Method>> beanMap = new HashMap<Class<?>, Map<String, Method>>();
+    private static final ConcurrentHashMap<Class<?>, Boolean> mapBeanOverrides =
+            new ConcurrentHashMap<Class<?>, Boolean>();
     @SuppressWarnings("unchecked")
     private List<QueryListener> listeners;
     private PreparedStatement stmt;
+    private Connection connection;
+    private boolean leased;
     private QueryMap queryMap;
     private DbUtil dbUtil;
     private int param = 1;
+    private Object[] parameterValues;
+    private int boundCount;
+    private long cacheTtl;
+    private List<Closeable> streams;
+    private boolean fetchSizeSet;
+    private int maxRows;
 
-    PreparedStatement getPreparedStatement() {
+    /**
+     * Prepara a query para a execução: quando a conexão vem de um datasource,
+     * ela é obtida neste momento, e os parametros já definidos são gravados no
+     * statement real
+     * 
+     * @return o statement que deve ser executado
+     */
+    PreparedStatement getPreparedStatement() throws SQLException {
+        DeferredStatement deferred = DeferredStatement.of(stmt);
+        if (deferred != null) {
+            connection = dbUtil.leaseConnection();
+            PreparedStatement prepared = dbUtil.prepareStatement(connection, queryMap.getQuery());
+            stmt = prepared;
+            deferred.replay(prepared);
+        }
+        return stmt;
+    }
+
+    /**
+     * @return o statement atual, que ainda pode ser o statement adiado de uma
+     *         query sem conexão
+     */
+    PreparedStatement getStatement() {
         return stmt;
     }
 
+    /**
+     * @return se o statement real já foi preparado
+     */
+    boolean isPrepared() {
+        return DeferredStatement.of(stmt) == null;
+    }
+
+    /**
+     * @return o SQL normalizado (com os parametros nomeados convertidos)
+     */
+    String getSql() {
+        return queryMap.getQuery();
+    }
+
+    /**
+     * @return a conexão usada pela query, ou <code>null</code> se ela ainda
+     *         não foi obtida do datasource
+     */
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * @return se a conexão é obtida de um datasource só para a execução desta
+     *         query, e deve ser fechada ao final
+     */
+    boolean isLeased() {
+        return leased;
+    }
+
+    /**
+     * @param conn
+     *            a conexão da query, ou <code>null</code> para obter uma
+     *            conexão do datasource do DbUtil somente na execução
+     */
     Query(DbUtil dbUtil, String query, Connection conn) throws SQLException {
         this.queryMap = QueryMap.mapQuery(query);
         this.dbUtil = dbUtil;
-        this.stmt = conn.prepareStatement(queryMap.getQuery());
+        this.connection = conn;
+        this.leased = conn == null;
+        this.stmt = leased ? DeferredStatement.create() : dbUtil.prepareStatement(conn, queryMap.getQuery());
+        if (SlowQueryLog.isEnabled() || DbUtil.resultCache.isEnabled()) {
+            this.parameterValues = new Object[8];
+        }
+    }
+
+    /**
+     * Guarda o valor do parametro, quando a captura está habilitada
+     * 
+     * @return o índice do parametro
+     */
+    int bound(int index, Object value) {
+        if (parameterValues != null) {
+            if (index > parameterValues.length) {
+                Object[] values = new Object[Math.max(index, parameterValues.length * 2)];
+                System.arraycopy(parameterValues, 0, values, 0, parameterValues.length);
+                parameterValues = values;
+            }
+            parameterValues[index - 1] = value;
+            boundCount = Math.max(boundCount, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return se os valores dos parametros estão sendo guardados
+     */
+    boolean isCapturing() {
+        return parameterValues != null;
+    }
+
+    /**
+     * @return os valores dos parametros, ou <code>null</code> se a captura
+     *         não está habilitada
+     */
+    Object[] getParameterValues() {
+        if (parameterValues == null) {
+            return null;
+        }
+        Object[] values = new Object[boundCount];
+        System.arraycopy(parameterValues, 0, values, 0, boundCount);
+        return values;
+    }
+
+    DbUtil getDbUtil() {
+        return dbUtil;
+    }
+
+    QueryMap getQueryMap() {
+        return queryMap;
+    }
+
+    long getCacheTtl() {
+        return cacheTtl;
     }
 
     /**
@@ -69,7 +198,7 @@ public class Query {
      * @throws SQLException
      */
     public Query addParameter(Integer value) throws SQLException {
-        dbUtil.set(param++, value, stmt);
+        dbUtil.set(bound(param++, value), value, stmt);
         return this;
     }
 
@@ -81,7 +210,7 @@ public class Query {
      * @throws SQLException
      */
     public Query addParameter(Short value) throws SQLException {
-        dbUtil.set(param++, value, stmt);
+        dbUtil.set(bound(param++, value), value, stmt);
         return this;
     }
 
@@ -93,7 +222,7 @@ public class Query {
      * @throws SQLException
      */
     public Query addParameter(Byte value) throws SQLException {
-        dbUtil.set(param++, value, stmt);
+        dbUtil.set(bound(param++, value), value, stmt);
         return this;
     }
 
@@ -105,7 +234,7 @@ public class Query {
      * @throws SQLException
      */
     public Query addParameter(Long value) throws SQLException {
-        dbUtil.set(param++, value, stmt);
+        dbUtil.set(bound(param++, value), value, stmt);
         return this;
     }
 
@@ -117,7 +246,7 @@ public class Query {
      * @throws SQLException
      */
     public Query addParameter(Float value) throws SQLException {
-        dbUtil.set(param++, value, stmt);
+        dbUtil.set(bound(param++, value), value, stmt);
         return this;
     }
 
@@ -129,7 +258,7 @@ public class Query {
      * @throws SQLException
      */
     public Query addParameter(Double value) throws SQLException {
-        dbUtil.set(param++, value, stmt);
+        dbUtil.set(bound(param++, value), value, stmt);
         return this;
     }
 
@@ -141,7 +270,7 @@ public class Query {
      * @throws SQLException
      */
     public Query addParameter(BigDecimal value) throws SQLException {
-        dbUtil.set(param++, value, stmt);
+        dbUtil.set(bound(param++, value), value, stmt);
         return this;
     }
 
@@ -153,7 +282,7 @@ public class Query {
      * @throws SQLException
      */
     public Query addParameter(BigInteger value) throws SQLException {
-        dbUtil.set(param++, value, stmt);
+        dbUtil.set(bound(param++, value), value, stmt);
         return this;
     }
 
@@ -165,7 +294,7 @@ public class Query {
      * @throws SQLException
      */
     public Query addParameter(Date value) throws SQLException {
-        dbUtil.set(param++, value, stmt);
+        dbUtil.set(bound(param++, value), value, stmt);
         return this;
     }
 
@@ -177,7 +306,7 @@ public class Query {
      * @throws SQLException
      */
     public Query addParameter(String value) throws SQLException {
-        dbUtil.set(param++, value, stmt);
+        dbUtil.set(bound(param++, value), value, stmt);
         return this;
     }
 
@@ -189,7 +318,8 @@ public class Query {
      * @throws SQLException
      */
     public Query addLikeParameter(String value) throws SQLException {
-        dbUtil.set(param++, value + "%", stmt);
+        String like = value + "%";
+        dbUtil.set(bound(param++, like), like, stmt);
         return this;
     }
 
@@ -201,7 +331,8 @@ public class Query {
      * @throws SQLException
      */
     public Query addLikeAnyParameter(String value) throws SQLException {
-        dbUtil.set(param++, "%" + value + "%", stmt);
+        String like = "%" + value + "%";
+        dbUtil.set(bound(param++, like), like, stmt);
         return this;
     }
 
@@ -213,10 +344,102 @@ public class Query {
      * @throws SQLException
      */
     public Query addParameter(InputStream value, int length) throws SQLException {
-        dbUtil.set(param++, value, length, stmt);
+        dbUtil.set(bound(param++, value), value, length, stmt);
+        return this;
+    }
+
+    /**
+     * Adiciona o parametro à query, com o tamanho do stream em <i>long</i>
+     * (streams maiores que 2GB precisam de um driver JDBC 4)
+     * 
+     * @param value
+     * @return
+     * @throws SQLException
+     */
+    public Query addParameter(InputStream value, long length) throws SQLException {
+        dbUtil.set(bound(param++, value), value, length, stmt);
+        return this;
+    }
+
+    /**
+     * Adiciona o conteúdo do arquivo como parametro binário. O arquivo só é
+     * aberto durante a execução, lido pelo seu canal em um buffer direto, e
+     * fechado junto com a query.
+     * 
+     * @param value
+     * @return
+     * @throws SQLException
+     */
+    public Query addParameter(File value) throws SQLException {
+        setFile(param++, value);
+        return this;
+    }
+
+    /**
+     * Adiciona os bytes restantes do buffer como parametro binário. A posição
+     * do buffer não é alterada.
+     * 
+     * @param value
+     * @return
+     * @throws SQLException
+     */
+    public Query addParameter(ByteBuffer value) throws SQLException {
+        setBuffer(param++, value);
         return this;
     }
 
+    /**
+     * Adiciona o conteúdo do canal como parametro binário
+     * 
+     * @param value
+     * @param length
+     *            a quantidade de bytes que devem ser lidos do canal
+     * @return
+     * @throws SQLException
+     */
+    public Query addParameter(ReadableByteChannel value, long length) throws SQLException {
+        InputStream in = value == null ? null : ParameterStreams.open(value);
+        return addParameter(in, length);
+    }
+
+    private void setFile(int index, File value) throws SQLException {
+        bound(index, value);
+        if (value == null) {
+            dbUtil.set(index, (InputStream) null, 0L, stmt);
+            return;
+        }
+        if (!value.isFile() || !value.canRead()) {
+            throw new SQLException("Could not read " + value);
+        }
+        InputStream in = ParameterStreams.open(value);
+        if (streams == null) {
+            streams = new ArrayList<Closeable>();
+        }
+        streams.add(in);
+        dbUtil.set(index, in, value.length(), stmt);
+    }
+
+    private void setBuffer(int index, ByteBuffer value) throws SQLException {
+        bound(index, value);
+        InputStream in = value == null ? null : ParameterStreams.open(value);
+        dbUtil.set(index, in, value == null ? 0L : value.remaining(), stmt);
+    }
+
+    /**
+     * Fecha os arquivos abertos pelos parametros
+     */
+    void closeStreams() {
+        if (streams != null) {
+            for (Closeable stream : streams) {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {
+                }
+            }
+            streams = null;
+        }
+    }
+
     /**
      * Adiciona o parametro à query
      * 
@@ -225,7 +448,7 @@ public class Query {
      * @throws SQLException
      */
     public Query addParameter(Boolean value) throws SQLException {
-        dbUtil.set(param++, value, stmt);
+        dbUtil.set(bound(param++, value), value, stmt);
         return this;
     }
 
@@ -237,7 +460,7 @@ public class Query {
      * @throws SQLException
      */
     public Query addParameter(byte[] value) throws SQLException {
-        dbUtil.set(param++, value, stmt);
+        dbUtil.set(bound(param++, value), value, stmt);
         return this;
     }
 
@@ -251,7 +474,7 @@ public class Query {
     public Query setParameter(String name, Integer value) throws SQLException {
         List<Integer> parameterIndex = getParameterIndex(name);
         for (Integer i : parameterIndex) {
-            dbUtil.set(i, value, stmt);
+            dbUtil.set(bound(i, value), value, stmt);
         }
         return this;
     }
@@ -266,7 +489,7 @@ public class Query {
     public Query setParameter(String name, Short value) throws SQLException {
         List<Integer> parameterIndex = getParameterIndex(name);
         for (Integer i : parameterIndex) {
-            dbUtil.set(i, value, stmt);
+            dbUtil.set(bound(i, value), value, stmt);
         }
         return this;
     }
@@ -281,7 +504,7 @@ public class Query {
     public Query setParameter(String name, Byte value) throws SQLException {
         List<Integer> parameterIndex = getParameterIndex(name);
         for (Integer i : parameterIndex) {
-            dbUtil.set(i, value, stmt);
+            dbUtil.set(bound(i, value), value, stmt);
         }
         return this;
     }
@@ -296,7 +519,7 @@ public class Query {
     public Query setParameter(String name, Long value) throws SQLException {
         List<Integer> parameterIndex = getParameterIndex(name);
         for (Integer i : parameterIndex) {
-            dbUtil.set(i, value, stmt);
+            dbUtil.set(bound(i, value), value, stmt);
         }
         return this;
     }
@@ -311,7 +534,7 @@ public class Query {
     public Query setParameter(String name, Float value) throws SQLException {
         List<Integer> parameterIndex = getParameterIndex(name);
         for (Integer i : parameterIndex) {
-            dbUtil.set(i, value, stmt);
+            dbUtil.set(bound(i, value), value, stmt);
         }
         return this;
     }
@@ -326,7 +549,7 @@ public class Query {
     public Query setParameter(String name, Double value) throws SQLException {
         List<Integer> parameterIndex = getParameterIndex(name);
         for (Integer i : parameterIndex) {
-            dbUtil.set(i, value, stmt);
+            dbUtil.set(bound(i, value), value, stmt);
         }
         return this;
     }
@@ -341,7 +564,7 @@ public class Query {
     public Query setParameter(String name, BigDecimal value) throws SQLException {
         List<Integer> parameterIndex = getParameterIndex(name);
         for (Integer i : parameterIndex) {
-            dbUtil.set(i, value, stmt);
+            dbUtil.set(bound(i, value), value, stmt);
         }
         return this;
     }
@@ -356,7 +579,7 @@ public class Query {
     public Query setParameter(String name, BigInteger value) throws SQLException {
         List<Integer> parameterIndex = getParameterIndex(name);
         for (Integer i : parameterIndex) {
-            dbUtil.set(i, value, stmt);
+            dbUtil.set(bound(i, value), value, stmt);
         }
         return this;
     }
@@ -371,7 +594,7 @@ public class Query {
     public Query setParameter(String name, Date value) throws SQLException {
         List<Integer> parameterIndex = getParameterIndex(name);
         for (Integer i : parameterIndex) {
-            dbUtil.set(i, value, stmt);
+            dbUtil.set(bound(i, value), value, stmt);
         }
         return this;
     }
@@ -386,7 +609,7 @@ public class Query {
     public Query setParameter(String name, String value) throws SQLException {
         List<Integer> parameterIndex = getParameterIndex(name);
         for (Integer i : parameterIndex) {
-            dbUtil.set(i, value, stmt);
+            dbUtil.set(bound(i, value), value, stmt);
         }
         return this;
     }
@@ -408,8 +631,9 @@ public class Query {
      */
     public Query setLikeParameter(String name, String value) throws SQLException {
         List<Integer> parameterIndex = getParameterIndex(name);
+        String like = value + "%";
         for (Integer i : parameterIndex) {
-            dbUtil.set(i, value + "%", stmt);
+            dbUtil.set(bound(i, like), like, stmt);
         }
         return this;
     }
@@ -423,8 +647,9 @@ public class Query {
      */
     public Query setLikeAnyParameter(String name, String value) throws SQLException {
         List<Integer> parameterIndex = getParameterIndex(name);
+        String like = "%" + value + "%";
         for (Integer i : parameterIndex) {
-            dbUtil.set(i, "%" + value + "%", stmt);
+            dbUtil.set(bound(i, like), like, stmt);
         }
         return this;
     }
@@ -439,7 +664,7 @@ public class Query {
     public Query setParameter(String name, byte[] value) throws SQLException {
         List<Integer> parameterIndex = getParameterIndex(name);
         for (Integer i : parameterIndex) {
-            dbUtil.set(i, value, stmt);
+            dbUtil.set(bound(i, value), value, stmt);
         }
         return this;
     }
@@ -454,11 +679,71 @@ public class Query {
     public Query setParameter(String name, InputStream value, int length) throws SQLException {
         List<Integer> parameterIndex = getParameterIndex(name);
         for (Integer i : parameterIndex) {
-            dbUtil.set(i, value, length, stmt);
+            dbUtil.set(bound(i, value), value, length, stmt);
         }
         return this;
     }
 
+    /**
+     * Adiciona o parametro à query, com o tamanho do stream em <i>long</i>
+     * 
+     * @param value
+     * @return
+     * @throws SQLException
+     */
+    public Query setParameter(String name, InputStream value, long length) throws SQLException {
+        List<Integer> parameterIndex = getParameterIndex(name);
+        for (Integer i : parameterIndex) {
+            dbUtil.set(bound(i, value), value, length, stmt);
+        }
+        return this;
+    }
+
+    /**
+     * Adiciona o conteúdo do arquivo como parametro binário
+     * 
+     * @param value
+     * @return
+     * @throws SQLException
+     * @see #addParameter(File)
+     */
+    public Query setParameter(String name, File value) throws SQLException {
+        List<Integer> parameterIndex = getParameterIndex(name);
+        for (Integer i : parameterIndex) {
+            setFile(i, value);
+        }
+        return this;
+    }
+
+    /**
+     * Adiciona os bytes restantes do buffer como parametro binário
+     * 
+     * @param value
+     * @return
+     * @throws SQLException
+     * @see #addParameter(ByteBuffer)
+     */
+    public Query setParameter(String name, ByteBuffer value) throws SQLException {
+        List<Integer> parameterIndex = getParameterIndex(name);
+        for (Integer i : parameterIndex) {
+            setBuffer(i, value);
+        }
+        return this;
+    }
+
+    /**
+     * Adiciona o conteúdo do canal como parametro binário
+     * 
+     * @param value
+     * @return
+     * @throws SQLException
+     * @see #addParameter(ReadableByteChannel, long)
+     */
+    public Query setParameter(String name, ReadableByteChannel value, long length) throws SQLException {
+        InputStream in = value == null ? null : ParameterStreams.open(value);
+        return setParameter(name, in, length);
+    }
+
     /**
      * Adiciona o parametro à query
      * 
@@ -469,7 +754,7 @@ public class Query {
     public Query setParameter(String name, Boolean value) throws SQLException {
         List<Integer> parameterIndex = getParameterIndex(name);
         for (Integer i : parameterIndex) {
-            dbUtil.set(i, value, stmt);
+            dbUtil.set(bound(i, value), value, stmt);
         }
         return this;
     }
@@ -515,6 +800,10 @@ public class Query {
     }
 
     private void mapBeanParameters(Object vo) throws SQLException {
+        if (!overridesMapBean(getClass())) {
+            ParameterBinder.get(vo.getClass(), queryMap).bind(this, vo);
+            return;
+        }
         try {
             Map<String, Method> methods = mapBean(vo);
             for (Entry<String, List<Integer>> parameter : queryMap.listParameters()) {
@@ -526,12 +815,8 @@ public class Query {
                     }
                     continue;
                 }
-                Class<?> type = method.getReturnType();
-                Object object = method.invoke(vo, (Object[]) null);
-                setStatementParameter(parameter, type, object);
+                setStatementParameter(parameter, method.getReturnType(), method.invoke(vo, (Object[]) null));
             }
-        } catch (IllegalArgumentException e) {
-            throw new RuntimeException(e);
         } catch (IllegalAccessException e) {
             throw new RuntimeException(e);
         } catch (InvocationTargetException e) {
@@ -539,55 +824,59 @@ public class Query {
         }
     }
 
-    private void setStatementParameter(Entry<String, List<Integer>> parameter, Class<?> type, Object object)
-            throws SQLException {
-        for (Integer index : parameter.getValue()) {
-            if (type.equals(String.class)) {
-                dbUtil.set(index, (String) object, stmt);
-            } else if (type.equals(Byte.class) || type.equals(Byte.TYPE)) {
-                dbUtil.set(index, (Byte) object, stmt);
-            } else if (type.equals(Short.class) || type.equals(Short.TYPE)) {
-                dbUtil.set(index, (Short) object, stmt);
-            } else if (type.equals(Integer.class) || type.equals(Integer.TYPE)) {
-                dbUtil.set(index, (Integer) object, stmt);
-            } else if (type.equals(Long.class) || type.equals(Long.TYPE)) {
-                dbUtil.set(index, (Long) object, stmt);
-            } else if (type.equals(Float.class) || type.equals(Float.TYPE)) {
-                dbUtil.set(index, (Float) object, stmt);
-            } else if (type.equals(Double.class) || type.equals(Double.TYPE)) {
-                dbUtil.set(index, (Double) object, stmt);
-            } else if (type.equals(BigInteger.class)) {
-                dbUtil.set(index, (BigInteger) object, stmt);
-            } else if (type.equals(BigDecimal.class)) {
-                dbUtil.set(index, (BigDecimal) object, stmt);
-            } else if (type.equals(Date.class)) {
-                dbUtil.set(index, (Date) object, stmt);
-            } else if (type.equals(Boolean.class) || type.equals(Boolean.TYPE)) {
-                dbUtil.set(index, (Boolean) object, stmt);
-            } else {
-                stmt.setObject(index, object);
+    /**
+     * @return se a classe sobrescreve {@link #mapBean(Object)}, e os
+     *         parametros devem ser lidos pelos getters que ela retorna
+     */
+    private static boolean overridesMapBean(Class<?> type) {
+        if (type == Query.class) {
+            return false;
+        }
+        Boolean result = mapBeanOverrides.get(type);
+        if (result == null) {
+            result = Boolean.FALSE;
+            for (Class<?> c = type; c != Query.class; c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod("mapBean", Object.class);
+                    result = Boolean.TRUE;
+                    break;
+                } catch (NoSuchMethodException e) {
+                    // procura na superclasse
+                }
             }
+            mapBeanOverrides.put(type, result);
         }
+        return result.booleanValue();
     }
 
+    /**
+     * Retorna os getters do VO, indexados pelo nome da propriedade em
+     * minúsculas.
+     * 
+     * @param bean
+     *            o VO com os parametros
+     * @return os getters
+     * @throws SQLException
+     * @deprecated os parametros nomeados são gravados por leitores gerados,
+     *             em cache por classe e query, sem reflection. Este método só
+     *             é chamado por {@link #setNamedParameter(Object)} quando uma
+     *             subclasse o sobrescreve.
+     */
+    @Deprecated
     protected Map<String, Method> mapBean(Object bean) throws SQLException {
-        if (beanMap.containsKey(bean.getClass())) {
-            return beanMap.get(bean.getClass());
-        }
-        Map<String, Method> map = new HashMap<String, Method>();
-        Method[] methods = bean.getClass().getMethods();
-        for (int i = 1; i < methods.length; i++) {
-            String methodName = methods[i].getName();
-            if (methodName.startsWith("get")) {
-                methodName = methodName.substring(3).toLowerCase();
-                map.put(methodName, methods[i]);
-            } else if (methodName.startsWith("is")) {
-                methodName = methodName.substring(2).toLowerCase();
-                map.put(methodName, methods[i]);
+        return ParameterBinder.getters(bean.getClass());
+    }
+
+    private void setStatementParameter(Entry<String, List<Integer>> parameter, Class<?> type, Object object)
+            throws SQLException {
+        TypeConverter converter = ConverterRegistry.getConverter(type);
+        for (Integer index : parameter.getValue()) {
+            if (converter != null) {
+                converter.setParameter(dbUtil, stmt, bound(index, object), object);
+            } else {
+                stmt.setObject(bound(index, object), object);
             }
         }
-        beanMap.put(bean.getClass(), map);
-        return map;
     }
 
     /**
@@ -632,6 +921,155 @@ public class Query {
         return dbUtil.list(this, voClass);
     }
 
+    /**
+     * Executa uma query com JOIN, montando os VOs principais com os seus
+     * filhos a partir de uma única leitura do resultado. Os listeners são
+     * chamados uma vez para cada VO principal.
+     * 
+     * @param <T>
+     * @param mapping
+     *            o mapeamento das colunas para os VOs
+     * @return os VOs principais, na ordem em que aparecem no resultado
+     * @throws SQLException
+     * @see JoinMapping
+     */
+    public <T> List<T> list(JoinMapping<T> mapping) throws SQLException {
+        return dbUtil.list(this, mapping);
+    }
+
+    /**
+     * Executa a query sem VO, retornando cada linha como um <i>Map</i> com os
+     * nomes das colunas
+     * 
+     * @return as linhas da query
+     * @throws SQLException
+     * @see Row
+     */
+    public List<Row> listRows() throws SQLException {
+        return dbUtil.listRows(this);
+    }
+
+    /**
+     * Executa a query, retornando o resultado organizado por colunas, em
+     * arrays de tipos primitivos. Indicado para resultados grandes com poucas
+     * colunas numéricas, onde o mapeamento para VOs não é necessário.
+     * 
+     * @return o resultado da query
+     * @throws SQLException
+     * @see ColumnarResult
+     */
+    public ColumnarResult columns() throws SQLException {
+        return dbUtil.columns(this);
+    }
+
+    /**
+     * Executa a query, retornando um cursor que converte as linhas para objetos
+     * da classe à medida que são lidas. O cursor deve ser fechado caso a
+     * leitura não chegue ao fim.
+     * 
+     * @param <T>
+     * @param voClass
+     *            A classe que deve ser usada para recuperar os dados da query
+     * @return o cursor sobre o resultado da query
+     * @throws SQLException
+     */
+    public <T> ResultIterator<T> iterate(Class<T> voClass) throws SQLException {
+        return dbUtil.iterate(this, voClass);
+    }
+
+    /**
+     * Executa a query, entregando cada linha ao <i>visitor</i>. Uma única
+     * instância do VO é criada e preenchida novamente a cada linha, sem manter
+     * os objetos em memória. Os listeners são chamados para cada linha.
+     * 
+     * @param <T>
+     * @param voClass
+     *            A classe que deve ser usada para recuperar os dados da query
+     * @param visitor
+     *            o objeto que recebe cada linha
+     * @return a quantidade de linhas lidas
+     * @throws SQLException
+     */
+    public <T> int forEach(Class<T> voClass, RowVisitor<T> visitor) throws SQLException {
+        return dbUtil.forEach(this, voClass, visitor);
+    }
+
+    /**
+     * Define a quantidade de linhas que o driver deve buscar no banco a cada
+     * ida ao servidor
+     * 
+     * @param fetchSize
+     *            a quantidade de linhas, ou 0 para usar o padrão do driver
+     * @return
+     * @throws SQLException
+     */
+    public Query setFetchSize(int fetchSize) throws SQLException {
+        stmt.setFetchSize(fetchSize);
+        fetchSizeSet = true;
+        return this;
+    }
+
+    /**
+     * Limita a quantidade de linhas que o banco retorna para a query. Quando o
+     * fetch size é ajustado automaticamente, ele também não passa deste
+     * limite.
+     * 
+     * @param maxRows
+     *            a quantidade de linhas, ou 0 para não limitar
+     * @return
+     * @throws SQLException
+     */
+    public Query setMaxRows(int maxRows) throws SQLException {
+        stmt.setMaxRows(maxRows);
+        this.maxRows = maxRows;
+        return this;
+    }
+
+    /**
+     * Indica ao driver a ordem em que as linhas serão lidas
+     * 
+     * @param direction
+     *            <i>ResultSet.FETCH_FORWARD</i>, <i>FETCH_REVERSE</i> ou
+     *            <i>FETCH_UNKNOWN</i>
+     * @return
+     * @throws SQLException
+     */
+    public Query setFetchDirection(int direction) throws SQLException {
+        stmt.setFetchDirection(direction);
+        return this;
+    }
+
+    /**
+     * @return se o fetch size foi definido por {@link #setFetchSize(int)}
+     */
+    boolean isFetchSizeSet() {
+        return fetchSizeSet;
+    }
+
+    int getMaxRows() {
+        return maxRows;
+    }
+
+    /**
+     * Permite que o resultado de {@link #list(Class)} e {@link #get(Class)}
+     * seja guardado no cache de resultados, e reaproveitado por outras
+     * execuções da mesma query com os mesmos parametros. O cache precisa estar
+     * habilitado em {@link DbUtil#setResultCacheCapacity(int)}.
+     * <p>
+     * Cada execução recebe cópias dos objetos guardados, que podem ser
+     * alteradas. Os VOs com propriedades <i>InputStream</i> ou <i>Reader</i>
+     * não são guardados.
+     * 
+     * @param ttl
+     *            o tempo, em milissegundos, que o resultado pode ser
+     *            reaproveitado
+     * @return
+     */
+    public Query cached(long ttl) {
+        this.cacheTtl = ttl * 1000000L;
+        return this;
+    }
+
     /**
      * Executa a query, retornando um objeto
      * 
@@ -658,6 +1096,38 @@ public class Query {
         return dbUtil.get(this, vo);
     }
 
+    /**
+     * Executa o comando em lote, uma vez para cada objeto da lista. Cada
+     * objeto (VO ou Map) é usado como parametro nomeado, como em
+     * {@link #setNamedParameter(Object)}, e o lote é enviado ao banco a cada
+     * 1000 registros.
+     * 
+     * @param parameters
+     *            os objetos que contem os parametros de cada execução
+     * @return a quantidade de registros atualizados por cada objeto
+     * @throws SQLException
+     */
+    public int[] batch(List<?> parameters) throws SQLException {
+        return batch(parameters, 1000);
+    }
+
+    /**
+     * Executa o comando em lote, uma vez para cada objeto da lista. Cada
+     * objeto (VO ou Map) é usado como parametro nomeado, como em
+     * {@link #setNamedParameter(Object)}. Os parametros são limpos antes de
+     * cada objeto, então todos os valores devem vir do próprio objeto.
+     * 
+     * @param parameters
+     *            os objetos que contem os parametros de cada execução
+     * @param batchSize
+     *            a quantidade de registros enviados ao banco de cada vez
+     * @return a quantidade de registros atualizados por cada objeto
+     * @throws SQLException
+     */
+    public int[] batch(List<?> parameters, int batchSize) throws SQLException {
+        return dbUtil.batch(this, parameters, batchSize);
+    }
+
     /**
      * Executa um comando de INSERT, UPDATE ou DELETE, retornando a quantidade
      * de registros atualizados
@@ -668,4 +1138,61 @@ public class Query {
     public int update() throws SQLException {
         return dbUtil.update(this);
     }
+
+    /**
+     * Executa a query em outra thread, como {@link #list(Class)}. Os
+     * parametros devem ser definidos antes da chamada, e a query não deve mais
+     * ser alterada até o fim da execução.
+     * <p>
+     * Com um {@link DbUtil} criado a partir de um <i>DataSource</i>, cada query
+     * tem a sua própria conexão, e várias queries assíncronas executam ao
+     * mesmo tempo. Com uma conexão fixa, as queries compartilham a conexão.
+     * 
+     * @param <T>
+     * @param voClass
+     *            A classe que deve ser usada para recuperar os dados da query
+     * @return o resultado futuro da query
+     * @see DbUtil#setExecutor(java.util.concurrent.Executor)
+     */
+    public <T> Future<List<T>> listAsync(final Class<T> voClass) {
+        return dbUtil.submit(this, new Callable<List<T>>() {
+
+            public List<T> call() throws SQLException {
+                return list(voClass);
+            }
+        });
+    }
+
+    /**
+     * Executa a query em outra thread, como {@link #get(Class)}
+     * 
+     * @param <T>
+     * @param voClass
+     *            o objeto que deve ser preenchido com o resultado da query
+     * @return o resultado futuro da query
+     * @see #listAsync(Class)
+     */
+    public <T> Future<T> getAsync(final Class<T> voClass) {
+        return dbUtil.submit(this, new Callable<T>() {
+
+            public T call() throws SQLException {
+                return get(voClass);
+            }
+        });
+    }
+
+    /**
+     * Executa o comando em outra thread, como {@link #update()}
+     * 
+     * @return a quantidade futura de registros atualizados
+     * @see #listAsync(Class)
+     */
+    public Future<Integer> updateAsync() {
+        return dbUtil.submit(this, new Callable<Integer>() {
+
+            public Integer call() throws SQLException {
+                return Integer.valueOf(update());
+            }
+        });
+    }
 }
@@ -19,18 +19,67 @@
 package saci.util.jdbc;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
 
+import saci.util.CacheStatistics;
+import saci.util.ConcurrentCache;
+
+/**
+ * Converte os parametros nomeados (<code>:nome</code>) de uma query para
+ * parametros posicionais (<code>?</code>), guardando a posição de cada nome.
+ * <p>
+ * As instâncias são imutáveis e ficam em cache, indexadas pelo SQL original,
+ * de forma que cada comando distinto é analisado uma única vez.
+ * 
+ * @author Thiago
+ */
 public class QueryMap {
 
+    private static final ConcurrentCache<String, QueryMap> cache = new ConcurrentCache<String, QueryMap>(2048, 128);
     private String query;
     private Map<String, List<Integer>> parameterMap = new HashMap<String, List<Integer>>();
+    private String[] tables;
+    private volatile boolean tablesParsed;
 
+    /**
+     * Retorna o mapeamento da query, analisando o SQL somente na primeira vez
+     * que o comando é usado
+     * 
+     * @param query
+     *            o SQL com parametros nomeados
+     * @return o mapeamento da query
+     */
     public static QueryMap mapQuery(String query) {
+        QueryMap map = cache.get(query);
+        if (map == null) {
+            map = cache.putIfAbsent(query, parse(query));
+        }
+        return map;
+    }
+
+    /**
+     * Altera a quantidade máxima de queries mantidas em cache. O padrão é 2048.
+     * 
+     * @param capacity
+     *            a nova capacidade
+     */
+    public static void setCacheCapacity(int capacity) {
+        cache.setCacheCapacity(capacity);
+    }
+
+    /**
+     * @return as estatísticas do cache de queries
+     */
+    public static CacheStatistics getCacheStatistics() {
+        return cache.getStatistics();
+    }
+
+    private static QueryMap parse(String query) {
         query += " ";
         QueryMap map = new QueryMap();
         StringBuilder sb = new StringBuilder();
@@ -66,13 +115,17 @@ public class QueryMap {
             }
         }
         map.query = sb.toString();
+        for (Entry<String, List<Integer>> entry : map.parameterMap.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        map.parameterMap = Collections.unmodifiableMap(map.parameterMap);
         return map;
     }
 
     private QueryMap() {
     }
 
-    public void addParameter(String param, int indice) {
+    private void addParameter(String param, int indice) {
         param = param.toLowerCase();
         List<Integer> list = parameterMap.get(param);
         if (list != null) {
@@ -95,4 +148,16 @@ public class QueryMap {
     public Set<Entry<String, List<Integer>>> listParameters() {
         return parameterMap.entrySet();
     }
+
+    /**
+     * @return as tabelas citadas pela query, usadas pelo cache de resultados,
+     *         ou <code>null</code> se o comando não pôde ser analisado
+     */
+    String[] getTables() {
+        if (!tablesParsed) {
+            tables = ResultCache.parseTables(query);
+            tablesParsed = true;
+        }
+        return tables;
+    }
 }
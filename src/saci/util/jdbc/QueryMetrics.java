@@ -0,0 +1,195 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import saci.util.ConcurrentCache;
+
+/**
+ * Registro das estatísticas de execução das queries, indexadas pelo SQL
+ * normalizado pelo {@link QueryMap}.
+ * <p>
+ * As estatísticas podem ser consultadas por {@link #getStatistics(String)} ou
+ * via JMX, após chamar {@link #registerMBean()}, no objeto
+ * <code>saci.util.jdbc:type=QueryMetrics</code>.
+ * <p>
+ * São mantidos até 5000 comandos. Quando o limite é atingido, os comandos
+ * executados há mais tempo são descartados, e contados em
+ * {@link #getEvictedStatementCount()}.
+ * 
+ * @author Thiago
+ */
+public final class QueryMetrics implements QueryMetricsMBean {
+
+    /**
+     * Nome do MBean registrado por {@link #registerMBean()}
+     */
+    public static final String OBJECT_NAME = "saci.util.jdbc:type=QueryMetrics";
+
+    private static final QueryMetrics instance = new QueryMetrics();
+    private static final int MAX_STATEMENTS = 5000;
+    private static volatile boolean enabled = true;
+    // os SQLs executados há mais tempo são descartados quando o limite é
+    // atingido
+    private final ConcurrentCache<String, StatementStatistics> statistics =
+            new ConcurrentCache<String, StatementStatistics>(MAX_STATEMENTS, MAX_STATEMENTS / 16);
+
+    private QueryMetrics() {
+    }
+
+    /**
+     * @return a instância do registro, que também é o MBean
+     */
+    public static QueryMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Registra o MBean no MBeanServer da plataforma
+     * 
+     * @throws JMException
+     *             caso o MBean não possa ser registrado
+     */
+    public static void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(instance, name);
+        }
+    }
+
+    /**
+     * Remove o MBean do MBeanServer da plataforma
+     * 
+     * @throws JMException
+     *             caso o MBean não possa ser removido
+     */
+    public static void unregisterMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    /**
+     * Registra uma execução
+     * 
+     * @param sql
+     *            o SQL normalizado
+     * @param nanos
+     *            o tempo de execução
+     * @param rows
+     *            a quantidade de linhas lidas ou atualizadas, ou um valor
+     *            negativo caso a execução tenha falhado
+     */
+    static void record(String sql, long nanos, int rows) {
+        if (DbUtil.logger.isLoggable(Level.FINE)) {
+            DbUtil.logger.fine("Tempo da query: " + StatementStatistics.millis(nanos) + "ms");
+        }
+        if (!enabled) {
+            return;
+        }
+        StatementStatistics stats = instance.statistics.get(sql);
+        if (stats == null) {
+            stats = instance.statistics.putIfAbsent(sql, new StatementStatistics(sql));
+        }
+        stats.record(nanos, rows);
+    }
+
+    /**
+     * @param sql
+     *            o SQL normalizado (ver {@link QueryMap#getQuery()})
+     * @return as estatísticas do comando, ou <code>null</code> se ele não foi
+     *         executado
+     */
+    public static StatementStatistics getStatistics(String sql) {
+        return instance.statistics.get(sql);
+    }
+
+    /**
+     * @return as estatísticas de todos os comandos executados
+     */
+    public static Collection<StatementStatistics> getAllStatistics() {
+        return Collections.unmodifiableCollection(instance.statistics.values());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        QueryMetrics.enabled = enabled;
+    }
+
+    public int getStatementCount() {
+        return statistics.size();
+    }
+
+    public long getEvictedStatementCount() {
+        return statistics.getStatistics().getEvictions();
+    }
+
+    public String[] getSummary() {
+        return summary(new Comparator<StatementStatistics>() {
+            public int compare(StatementStatistics o1, StatementStatistics o2) {
+                return compareDesc(o1.getTotalTime(), o2.getTotalTime());
+            }
+        }, Integer.MAX_VALUE);
+    }
+
+    public String[] getSlowest(int count) {
+        return summary(new Comparator<StatementStatistics>() {
+            public int compare(StatementStatistics o1, StatementStatistics o2) {
+                return compareDesc(o1.getPercentile(99), o2.getPercentile(99));
+            }
+        }, count);
+    }
+
+    public void reset() {
+        statistics.clear();
+        statistics.resetStatistics();
+    }
+
+    private String[] summary(Comparator<StatementStatistics> order, int count) {
+        List<StatementStatistics> list = new ArrayList<StatementStatistics>(statistics.values());
+        Collections.sort(list, order);
+        int size = Math.max(0, Math.min(count, list.size()));
+        String[] result = new String[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = list.get(i).toString();
+        }
+        return result;
+    }
+
+    private static int compareDesc(long v1, long v2) {
+        return v1 > v2 ? -1 : (v1 == v2 ? 0 : 1);
+    }
+}
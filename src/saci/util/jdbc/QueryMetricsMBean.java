@@ -0,0 +1,52 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+/**
+ * Interface JMX das estatísticas de execução das queries
+ * 
+ * @author Thiago
+ */
+public interface QueryMetricsMBean {
+
+    public boolean isEnabled();
+
+    public void setEnabled(boolean enabled);
+
+    public int getStatementCount();
+
+    /**
+     * @return a quantidade de comandos descartados por falta de espaço, desde
+     *         o último {@link #reset()}
+     */
+    public long getEvictedStatementCount();
+
+    /**
+     * @return um resumo por comando SQL, ordenado pelo tempo total de execução
+     */
+    public String[] getSummary();
+
+    /**
+     * @return o resumo dos comandos com maior percentil 99 de tempo de
+     *         execução
+     */
+    public String[] getSlowest(int count);
+
+    public void reset();
+}
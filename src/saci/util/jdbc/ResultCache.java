@@ -0,0 +1,449 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import saci.util.CacheStatistics;
+import saci.util.ConcurrentCache;
+
+/**
+ * Cache dos resultados das queries marcadas com {@link Query#cached(long)},
+ * indexado pelo SQL, pelos valores dos parametros e pela classe do resultado.
+ * <p>
+ * Cada tabela lida ou alterada pelas queries tem um número de versão, que é
+ * incrementado sempre que um comando de INSERT, UPDATE, DELETE (ou qualquer
+ * outro executado por {@link Query#update()} ou {@link Query#batch(List)})
+ * cita a tabela. Um resultado guardado antes de uma alteração em alguma das
+ * suas tabelas deixa de ser válido. Alterações feitas fora do {@link DbUtil}
+ * devem ser avisadas por {@link DbUtil#invalidateResultCache(String)}, e
+ * alterações de outras transações só são vistas após o tempo de expiração.
+ * <p>
+ * Quando as tabelas de um comando não podem ser identificadas, uma alteração
+ * invalida todo o cache, e uma leitura não é guardada. Leituras feitas dentro
+ * de uma transação (com o <i>autoCommit</i> desligado) também não são
+ * guardadas, porque podem conter alterações que ainda serão desfeitas.
+ * <p>
+ * Cada leitura do cache recebe cópias dos objetos guardados, com os campos
+ * copiados um a um (datas e arrays também são copiados), de forma que alterar
+ * um resultado não altera o que as outras execuções recebem. Os VOs com
+ * propriedades do tipo <i>InputStream</i> ou <i>Reader</i> não são guardados,
+ * porque o stream só pode ser lido uma vez.
+ * 
+ * @author Thiago
+ */
+final class ResultCache {
+
+    private static final Pattern TOKEN = Pattern.compile("'[^']*'|((?:\"[^\"]+\"|[\\w$]+)(?:\\.(?:\"[^\"]+\"|[\\w$]+))*)|,|\\(|\\)");
+    private static final Set<String> TABLE_KEYWORDS = new HashSet<String>(Arrays.asList("from", "join", "into",
+            "update", "table"));
+    private static final Set<String> CLAUSE_KEYWORDS = new HashSet<String>(Arrays.asList("where", "group", "order",
+            "having", "union", "on", "using", "left", "right", "inner", "outer", "cross", "full", "natural", "join",
+            "limit", "offset", "fetch", "for", "set", "values", "select", "with", "as", "intersect", "except",
+            "minus", "window", "connect", "start"));
+    private static final Object NULL = new Object();
+    private static final ConcurrentHashMap<Class<?>, Field[]> FIELDS = new ConcurrentHashMap<Class<?>, Field[]>();
+
+    private final ConcurrentCache<Key, Entry> cache = new ConcurrentCache<Key, Entry>(1024, 64);
+    private final ConcurrentHashMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong globalVersion = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile boolean enabled;
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Result cache capacity must not be negative");
+        }
+        enabled = capacity > 0;
+        if (enabled) {
+            cache.setCacheCapacity(capacity);
+            cache.setCleanPolicy(Math.max(1, capacity / 16));
+        } else {
+            cache.clear();
+        }
+    }
+
+    /**
+     * @return as estatísticas do cache; os resultados descartados por
+     *         expiração ou alteração das tabelas contam como falha
+     */
+    CacheStatistics getStatistics() {
+        return new CacheStatistics(hits.get(), misses.get(), cache.getStatistics().getEvictions(), cache.size());
+    }
+
+    void clear() {
+        cache.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * @return a chave da query no cache, ou <code>null</code> se a query não
+     *         deve usar o cache
+     */
+    Key key(Query query, Class<?> voClass, boolean single) {
+        if (!enabled || query.getCacheTtl() <= 0) {
+            return null;
+        }
+        Object[] values = query.getParameterValues();
+        if (values == null || query.getQueryMap().getTables() == null) {
+            return null;
+        }
+        return new Key(query.getQueryMap(), voClass, single, values);
+    }
+
+    /**
+     * @return o resultado guardado, {@link #NULL} para um resultado nulo, ou
+     *         <code>null</code> se não há resultado válido
+     */
+    Object get(Key key) {
+        Entry entry = cache.get(key);
+        if (entry != null && (System.nanoTime() - entry.expires > 0 || !isCurrent(key.queryMap, entry.versions))) {
+            cache.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value == NULL ? NULL : copy(entry.value, key.single);
+    }
+
+    /**
+     * @return as versões das tabelas da query, que devem ser lidas antes da
+     *         execução e passadas para {@link #put(Key, Object, long[], long)}
+     */
+    long[] versions(Key key) {
+        String[] tables = key.queryMap.getTables();
+        long[] result = new long[tables.length + 1];
+        result[0] = globalVersion.get();
+        for (int i = 0; i < tables.length; i++) {
+            result[i + 1] = version(tables[i]).get();
+        }
+        return result;
+    }
+
+    /**
+     * Guarda uma cópia do resultado, que continua com quem executou a query
+     */
+    void put(Key key, Object value, long[] versions, long ttl) {
+        cache.put(key, new Entry(value == null ? NULL : copy(value, key.single), versions, System.nanoTime() + ttl));
+    }
+
+    static boolean isNull(Object value) {
+        return value == NULL;
+    }
+
+    /**
+     * @return se o resultado mapeado pelo plano pode ser guardado: os streams
+     *         são consumidos pela primeira leitura e não podem ser copiados
+     */
+    static boolean isCacheable(MappingPlan plan) {
+        if (plan.valueConverter != null) {
+            return !isStream(plan.beanClass);
+        }
+        for (DbUtil.AccessorMap accessor : plan.accessors) {
+            if (isStream(accessor.paramType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isStream(Class<?> type) {
+        return InputStream.class.isAssignableFrom(type) || Reader.class.isAssignableFrom(type);
+    }
+
+    private static Object copy(Object value, boolean single) {
+        if (single) {
+            return copy(value);
+        }
+        List<?> list = (List<?>) value;
+        List<Object> result = new ArrayList<Object>(list.size());
+        for (Object vo : list) {
+            result.add(copy(vo));
+        }
+        return result;
+    }
+
+    /**
+     * Copia um objeto guardado: os valores imutáveis são devolvidos, datas e
+     * arrays são clonados, e os demais objetos têm os seus campos copiados
+     * para uma nova instância
+     */
+    static Object copy(Object value) {
+        if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+                || value instanceof Character || value instanceof Enum<?>) {
+            return value;
+        } else if (value instanceof Date) {
+            return ((Date) value).clone();
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            Object result = Array.newInstance(value.getClass().getComponentType(), length);
+            System.arraycopy(value, 0, result, 0, length);
+            return result;
+        }
+        try {
+            Constructor<?> constructor = value.getClass().getDeclaredConstructor();
+            constructor.setAccessible(true);
+            Object result = constructor.newInstance();
+            for (Field field : fields(value.getClass())) {
+                Object fieldValue = field.get(value);
+                field.set(result, fieldValue instanceof Date || (fieldValue != null && fieldValue.getClass().isArray())
+                        ? copy(fieldValue) : fieldValue);
+            }
+            return result;
+        } catch (Exception e) {
+            throw new RuntimeException("Cannot copy cached " + value.getClass().getName(), e);
+        }
+    }
+
+    private static Field[] fields(Class<?> type) {
+        Field[] fields = FIELDS.get(type);
+        if (fields == null) {
+            List<Field> list = new ArrayList<Field>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if ((field.getModifiers() & (Modifier.STATIC | Modifier.FINAL)) == 0) {
+                        field.setAccessible(true);
+                        list.add(field);
+                    }
+                }
+            }
+            fields = list.toArray(new Field[list.size()]);
+            FIELDS.put(type, fields);
+        }
+        return fields;
+    }
+
+    /**
+     * Invalida os resultados que dependem das tabelas citadas no comando. Se
+     * nenhuma tabela for encontrada, ou o comando não puder ser analisado,
+     * todo o cache é invalidado.
+     */
+    void updated(QueryMap queryMap) {
+        String[] tables = queryMap.getTables();
+        if (tables == null || tables.length == 0) {
+            globalVersion.incrementAndGet();
+            return;
+        }
+        for (String table : tables) {
+            version(table).incrementAndGet();
+        }
+    }
+
+    void invalidate(String table) {
+        if (table == null) {
+            globalVersion.incrementAndGet();
+        } else {
+            version(normalize(table)).incrementAndGet();
+        }
+    }
+
+    private boolean isCurrent(QueryMap queryMap, long[] versions) {
+        if (versions[0] != globalVersion.get()) {
+            return false;
+        }
+        String[] tables = queryMap.getTables();
+        for (int i = 0; i < tables.length; i++) {
+            if (versions[i + 1] != version(tables[i]).get()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private AtomicLong version(String table) {
+        AtomicLong version = versions.get(table);
+        if (version == null) {
+            AtomicLong created = new AtomicLong();
+            version = versions.putIfAbsent(table, created);
+            if (version == null) {
+                version = created;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Extrai os nomes das tabelas citadas no comando: as que seguem FROM,
+     * JOIN, INTO, UPDATE e TABLE, e as listas separadas por vírgula depois do
+     * FROM. O esquema é descartado, o que pode invalidar mais resultados que o
+     * necessário, mas nunca menos.
+     * 
+     * @return as tabelas, ou <code>null</code> se o comando tem uma construção
+     *         que não é reconhecida (e alguma tabela poderia ser perdida)
+     */
+    static String[] parseTables(String sql) {
+        List<String> tokens = new ArrayList<String>();
+        Matcher matcher = TOKEN.matcher(sql);
+        while (matcher.find()) {
+            String token = matcher.group(1) != null ? matcher.group(1) : matcher.group();
+            if (!token.startsWith("'")) {
+                tokens.add(token);
+            }
+        }
+        Set<String> tables = new HashSet<String>();
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i).toLowerCase();
+            if (!TABLE_KEYWORDS.contains(token)
+                    || (token.equals("update") && i > 0 && tokens.get(i - 1).equalsIgnoreCase("for"))) {
+                continue;
+            }
+            boolean list = token.equals("from");
+            int j = i + 1;
+            while (true) {
+                if (j >= tokens.size()) {
+                    return null;
+                }
+                String item = tokens.get(j);
+                if (item.equals("(")) {
+                    // as tabelas da subquery são lidas pelo próprio laço
+                    j = skipParentheses(tokens, j);
+                    if (j < 0) {
+                        return null;
+                    }
+                } else if (isIdentifier(item)) {
+                    tables.add(normalize(item));
+                    j++;
+                } else {
+                    return null;
+                }
+                if (!list) {
+                    break;
+                }
+                // pula o alias (com ou sem AS) até a próxima vírgula
+                if (j < tokens.size() && tokens.get(j).equalsIgnoreCase("as")) {
+                    j++;
+                }
+                if (j < tokens.size() && isIdentifier(tokens.get(j))) {
+                    j++;
+                }
+                if (j < tokens.size() && tokens.get(j).equals(",")) {
+                    j++;
+                } else if (j < tokens.size() && !isBoundary(tokens.get(j))) {
+                    return null;
+                } else {
+                    break;
+                }
+            }
+        }
+        return tables.toArray(new String[tables.size()]);
+    }
+
+    /**
+     * @return a posição seguinte ao parêntese que fecha o da posição
+     *         <code>open</code>, ou -1 se ele não for fechado
+     */
+    private static int skipParentheses(List<String> tokens, int open) {
+        int depth = 0;
+        for (int i = open; i < tokens.size(); i++) {
+            if (tokens.get(i).equals("(")) {
+                depth++;
+            } else if (tokens.get(i).equals(")") && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return se o token pode encerrar a lista de tabelas do FROM
+     */
+    private static boolean isBoundary(String token) {
+        String lower = token.toLowerCase();
+        return token.equals(")") || token.equals("(") || CLAUSE_KEYWORDS.contains(lower)
+                || TABLE_KEYWORDS.contains(lower);
+    }
+
+    private static boolean isIdentifier(String token) {
+        return !token.equals(",") && !token.equals("(") && !token.equals(")")
+                && !CLAUSE_KEYWORDS.contains(token.toLowerCase()) && !TABLE_KEYWORDS.contains(token.toLowerCase());
+    }
+
+    private static String normalize(String table) {
+        String name = table.replace("\"", "").toLowerCase();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    static final class Key {
+
+        final QueryMap queryMap;
+        final Class<?> voClass;
+        final boolean single;
+        final Object[] values;
+        private final int hash;
+
+        Key(QueryMap queryMap, Class<?> voClass, boolean single, Object[] values) {
+            this.queryMap = queryMap;
+            this.voClass = voClass;
+            this.single = single;
+            this.values = values;
+            this.hash = (queryMap.getQuery().hashCode() * 31 + voClass.hashCode()) * 31 + Arrays.deepHashCode(values)
+                    + (single ? 1 : 0);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && single == other.single && voClass == other.voClass
+                    && queryMap.getQuery().equals(other.queryMap.getQuery()) && Arrays.deepEquals(values, other.values);
+        }
+    }
+
+    private static final class Entry {
+
+        final Object value;
+        final long[] versions;
+        final long expires;
+
+        Entry(Object value, long[] versions, long expires) {
+            this.value = value;
+            this.versions = versions;
+            this.expires = expires;
+        }
+    }
+}
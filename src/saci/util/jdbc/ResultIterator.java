@@ -0,0 +1,133 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.io.Closeable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Cursor sobre o resultado de uma query. As linhas são lidas do
+ * <i>ResultSet</i> e convertidas para o VO somente quando solicitadas, de forma
+ * que a memória usada não depende da quantidade de linhas retornadas.
+ * <p>
+ * Os recursos (ResultSet, PreparedStatement e a conexão, quando obtida de um
+ * DataSource) são liberados ao final da leitura ou ao chamar {@link #close()}.
+ * Quando a leitura for interrompida antes do fim, o cursor deve ser fechado:
+ * 
+ * <pre>
+ * ResultIterator&lt;Cliente&gt; it = dbUtil.execute(sql).setFetchSize(500).iterate(Cliente.class);
+ * try {
+ *     while (it.hasNext()) {
+ *         exportar(it.next());
+ *     }
+ * } finally {
+ *     it.close();
+ * }
+ * </pre>
+ * 
+ * @author Thiago
+ */
+public class ResultIterator<T> implements Iterator<T>, Iterable<T>, Closeable {
+
+    private final DbUtil dbUtil;
+    private final Query query;
+    private final Class<T> voClass;
+    private final ResultSet rs;
+    private final MappingPlan plan;
+    private final long ini;
+    private int rows;
+    private boolean failed;
+    private boolean fetched;
+    private boolean hasNext;
+    private boolean closed;
+
+    ResultIterator(DbUtil dbUtil, Query query, Class<T> voClass, ResultSet rs, MappingPlan plan, long ini) {
+        this.dbUtil = dbUtil;
+        this.query = query;
+        this.voClass = voClass;
+        this.rs = rs;
+        this.plan = plan;
+        this.ini = ini;
+    }
+
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (!fetched) {
+            try {
+                hasNext = rs.next();
+            } catch (SQLException e) {
+                fail();
+                throw new RuntimeException(e);
+            }
+            fetched = true;
+            if (!hasNext) {
+                close();
+            }
+        }
+        return hasNext;
+    }
+
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        fetched = false;
+        try {
+            T vo = dbUtil.mapRow(query, voClass, rs, plan);
+            rows++;
+            return vo;
+        } catch (SQLException e) {
+            fail();
+            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            fail();
+            throw e;
+        }
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Iterator<T> iterator() {
+        return this;
+    }
+
+    /**
+     * Libera o ResultSet, o PreparedStatement e a conexão (quando obtida de um
+     * DataSource). Pode ser chamado mais de uma vez.
+     */
+    public void close() {
+        if (!closed) {
+            closed = true;
+            dbUtil.release(query, rs);
+            dbUtil.executed(query, ini, failed ? -1 : rows);
+        }
+    }
+
+    private void fail() {
+        failed = true;
+        close();
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Linha de uma query sem VO ({@link Query#listRows()}).
+ * <p>
+ * Os valores da linha ficam em um único array, e todas as linhas de um mesmo
+ * resultado compartilham o índice dos nomes das colunas. A linha pode ser
+ * usada como um <i>Map</i> (somente leitura), e os nomes das colunas não
+ * diferenciam maiúsculas. Colunas com nomes repetidos aparecem uma única vez,
+ * com o valor da primeira.
+ * <p>
+ * Como a linha é usada depois que a conexão é devolvida, os valores
+ * <i>Blob</i> e <i>Clob</i> (que dependem da conexão) são copiados para
+ * <code>byte[]</code> e <i>String</i>.
+ * 
+ * @author Thiago
+ */
+public final class Row extends AbstractMap<String, Object> {
+
+    private final Columns columns;
+    private final Object[] values;
+    private Set<Entry<String, Object>> entrySet;
+
+    Row(Columns columns, Object[] values) {
+        this.columns = columns;
+        this.values = values;
+    }
+
+    /**
+     * @param column
+     *            o índice da coluna, a partir de 0
+     * @return o valor da coluna
+     */
+    public Object get(int column) {
+        return values[column];
+    }
+
+    public Object get(Object key) {
+        int column = columns.indexOf(key);
+        return column < 0 ? null : values[column];
+    }
+
+    public boolean containsKey(Object key) {
+        return columns.indexOf(key) >= 0;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * @return os nomes das colunas, na ordem da query
+     */
+    public List<String> getLabels() {
+        return columns.labelList;
+    }
+
+    public Set<Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, Object>>() {
+
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+
+                        private int next;
+
+                        public boolean hasNext() {
+                            return next < values.length;
+                        }
+
+                        public Entry<String, Object> next() {
+                            if (next >= values.length) {
+                                throw new NoSuchElementException();
+                            }
+                            int i = next++;
+                            return new ImmutableEntry(columns.labels[i], values[i]);
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                public int size() {
+                    return values.length;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * Índice dos nomes das colunas, compartilhado pelas linhas de um resultado
+     */
+    static final class Columns {
+
+        final String[] labels;
+        final int[] positions;
+        final List<String> labelList;
+        private final Map<String, Integer> index = new HashMap<String, Integer>();
+
+        Columns(ResultSetMetaData metaData) throws SQLException {
+            List<String> names = new ArrayList<String>();
+            List<Integer> columns = new ArrayList<Integer>();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                String label = metaData.getColumnLabel(i);
+                String key = label.toLowerCase();
+                if (!index.containsKey(key)) {
+                    index.put(key, Integer.valueOf(names.size()));
+                    names.add(label);
+                    columns.add(Integer.valueOf(i));
+                }
+            }
+            labels = names.toArray(new String[names.size()]);
+            positions = new int[columns.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = columns.get(i).intValue();
+            }
+            labelList = Collections.unmodifiableList(names);
+        }
+
+        int indexOf(Object key) {
+            if (!(key instanceof String)) {
+                return -1;
+            }
+            Integer i = index.get(((String) key).toLowerCase());
+            return i == null ? -1 : i.intValue();
+        }
+
+        Row read(ResultSet rs) throws SQLException {
+            Object[] values = new Object[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                values[i] = materialize(rs.getObject(positions[i]));
+            }
+            return new Row(this, values);
+        }
+    }
+
+    /**
+     * Lê o conteúdo de BLOBs e CLOBs, que deixam de valer quando o ResultSet é
+     * fechado, como <i>byte[]</i> e <i>String</i>; os outros valores são
+     * devolvidos sem alteração
+     */
+    static Object materialize(Object value) throws SQLException {
+        if (value instanceof Blob) {
+            Blob blob = (Blob) value;
+            return blob.getBytes(1, length(blob.length()));
+        } else if (value instanceof Clob) {
+            Clob clob = (Clob) value;
+            return clob.getSubString(1, length(clob.length()));
+        }
+        return value;
+    }
+
+    private static int length(long length) throws SQLException {
+        if (length > Integer.MAX_VALUE) {
+            throw new SQLException("LOB too large to be read into memory: " + length);
+        }
+        return (int) length;
+    }
+
+    /**
+     * Entrada somente leitura (AbstractMap.SimpleImmutableEntry é do Java 6)
+     */
+    private static final class ImmutableEntry implements Entry<String, Object> {
+
+        private final String key;
+        private final Object value;
+
+        ImmutableEntry(String key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry<?, ?>)) {
+                return false;
+            }
+            Entry<?, ?> other = (Entry<?, ?>) obj;
+            return key.equals(other.getKey())
+                    && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+        }
+
+        public int hashCode() {
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+    }
+}
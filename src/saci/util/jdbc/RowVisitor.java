@@ -0,0 +1,35 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * Recebe as linhas de uma query executada com
+ * {@link Query#forEach(Class, RowVisitor)}.
+ * <p>
+ * A mesma instância do VO é reaproveitada para todas as linhas, portanto ela
+ * só deve ser usada durante a chamada de {@link #visit(Object)}; para guardar
+ * os dados é necessário copiá-los.
+ * 
+ * @author Thiago
+ */
+public interface RowVisitor<T> {
+    public void visit(T vo) throws SQLException;
+}
@@ -0,0 +1,149 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Log das queries que demoram mais que o limite configurado em
+ * {@link DbUtil#setSlowQueryThreshold(long)}.
+ * <p>
+ * Cada execução lenta gera um único registro no logger
+ * <code>saci.util.jdbc.SlowQuery</code>, com nível WARNING. Além da mensagem,
+ * o registro leva como parametros o SQL, os valores dos parametros (já
+ * truncados e ocultados), o tempo em milissegundos e a quantidade de linhas.
+ * <p>
+ * Os valores dos parametros são guardados pela {@link Query} somente se o log
+ * (ou o cache de resultados) já estava habilitado quando ela foi criada. As
+ * queries criadas antes de habilitar o log registram
+ * <code>parameters=&lt;not captured&gt;</code>.
+ * 
+ * @author Thiago
+ */
+final class SlowQueryLog {
+
+    static final Logger logger = Logger.getLogger("saci.util.jdbc.SlowQuery");
+    private static volatile long threshold;
+    private static volatile int maxParameterLength = 100;
+    private static volatile Set<String> redacted = Collections.emptySet();
+
+    private SlowQueryLog() {
+    }
+
+    static boolean isEnabled() {
+        return threshold > 0;
+    }
+
+    static long getThreshold() {
+        return threshold;
+    }
+
+    static void setThreshold(long nanos) {
+        threshold = Math.max(0, nanos);
+    }
+
+    static void setMaxParameterLength(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Parameter length must not be negative");
+        }
+        maxParameterLength = length;
+    }
+
+    static void setRedactedParameters(String... names) {
+        Set<String> set = new HashSet<String>();
+        for (String name : names) {
+            set.add(name.toLowerCase());
+        }
+        redacted = Collections.unmodifiableSet(set);
+    }
+
+    static void log(Query query, long nanos, int rows) {
+        if (!logger.isLoggable(Level.WARNING)) {
+            return;
+        }
+        String sql = query.getSql();
+        String[] parameters = format(query);
+        double millis = nanos / 1000000D;
+        StringBuilder sb = new StringBuilder("Slow query: ").append(millis).append("ms, rows=");
+        sb.append(rows < 0 ? "error" : String.valueOf(rows)).append(", sql=").append(sql.trim());
+        if (parameters == null) {
+            sb.append(", parameters=<not captured>");
+        } else {
+            sb.append(", parameters=[");
+            for (int i = 0; i < parameters.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(i + 1).append('=').append(parameters[i]);
+            }
+            sb.append(']');
+        }
+        LogRecord record = new LogRecord(Level.WARNING, sb.toString());
+        record.setLoggerName(logger.getName());
+        record.setParameters(new Object[] { sql, parameters, Double.valueOf(millis), Integer.valueOf(rows) });
+        logger.log(record);
+    }
+
+    /**
+     * @return os valores formatados, ou <code>null</code> se a query não
+     *         guardou os valores
+     */
+    private static String[] format(Query query) {
+        Object[] values = query.getParameterValues();
+        if (values == null) {
+            return null;
+        }
+        Set<Integer> hidden = new HashSet<Integer>();
+        if (!redacted.isEmpty()) {
+            for (Entry<String, List<Integer>> parameter : query.getQueryMap().listParameters()) {
+                if (redacted.contains(parameter.getKey())) {
+                    hidden.addAll(parameter.getValue());
+                }
+            }
+        }
+        String[] result = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = hidden.contains(Integer.valueOf(i + 1)) ? "***" : format(values[i]);
+        }
+        return result;
+    }
+
+    private static String format(Object value) {
+        if (value == null) {
+            return "null";
+        } else if (value instanceof byte[]) {
+            return "byte[" + ((byte[]) value).length + "]";
+        } else if (value instanceof InputStream) {
+            return "<stream>";
+        }
+        String s = value.toString();
+        if (s.length() > maxParameterLength) {
+            s = s.substring(0, maxParameterLength) + "...";
+        }
+        return value instanceof String ? "'" + s + "'" : s;
+    }
+}
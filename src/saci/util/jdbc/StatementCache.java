@@ -0,0 +1,125 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import saci.util.CacheStatistics;
+
+/**
+ * Cache LRU de <i>PreparedStatement</i>s de uma conexão, indexado pelo SQL já
+ * convertido pelo {@link QueryMap}.
+ * <p>
+ * Um statement em uso é retirado do cache e só volta a ficar disponível quando
+ * é devolvido, de forma que duas queries iguais abertas ao mesmo tempo (por
+ * exemplo, dentro de um {@link QueryListener}) nunca compartilham o mesmo
+ * statement.
+ * 
+ * @author Thiago
+ */
+final class StatementCache {
+
+    private final Connection connection;
+    private final int capacity;
+    private final Map<PreparedStatement, String> inUse = new IdentityHashMap<PreparedStatement, String>();
+    private final LinkedHashMap<String, PreparedStatement> idle;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    StatementCache(Connection connection, int capacity) {
+        this.connection = connection;
+        this.capacity = capacity;
+        this.idle = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    synchronized PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = idle.remove(sql);
+        if (stmt != null) {
+            hits++;
+        } else {
+            misses++;
+            stmt = connection.prepareStatement(sql);
+        }
+        inUse.put(stmt, sql);
+        return stmt;
+    }
+
+    /**
+     * Devolve o statement ao cache, limpando os parametros. Statements que não
+     * foram obtidos deste cache são fechados.
+     */
+    synchronized void release(PreparedStatement stmt) {
+        String sql = inUse.remove(stmt);
+        if (sql == null || idle.containsKey(sql)) {
+            close(stmt);
+            return;
+        }
+        try {
+            stmt.clearParameters();
+            stmt.setFetchSize(0);
+            stmt.setMaxRows(0);
+            stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
+        } catch (SQLException e) {
+            close(stmt);
+            return;
+        }
+        idle.put(sql, stmt);
+        if (idle.size() > capacity) {
+            Iterator<PreparedStatement> it = idle.values().iterator();
+            PreparedStatement eldest = it.next();
+            it.remove();
+            evictions++;
+            close(eldest);
+        }
+    }
+
+    /**
+     * Fecha todos os statements do cache
+     */
+    synchronized void close() {
+        for (PreparedStatement stmt : idle.values()) {
+            close(stmt);
+        }
+        idle.clear();
+        inUse.clear();
+    }
+
+    synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(hits, misses, evictions, idle.size());
+    }
+
+    private void close(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
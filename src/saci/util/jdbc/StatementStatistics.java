@@ -0,0 +1,156 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Estatísticas de execução de um comando SQL: quantidade de execuções, erros,
+ * linhas e o histograma dos tempos de execução.
+ * <p>
+ * O histograma usa faixas logarítmicas com 8 subdivisões lineares por
+ * potência de 2, de forma que os percentis têm erro máximo de 12,5%. Todos os
+ * tempos são em nanossegundos.
+ * 
+ * @author Thiago
+ */
+public class StatementStatistics {
+
+    private static final int SUB_BUCKETS = 8;
+    private static final int BUCKETS = 62 * SUB_BUCKETS;
+
+    private final String sql;
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong totalTime = new AtomicLong();
+    private final AtomicLong maxTime = new AtomicLong();
+
+    StatementStatistics(String sql) {
+        this.sql = sql;
+    }
+
+    void record(long nanos, int rowCount) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        executions.incrementAndGet();
+        if (rowCount < 0) {
+            errors.incrementAndGet();
+        } else {
+            rows.addAndGet(rowCount);
+        }
+        totalTime.addAndGet(nanos);
+        histogram.incrementAndGet(bucket(nanos));
+        long max = maxTime.get();
+        while (nanos > max && !maxTime.compareAndSet(max, nanos)) {
+            max = maxTime.get();
+        }
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return Math.min((exponent - 2) * SUB_BUCKETS + sub, BUCKETS - 1);
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 2;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 3)) - 1;
+    }
+
+    /**
+     * @return o comando SQL, como convertido pelo {@link QueryMap}
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public long getTotalTime() {
+        return totalTime.get();
+    }
+
+    public long getMaxTime() {
+        return maxTime.get();
+    }
+
+    public long getAverageTime() {
+        long count = executions.get();
+        return count == 0 ? 0 : totalTime.get() / count;
+    }
+
+    /**
+     * Retorna o tempo abaixo do qual estão as execuções do percentil informado
+     * 
+     * @param percentile
+     *            o percentil, entre 0 e 100
+     * @return o tempo em nanossegundos
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(target, 1)) {
+                return Math.min(upperBound(i), maxTime.get());
+            }
+        }
+        return maxTime.get();
+    }
+
+    public String toString() {
+        return sql + " | executions=" + getExecutions() + " errors=" + getErrors() + " rows=" + getRows()
+                + " p50=" + millis(getPercentile(50)) + "ms p99=" + millis(getPercentile(99)) + "ms max="
+                + millis(getMaxTime()) + "ms total=" + millis(getTotalTime()) + "ms";
+    }
+
+    static String millis(long nanos) {
+        return String.valueOf(nanos / 1000000D);
+    }
+}
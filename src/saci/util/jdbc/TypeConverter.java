@@ -0,0 +1,129 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Converte valores entre o banco de dados e um tipo Java.
+ * <p>
+ * Os conversores são registrados no {@link ConverterRegistry} e resolvidos uma
+ * única vez para cada coluna do plano de mapeamento, de forma que a leitura de
+ * cada célula é apenas uma chamada de {@link #read}. Exemplo de conversor para
+ * <code>java.util.UUID</code>:
+ * 
+ * <pre>
+ * ConverterRegistry.register(UUID.class, new TypeConverter() {
+ *     public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+ *         String s = rs.getString(column);
+ *         return s == null ? null : UUID.fromString(s);
+ *     }
+ * 
+ *     public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+ *             throws SQLException {
+ *         if (value == null) {
+ *             stmt.setNull(index, Types.VARCHAR);
+ *         } else {
+ *             stmt.setString(index, value.toString());
+ *         }
+ *     }
+ * });
+ * </pre>
+ * 
+ * O {@link DbUtil} da query é repassado aos conversores, para que os
+ * conversores padrão usem os métodos <code>getXxx</code> e
+ * <code>setXxx</code> dele, que podem ser sobrescritos.
+ * 
+ * @author Thiago
+ */
+public abstract class TypeConverter {
+
+    /**
+     * Lê o valor da coluna da linha atual
+     * 
+     * @param dbUtil
+     *            o DbUtil que executa a query
+     * @param rs
+     *            o ResultSet posicionado na linha
+     * @param column
+     *            o índice da coluna
+     * @return o valor convertido, ou <code>null</code> se a coluna for nula
+     * @throws SQLException
+     */
+    public abstract Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException;
+
+    /**
+     * Grava o valor como parametro do statement
+     * 
+     * @param dbUtil
+     *            o DbUtil que executa a query
+     * @param stmt
+     *            o statement
+     * @param index
+     *            o índice do parametro
+     * @param value
+     *            o valor, que pode ser <code>null</code>
+     * @throws SQLException
+     */
+    public abstract void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value) throws SQLException;
+
+    /**
+     * Lê o valor da coluna e grava na propriedade do VO. Conversores de tipos
+     * primitivos sobrescrevem este método para evitar o boxing.
+     * 
+     * @param dbUtil
+     *            o DbUtil que executa a query
+     * @param rs
+     *            o ResultSet posicionado na linha
+     * @param column
+     *            o índice da coluna
+     * @param bean
+     *            o VO que deve ser preenchido
+     * @param writer
+     *            o acessor da propriedade
+     * @throws SQLException
+     */
+    public void read(DbUtil dbUtil, ResultSet rs, int column, Object bean, PropertyWriter writer)
+            throws SQLException {
+        writer.set(bean, getValue(dbUtil, rs, column));
+    }
+
+    /**
+     * Lê a propriedade do VO e grava como parametro do statement. Conversores
+     * de tipos primitivos sobrescrevem este método para evitar o boxing.
+     * 
+     * @param dbUtil
+     *            o DbUtil que executa a query
+     * @param stmt
+     *            o statement
+     * @param index
+     *            o índice do parametro
+     * @param bean
+     *            o VO que contém o valor
+     * @param reader
+     *            o acessor da propriedade
+     * @throws SQLException
+     */
+    public void bind(DbUtil dbUtil, PreparedStatement stmt, int index, Object bean, PropertyReader reader)
+            throws SQLException {
+        setParameter(dbUtil, stmt, index, reader.get(bean));
+    }
+}
@@ -0,0 +1,342 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Testes das classes geradas pelo {@link AccessorGenerator}
+ * 
+ * @author Thiago
+ */
+public class AccessorGeneratorTest {
+
+    public static class Bean {
+
+        private int intValue;
+        private long longValue;
+        private float floatValue;
+        private double doubleValue;
+        private boolean booleanValue;
+        private byte byteValue;
+        private short shortValue;
+        private char charValue;
+        private Integer boxed;
+        private String text;
+        private BigDecimal decimal;
+        public int publicInt;
+        public Long publicLong;
+
+        public int getIntValue() {
+            return intValue;
+        }
+
+        public void setIntValue(int intValue) {
+            this.intValue = intValue;
+        }
+
+        public long getLongValue() {
+            return longValue;
+        }
+
+        public void setLongValue(long longValue) {
+            this.longValue = longValue;
+        }
+
+        public float getFloatValue() {
+            return floatValue;
+        }
+
+        public void setFloatValue(float floatValue) {
+            this.floatValue = floatValue;
+        }
+
+        public double getDoubleValue() {
+            return doubleValue;
+        }
+
+        public void setDoubleValue(double doubleValue) {
+            this.doubleValue = doubleValue;
+        }
+
+        public boolean isBooleanValue() {
+            return booleanValue;
+        }
+
+        public void setBooleanValue(boolean booleanValue) {
+            this.booleanValue = booleanValue;
+        }
+
+        public byte getByteValue() {
+            return byteValue;
+        }
+
+        public void setByteValue(byte byteValue) {
+            this.byteValue = byteValue;
+        }
+
+        public short getShortValue() {
+            return shortValue;
+        }
+
+        public void setShortValue(short shortValue) {
+            this.shortValue = shortValue;
+        }
+
+        public char getCharValue() {
+            return charValue;
+        }
+
+        public void setCharValue(char charValue) {
+            this.charValue = charValue;
+        }
+
+        public Integer getBoxed() {
+            return boxed;
+        }
+
+        public void setBoxed(Integer boxed) {
+            this.boxed = boxed;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public Bean setText(String text) {
+            this.text = text;
+            return this;
+        }
+
+        public BigDecimal getDecimal() {
+            return decimal;
+        }
+
+        public long setDecimal(BigDecimal decimal) {
+            this.decimal = decimal;
+            return 0L;
+        }
+    }
+
+    static class HiddenBean {
+
+        private int value;
+
+        public int getValue() {
+            return value;
+        }
+
+        public void setValue(int value) {
+            this.value = value;
+        }
+    }
+
+    @After
+    public void restore() {
+        AccessorGenerator.setEnabled(true);
+    }
+
+    private static PropertyWriter writer(Class<?> beanClass, String name) {
+        for (Method method : beanClass.getMethods()) {
+            if (method.getName().equals(name) && method.getParameterTypes().length == 1) {
+                return AccessorGenerator.writer(method);
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    private static PropertyReader reader(Class<?> beanClass, String name) throws Exception {
+        return AccessorGenerator.reader(beanClass.getMethod(name));
+    }
+
+    private static void assertGenerated(Object accessor) {
+        assertTrue(accessor.getClass().getName(), accessor.getClass().getName().startsWith(
+                "saci.util.jdbc.generated."));
+    }
+
+    private static void assertReflective(Object accessor) {
+        assertTrue(accessor.getClass().getName(), accessor.getClass().getName().contains("Reflective"));
+    }
+
+    @Test
+    public void writesPrimitives() {
+        Bean bean = new Bean();
+        PropertyWriter writer = writer(Bean.class, "setIntValue");
+        assertGenerated(writer);
+        writer.setInt(bean, 42);
+        assertEquals(42, bean.getIntValue());
+        writer = writer(Bean.class, "setLongValue");
+        assertGenerated(writer);
+        writer.setLong(bean, Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, bean.getLongValue());
+        writer = writer(Bean.class, "setFloatValue");
+        assertGenerated(writer);
+        writer.setFloat(bean, 1.5F);
+        assertEquals(1.5F, bean.getFloatValue(), 0F);
+        writer = writer(Bean.class, "setDoubleValue");
+        assertGenerated(writer);
+        writer.setDouble(bean, -2.25D);
+        assertEquals(-2.25D, bean.getDoubleValue(), 0D);
+        writer = writer(Bean.class, "setBooleanValue");
+        assertGenerated(writer);
+        writer.setBoolean(bean, true);
+        assertTrue(bean.isBooleanValue());
+    }
+
+    @Test
+    public void writesPrimitivesWithoutTypedSetter() {
+        Bean bean = new Bean();
+        PropertyWriter writer = writer(Bean.class, "setByteValue");
+        writer.set(bean, Byte.valueOf((byte) 7));
+        assertEquals(7, bean.getByteValue());
+        writer = writer(Bean.class, "setShortValue");
+        writer.set(bean, Short.valueOf((short) -3));
+        assertEquals(-3, bean.getShortValue());
+        writer = writer(Bean.class, "setCharValue");
+        writer.set(bean, Character.valueOf('x'));
+        assertEquals('x', bean.getCharValue());
+    }
+
+    @Test
+    public void writesBoxedAndNullValues() {
+        Bean bean = new Bean();
+        PropertyWriter writer = writer(Bean.class, "setBoxed");
+        assertGenerated(writer);
+        writer.set(bean, Integer.valueOf(5));
+        assertEquals(Integer.valueOf(5), bean.getBoxed());
+        writer.set(bean, null);
+        assertNull(bean.getBoxed());
+
+        bean.setIntValue(9);
+        writer(Bean.class, "setIntValue").set(bean, null);
+        assertEquals(0, bean.getIntValue());
+        bean.setBooleanValue(true);
+        writer(Bean.class, "setBooleanValue").set(bean, null);
+        assertFalse(bean.isBooleanValue());
+    }
+
+    @Test
+    public void discardsSetterReturnValues() {
+        Bean bean = new Bean();
+        writer(Bean.class, "setText").setObject(bean, "abc");
+        assertEquals("abc", bean.getText());
+        writer(Bean.class, "setDecimal").setObject(bean, BigDecimal.TEN);
+        assertEquals(BigDecimal.TEN, bean.getDecimal());
+    }
+
+    @Test
+    public void writesPublicFields() throws Exception {
+        Bean bean = new Bean();
+        PropertyWriter writer = AccessorGenerator.writer(Bean.class.getField("publicInt"));
+        assertGenerated(writer);
+        writer.setInt(bean, 3);
+        assertEquals(3, bean.publicInt);
+        writer = AccessorGenerator.writer(Bean.class.getField("publicLong"));
+        writer.set(bean, Long.valueOf(4));
+        assertEquals(Long.valueOf(4), bean.publicLong);
+        writer.set(bean, null);
+        assertNull(bean.publicLong);
+    }
+
+    @Test
+    public void readsPrimitivesAndObjects() throws Exception {
+        Bean bean = new Bean();
+        bean.setIntValue(1);
+        bean.setLongValue(2L);
+        bean.setFloatValue(3F);
+        bean.setDoubleValue(4D);
+        bean.setBooleanValue(true);
+        bean.setShortValue((short) 5);
+        bean.setText("six");
+
+        PropertyReader reader = reader(Bean.class, "getIntValue");
+        assertGenerated(reader);
+        assertEquals(1, reader.getInt(bean));
+        assertEquals(Integer.valueOf(1), reader.get(bean));
+        reader = reader(Bean.class, "getLongValue");
+        assertGenerated(reader);
+        assertEquals(2L, reader.getLong(bean));
+        reader = reader(Bean.class, "getFloatValue");
+        assertGenerated(reader);
+        assertEquals(3F, reader.getFloat(bean), 0F);
+        reader = reader(Bean.class, "getDoubleValue");
+        assertGenerated(reader);
+        assertEquals(4D, reader.getDouble(bean), 0D);
+        reader = reader(Bean.class, "isBooleanValue");
+        assertGenerated(reader);
+        assertTrue(reader.getBoolean(bean));
+        reader = reader(Bean.class, "getShortValue");
+        assertEquals(Short.valueOf((short) 5), reader.get(bean));
+        reader = reader(Bean.class, "getText");
+        assertGenerated(reader);
+        assertEquals("six", reader.getObject(bean));
+        reader = reader(Bean.class, "getBoxed");
+        assertNull(reader.get(bean));
+    }
+
+    @Test
+    public void cachesAccessors() throws Exception {
+        assertSame(writer(Bean.class, "setIntValue"), writer(Bean.class, "setIntValue"));
+        assertSame(reader(Bean.class, "getText"), reader(Bean.class, "getText"));
+    }
+
+    @Test
+    public void fallsBackToReflectionForHiddenClasses() throws Exception {
+        HiddenBean bean = new HiddenBean();
+        PropertyWriter writer = writer(HiddenBean.class, "setValue");
+        assertReflective(writer);
+        writer.set(bean, Integer.valueOf(8));
+        assertEquals(8, bean.getValue());
+        writer.set(bean, null);
+        assertEquals(0, bean.getValue());
+        Method getter = HiddenBean.class.getMethod("getValue");
+        getter.setAccessible(true);
+        PropertyReader reader = AccessorGenerator.reader(getter);
+        assertReflective(reader);
+    }
+
+    @Test
+    public void fallsBackToReflectionWhenDisabled() throws Exception {
+        AccessorGenerator.setEnabled(false);
+        Bean bean = new Bean();
+        PropertyWriter writer = writer(Bean.class, "setIntValue");
+        assertReflective(writer);
+        writer.setInt(bean, 11);
+        assertEquals(11, bean.getIntValue());
+        Field field = Bean.class.getField("publicInt");
+        writer = AccessorGenerator.writer(field);
+        assertReflective(writer);
+        writer.set(bean, Integer.valueOf(12));
+        assertEquals(12, bean.publicInt);
+        PropertyReader reader = reader(Bean.class, "getIntValue");
+        assertReflective(reader);
+        assertEquals(11, reader.getInt(bean));
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes das execuções assíncronas da {@link Query} com um banco H2 em
+ * memória, acessado por um {@link ConnectionPool}
+ * 
+ * @author Thiago
+ */
+public class AsyncQueryTest {
+
+    private ConnectionPool pool;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        pool = new ConnectionPool(TestDatabase.create(), "sa", "", 4);
+        Connection conn = pool.getConnection();
+        try {
+            TestDatabase.execute(conn, "create table tarefa (id int, feita boolean)");
+            for (int i = 1; i <= 20; i++) {
+                TestDatabase.execute(conn, "insert into tarefa values (" + i + ", false)");
+            }
+        } finally {
+            conn.close();
+        }
+        db = new DbUtil(pool);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        Connection conn = pool.getConnection();
+        try {
+            TestDatabase.execute(conn, "drop all objects");
+        } finally {
+            conn.close();
+        }
+        pool.close();
+    }
+
+    @Test
+    public void runsQueriesConcurrently() throws Exception {
+        List<Future<List<Integer>>> futures = new ArrayList<Future<List<Integer>>>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(db.execute("select id from tarefa where id > ?").addParameter(i).listAsync(Integer.class));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(20 - i, futures.get(i).get().size());
+        }
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void getsAndUpdates() throws Exception {
+        Future<Integer> updated = db.execute("update tarefa set feita = true where id <= ?").addParameter(5)
+                .updateAsync();
+        assertEquals(Integer.valueOf(5), updated.get());
+        Future<Integer> count = db.execute("select count(*) from tarefa where feita").getAsync(Integer.class);
+        assertEquals(Integer.valueOf(5), count.get());
+    }
+
+    @Test
+    public void reportsErrors() throws SQLException, InterruptedException {
+        Future<List<Integer>> future = db.execute("select 1 / (id - 1) from tarefa").listAsync(Integer.class);
+        try {
+            future.get();
+            fail("Division by zero accepted");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void usesInstanceExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        db.setExecutor(new Executor() {
+
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        Future<Integer> count = db.execute("select count(*) from tarefa").getAsync(Integer.class);
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertEquals(Integer.valueOf(20), count.get());
+    }
+
+    @Test
+    public void releasesRejectedQueries() throws SQLException {
+        db.setExecutor(new Executor() {
+
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        try {
+            db.execute("select count(*) from tarefa").getAsync(Integer.class);
+            fail("Rejected task accepted");
+        } catch (RejectedExecutionException e) {
+            // esperado
+        }
+        assertEquals(0, pool.getActiveCount());
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import saci.util.ByteArrayInputStream;
+
+/**
+ * Testes do {@link BlobReader} com um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class BlobReaderTest {
+
+    private static final byte[] CONTENT = content(20000);
+
+    private Connection conn;
+
+    @Before
+    public void setUp() throws SQLException {
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table arquivo (id int, conteudo blob)",
+                "insert into arquivo values (2, null)");
+        PreparedStatement stmt = conn.prepareStatement("insert into arquivo values (1, ?)");
+        try {
+            stmt.setBytes(1, CONTENT);
+            stmt.executeUpdate();
+        } finally {
+            stmt.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DbUtil.setBlobMode(BlobMode.MEMORY);
+        DbUtil.setBlobSpillThreshold(1024 * 1024);
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+    }
+
+    @Test
+    public void readsIntoMemory() throws Exception {
+        InputStream in = read(1);
+        assertEquals(ByteArrayInputStream.class, in.getClass());
+        assertArrayEquals(CONTENT, readFully(in));
+    }
+
+    @Test
+    public void readsNull() throws Exception {
+        assertNull(read(2));
+    }
+
+    @Test
+    public void keepsSmallColumnsInMemory() throws Exception {
+        DbUtil.setBlobMode(BlobMode.SPILL);
+        DbUtil.setBlobSpillThreshold(CONTENT.length);
+        InputStream in = read(1);
+        assertEquals(ByteArrayInputStream.class, in.getClass());
+        assertArrayEquals(CONTENT, readFully(in));
+    }
+
+    @Test
+    public void spillsLargeColumns() throws Exception {
+        DbUtil.setBlobMode(BlobMode.SPILL);
+        DbUtil.setBlobSpillThreshold(CONTENT.length - 1);
+        int files = tempFiles();
+        InputStream in = read(1);
+        assertFalse(in instanceof ByteArrayInputStream);
+        assertEquals(files + 1, tempFiles());
+        assertArrayEquals(CONTENT, readFully(in));
+        assertEquals(files, tempFiles());
+    }
+
+    @Test
+    public void spillsEverythingWithZeroThreshold() throws Exception {
+        DbUtil.setBlobMode(BlobMode.SPILL);
+        DbUtil.setBlobSpillThreshold(0);
+        assertArrayEquals(CONTENT, readFully(read(1)));
+    }
+
+    @Test
+    public void removesFilesOfDiscardedStreams() throws Exception {
+        DbUtil.setBlobMode(BlobMode.SPILL);
+        DbUtil.setBlobSpillThreshold(0);
+        int files = tempFiles();
+        read(1);
+        for (int i = 0; i < 50 && tempFiles() > files; i++) {
+            System.gc();
+            Thread.sleep(20);
+            // a cópia seguinte apaga os arquivos dos streams coletados
+            read(1).close();
+        }
+        assertEquals(files, tempFiles());
+    }
+
+    @Test
+    public void passesDriverStreamWhenLazy() throws Exception {
+        DbUtil.setBlobMode(BlobMode.LAZY);
+        Statement stmt = conn.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("select conteudo from arquivo where id = 1");
+            rs.next();
+            InputStream in = BlobReader.read(rs, 1);
+            assertFalse(in instanceof ByteArrayInputStream);
+            assertArrayEquals(CONTENT, readFully(in));
+        } finally {
+            stmt.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeThreshold() {
+        DbUtil.setBlobSpillThreshold(-1);
+    }
+
+    private InputStream read(int id) throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("select conteudo from arquivo where id = " + id);
+            rs.next();
+            return BlobReader.read(rs, 1);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private static int tempFiles() {
+        String[] files = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+
+            public boolean accept(File dir, String name) {
+                return name.startsWith("dbutil") && name.endsWith(".blob");
+            }
+        });
+        return files == null ? 0 : files.length;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] content(int length) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = (byte) i;
+        }
+        return result;
+    }
+}
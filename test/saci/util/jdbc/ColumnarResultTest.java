@@ -0,0 +1,105 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do {@link ColumnarResult} com um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class ColumnarResultTest {
+
+    private Connection conn;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table documento (id int, numero bigint, valor decimal(10,2), "
+                + "tipo varchar(10), conteudo blob, texto clob, hash binary(4))");
+        PreparedStatement stmt = conn.prepareStatement("insert into documento values (?, ?, ?, ?, ?, ?, ?)");
+        try {
+            for (int i = 1; i <= 3; i++) {
+                stmt.setInt(1, i);
+                stmt.setLong(2, 1000L * i);
+                stmt.setDouble(3, i + 0.5);
+                stmt.setString(4, i % 2 == 0 ? "par" : "impar");
+                stmt.setBytes(5, new byte[] { (byte) i, 2, 3 });
+                stmt.setString(6, "texto " + i);
+                stmt.setBytes(7, new byte[] { (byte) i, 0, 0, 1 });
+                stmt.executeUpdate();
+            }
+            stmt.setInt(1, 4);
+            for (int i = 2; i <= 7; i++) {
+                stmt.setObject(i, null);
+            }
+            stmt.executeUpdate();
+        } finally {
+            stmt.close();
+        }
+        db = new DbUtil(conn);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+    }
+
+    @Test
+    public void readsPrimitiveColumns() throws SQLException {
+        ColumnarResult result = db.execute("select * from documento order by id").columns();
+        assertEquals(4, result.getRowCount());
+        assertArrayEquals(new int[] { 1, 2, 3, 4 }, result.getInts("id"));
+        assertArrayEquals(new long[] { 1000, 2000, 3000, 0 }, result.getLongs("numero"));
+        assertEquals(2.5, result.getDoubles("valor")[1], 0);
+        assertTrue(result.isNull(3, result.getColumnIndex("valor")));
+        assertEquals("par", result.getValue(1, result.getColumnIndex("tipo")));
+        assertEquals(2, result.getDictionary("tipo").length);
+        assertEquals(-1, result.getCodes("tipo")[3]);
+    }
+
+    @Test
+    public void materializesLobs() throws SQLException {
+        ColumnarResult result = db.execute("select * from documento order by id").columns();
+        // o ResultSet já foi fechado: os valores não podem depender dos locators
+        for (int row = 0; row < 3; row++) {
+            assertArrayEquals(new byte[] { (byte) (row + 1), 2, 3 },
+                    (byte[]) result.getValue(row, result.getColumnIndex("conteudo")));
+            assertEquals("texto " + (row + 1), result.getValue(row, result.getColumnIndex("texto")));
+            assertArrayEquals(new byte[] { (byte) (row + 1), 0, 0, 1 },
+                    (byte[]) result.getValue(row, result.getColumnIndex("hash")));
+        }
+        assertTrue(result.isNull(3, result.getColumnIndex("conteudo")));
+        assertTrue(result.isNull(3, result.getColumnIndex("texto")));
+    }
+}
@@ -0,0 +1,320 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do {@link ConnectionPool}, com um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class ConnectionPoolTest {
+
+    private static final AtomicInteger databases = new AtomicInteger();
+    private String url;
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp() throws SQLException {
+        url = "jdbc:h2:mem:pool" + databases.incrementAndGet();
+        pool = new ConnectionPool(url, "sa", "", 2);
+        pool.setAcquireTimeout(100);
+        Connection conn = pool.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            stmt.execute("create table item (id int primary key, name varchar(20))");
+            stmt.execute("insert into item values (1, 'one')");
+            stmt.close();
+        } finally {
+            conn.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void reusesReleasedConnections() throws SQLException {
+        Connection first = pool.getConnection();
+        assertEquals(1, pool.getActiveCount());
+        first.close();
+        assertTrue(first.isClosed());
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+
+        Connection second = pool.getConnection();
+        assertNotSame(first, second);
+        assertFalse(second.isClosed());
+        assertEquals(1, pool.getCreatedCount());
+        second.close();
+        try {
+            second.createStatement();
+            fail("closed lease must not be usable");
+        } catch (SQLException expected) {
+        }
+    }
+
+    @Test
+    public void timesOutWhenExhausted() throws SQLException {
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        try {
+            pool.getConnection();
+            fail("pool is full");
+        } catch (SQLException expected) {
+        }
+        assertEquals(1, pool.getTimeoutCount());
+        second.close();
+        pool.getConnection().close();
+        first.close();
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void evictsIdleConnections() throws Exception {
+        pool.setMaxIdleTime(1);
+        Thread.sleep(10);
+        pool.evictIdle();
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(0, pool.getOpenCount());
+
+        pool.getConnection().close();
+        assertEquals(2, pool.getCreatedCount());
+    }
+
+    @Test
+    public void discardsBrokenConnections() throws SQLException {
+        FailingDataSource ds = new FailingDataSource(url);
+        ConnectionPool failing = new ConnectionPool(ds, 1);
+        try {
+            Connection conn = failing.getConnection();
+            PreparedStatement stmt = conn.prepareStatement("select id from item");
+            ds.failing = true;
+            try {
+                stmt.executeQuery();
+                fail("statement must fail");
+            } catch (SQLException e) {
+                assertEquals("08S01", e.getSQLState());
+            }
+            ds.failing = false;
+            conn.close();
+            assertEquals(0, failing.getIdleCount());
+            assertEquals(0, failing.getOpenCount());
+
+            failing.getConnection().close();
+            assertEquals(2, failing.getCreatedCount());
+        } finally {
+            failing.close();
+        }
+    }
+
+    @Test
+    public void neverExposesPhysicalConnection() throws SQLException {
+        Connection conn = pool.getConnection();
+        try {
+            PreparedStatement stmt = conn.prepareStatement("select id from item");
+            assertSame(conn, stmt.getConnection());
+            ResultSet rs = stmt.executeQuery();
+            assertSame(stmt, rs.getStatement());
+            rs.close();
+            stmt.close();
+            assertSame(conn, conn.getMetaData().getConnection());
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void restoresConnectionState() throws SQLException {
+        Connection conn = pool.getConnection();
+        int isolation = conn.getTransactionIsolation();
+        conn.setAutoCommit(false);
+        conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        conn.createStatement().executeUpdate("insert into item values (2, 'two')");
+        conn.close();
+
+        conn = pool.getConnection();
+        try {
+            assertEquals(1, pool.getCreatedCount());
+            assertTrue(conn.getAutoCommit());
+            assertEquals(isolation, conn.getTransactionIsolation());
+            ResultSet rs = conn.createStatement().executeQuery("select count(*) from item");
+            rs.next();
+            assertEquals(1, rs.getInt(1));
+            rs.close();
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void leasesOnlyWhileQueryExecutes() throws SQLException {
+        DbUtil db = new DbUtil(pool);
+        Query query = db.execute("select id, name from item where id = ?").addParameter(1);
+        assertEquals(0, pool.getActiveCount());
+        List<Row> rows = query.listRows();
+        assertEquals(1, rows.size());
+        assertEquals("one", rows.get(0).get("NAME"));
+        assertEquals(0, pool.getActiveCount());
+
+        assertEquals(1, db.execute("update item set name = ? where id = ?").addParameter("uno").addParameter(1)
+                .update());
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void queryFailureReleasesConnection() throws SQLException {
+        DbUtil db = new DbUtil(pool);
+        try {
+            db.execute("select missing from item").listRows();
+            fail("invalid column");
+        } catch (SQLException expected) {
+        }
+        assertEquals(0, pool.getActiveCount());
+        db.execute("select id from item").addParameter(1);
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void closesForgottenStatements() throws SQLException {
+        Connection conn = pool.getConnection();
+        PreparedStatement forgotten = conn.prepareStatement("select id from item");
+        Statement closed = conn.createStatement();
+        closed.close();
+        conn.close();
+        assertTrue(forgotten.isClosed());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void evictsOnRelease() throws Exception {
+        Connection conn = pool.getConnection();
+        pool.getConnection().close();
+        pool.setMaxIdleTime(1);
+        Thread.sleep(1100);
+        conn.close();
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, pool.getOpenCount());
+    }
+
+    @Test
+    public void commitsPinnedTransaction() throws SQLException {
+        DbUtil db = new DbUtil(pool);
+        Connection conn = db.begin();
+        assertEquals(1, pool.getActiveCount());
+        db.execute("insert into item values (2, 'two')").update();
+        db.execute("insert into item values (3, 'three')").update();
+        assertEquals(3, db.execute("select id from item").listRows().size());
+        assertSame(conn, db.getConnection());
+        db.commit();
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(3, db.execute("select id from item").listRows().size());
+    }
+
+    @Test
+    public void rollsBackPinnedTransaction() throws SQLException {
+        DbUtil db = new DbUtil(pool);
+        db.begin();
+        db.execute("insert into item values (2, 'two')").update();
+        db.rollback();
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, db.execute("select id from item").listRows().size());
+    }
+
+    @Test
+    public void getConnectionPinsUntilClosed() throws SQLException {
+        DbUtil db = new DbUtil(pool);
+        Connection conn = db.getConnection();
+        conn.setAutoCommit(false);
+        db.execute("delete from item").update();
+        conn.rollback();
+        assertEquals(1, pool.getActiveCount());
+        db.closeConnection();
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, db.execute("select id from item").listRows().size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void commitRequiresTransaction() throws SQLException {
+        new DbUtil(pool).commit();
+    }
+
+    /**
+     * Datasource cujos statements podem simular a queda da conexão
+     */
+    private static final class FailingDataSource extends ConnectionPool {
+
+        private final String url;
+        volatile boolean failing;
+
+        FailingDataSource(String url) {
+            super(url, "sa", "", 1);
+            this.url = url;
+        }
+
+        public Connection getConnection() throws SQLException {
+            return (Connection) wrap(DriverManager.getConnection(url, "sa", ""), Connection.class);
+        }
+
+        private Object wrap(final Object target, Class<?> type) {
+            return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type },
+                    new InvocationHandler() {
+
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if (failing && method.getName().startsWith("execute")) {
+                                throw new SQLException("Communication link failure", "08S01");
+                            }
+                            try {
+                                Object result = method.invoke(target, args);
+                                Class<?> returned = method.getReturnType();
+                                return result != null && returned == PreparedStatement.class ? wrap(result,
+                                        returned) : result;
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do {@link ConverterRegistry} com um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class ConverterRegistryTest {
+
+    private Connection conn;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table conta (id int primary key, situacao varchar(10), prioridade int)");
+        db = new DbUtil(conn);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        conn.close();
+    }
+
+    @Test
+    public void enumRoundTripByName() throws SQLException {
+        db.execute("insert into conta (id, situacao) values (:id, :situacao)").setNamedParameter(
+                conta(1, Situacao.INATIVA, null)).update();
+        assertEquals("INATIVA", db.execute("select situacao from conta").get(String.class));
+        List<Conta> contas = db.execute("select * from conta where situacao = :situacao").setNamedParameter(
+                conta(0, Situacao.INATIVA, null)).list(Conta.class);
+        assertEquals(1, contas.size());
+        assertSame(Situacao.INATIVA, contas.get(0).getSituacao());
+        assertNull(contas.get(0).getPrioridade());
+    }
+
+    @Test
+    public void enumRoundTripByOrdinal() throws SQLException {
+        ConverterRegistry.registerOrdinal(Prioridade.class);
+        db.execute("insert into conta (id, prioridade) values (:id, :prioridade)").setNamedParameter(
+                conta(1, null, Prioridade.ALTA)).update();
+        assertEquals(Integer.valueOf(2), db.execute("select prioridade from conta").get(Integer.class));
+        List<Conta> contas = db.execute("select * from conta where prioridade = :prioridade").setNamedParameter(
+                conta(0, null, Prioridade.ALTA)).list(Conta.class);
+        assertEquals(1, contas.size());
+        assertSame(Prioridade.ALTA, contas.get(0).getPrioridade());
+        assertNull(contas.get(0).getSituacao());
+    }
+
+    @Test(expected = SQLException.class)
+    public void unregisteredOrdinalColumnFails() throws SQLException {
+        db.execute("insert into conta (id, situacao) values (1, '1')").update();
+        db.execute("select situacao from conta").get(Conta.class);
+    }
+
+    @Test
+    public void resolvesSuperInterfaces() {
+        TypeConverter converter = new TypeConverter() {
+
+            public Object getValue(DbUtil dbUtil, ResultSet rs, int column) throws SQLException {
+                return null;
+            }
+
+            public void setParameter(DbUtil dbUtil, PreparedStatement stmt, int index, Object value)
+                    throws SQLException {
+            }
+        };
+        ConverterRegistry.register(Codificado.class, converter);
+        assertSame(converter, ConverterRegistry.getConverter(Codigo.class));
+        assertSame(converter, ConverterRegistry.getConverter(Types.VARCHAR, CodigoEspecial.class));
+    }
+
+    private static Conta conta(int id, Situacao situacao, Prioridade prioridade) {
+        Conta conta = new Conta();
+        conta.setId(id);
+        conta.setSituacao(situacao);
+        conta.setPrioridade(prioridade);
+        return conta;
+    }
+
+    public enum Situacao {
+        ATIVA, INATIVA
+    }
+
+    public enum Prioridade {
+        BAIXA, MEDIA, ALTA
+    }
+
+    public interface Codificado {
+    }
+
+    public interface Rotulado extends Codificado {
+    }
+
+    public static class Codigo implements Rotulado {
+    }
+
+    public static class CodigoEspecial extends Codigo {
+    }
+
+    public static class Conta {
+
+        private int id;
+        private Situacao situacao;
+        private Prioridade prioridade;
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public Situacao getSituacao() {
+            return situacao;
+        }
+
+        public void setSituacao(Situacao situacao) {
+            this.situacao = situacao;
+        }
+
+        public Prioridade getPrioridade() {
+            return prioridade;
+        }
+
+        public void setPrioridade(Prioridade prioridade) {
+            this.prioridade = prioridade;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do {@link DbUtil} com um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class DbUtilTest {
+
+    private Connection conn;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table cliente (id int primary key, razao_social varchar(50), "
+                + "cpf_cgc varchar(14), observacao varchar(50))");
+        db = new DbUtil(conn);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+    }
+
+    @Test
+    public void insertsIntoSnakeCaseColumns() throws SQLException {
+        assertEquals(3, db.insertAll("cliente", clientes(3)));
+        assertInserted(3);
+    }
+
+    @Test
+    public void insertsMultiRowChunks() throws SQLException {
+        db.setDialect(Dialect.H2);
+        assertEquals(5, db.insertAll("CLIENTE", clientes(5), 2));
+        assertInserted(5);
+    }
+
+    @Test
+    public void insertsJdbcBatches() throws SQLException {
+        db.setDialect(Dialect.GENERIC);
+        assertEquals(5, db.insertAll("cliente", clientes(5), 2));
+        assertInserted(5);
+    }
+
+    @Test
+    public void skipsExcludedColumns() throws SQLException {
+        assertEquals(2, db.insertAll("cliente", clientes(2), 100, "cpf_cgc"));
+        Cliente cliente = db.execute("select * from cliente where id = 1").get(Cliente.class);
+        assertEquals("Cliente 1", cliente.getRazaoSocial());
+        assertNull(cliente.getCpfCgc());
+    }
+
+    @Test(expected = SQLException.class)
+    public void rejectsUnknownTable() throws SQLException {
+        db.insertAll("inexistente", clientes(1));
+    }
+
+    private void assertInserted(int count) throws SQLException {
+        List<Cliente> list = db.execute("select * from cliente order by id").list(Cliente.class);
+        assertEquals(count, list.size());
+        for (int i = 0; i < count; i++) {
+            Cliente cliente = list.get(i);
+            assertEquals(i, cliente.getId());
+            assertEquals("Cliente " + i, cliente.getRazaoSocial());
+            assertEquals(String.valueOf(10000000000L + i), cliente.getCpfCgc());
+            assertNull(cliente.getObservacao());
+        }
+    }
+
+    private static List<Cliente> clientes(int count) {
+        List<Cliente> list = new ArrayList<Cliente>();
+        for (int i = 0; i < count; i++) {
+            Cliente cliente = new Cliente();
+            cliente.setId(i);
+            cliente.setRazaoSocial("Cliente " + i);
+            cliente.setCpfCgc(String.valueOf(10000000000L + i));
+            list.add(cliente);
+        }
+        return list;
+    }
+
+    public static class Cliente {
+
+        private int id;
+        private String razaoSocial;
+        private String cpfCgc;
+        private String observacao;
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public String getRazaoSocial() {
+            return razaoSocial;
+        }
+
+        public void setRazaoSocial(String razaoSocial) {
+            this.razaoSocial = razaoSocial;
+        }
+
+        public String getCpfCgc() {
+            return cpfCgc;
+        }
+
+        public void setCpfCgc(String cpfCgc) {
+            this.cpfCgc = cpfCgc;
+        }
+
+        public String getObservacao() {
+            return observacao;
+        }
+
+        public void setObservacao(String observacao) {
+            this.observacao = observacao;
+        }
+
+        /**
+         * Propriedade calculada, sem coluna na tabela
+         */
+        public String getDescricao() {
+            return id + " - " + razaoSocial;
+        }
+    }
+}
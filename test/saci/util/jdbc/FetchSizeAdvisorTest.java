@@ -0,0 +1,123 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do ajuste automático do fetch size ({@link FetchSizeAdvisor}) com
+ * um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class FetchSizeAdvisorTest {
+
+    private static final String SELECT = "select * from numero where id <= ?";
+
+    private Connection conn;
+    private DbUtil db;
+    private String sql;
+
+    @Before
+    public void setUp() throws SQLException {
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table numero (id int, nome varchar(100))");
+        for (int i = 1; i <= 200; i++) {
+            TestDatabase.execute(conn, "insert into numero values (" + i + ", 'numero " + i + "')");
+        }
+        db = new DbUtil(conn);
+        DbUtil.setAdaptiveFetchBuffer(1024 * 1024);
+        sql = QueryMap.mapQuery(SELECT).getQuery();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DbUtil.setAdaptiveFetchBuffer(0);
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+    }
+
+    @Test
+    public void learnsFromExecutions() throws SQLException {
+        assertEquals(0, FetchSizeAdvisor.getFetchSize(sql));
+        db.execute(SELECT).addParameter(150).list(Integer.class);
+        assertEquals(151, FetchSizeAdvisor.getFetchSize(sql));
+    }
+
+    @Test
+    public void decaysSlowly() throws SQLException {
+        db.execute(SELECT).addParameter(200).list(Integer.class);
+        db.execute(SELECT).addParameter(20).list(Integer.class);
+        // a expectativa cai um quarto por execução
+        assertEquals(151, FetchSizeAdvisor.getFetchSize(sql));
+        for (int i = 0; i < 20; i++) {
+            db.execute(SELECT).addParameter(20).list(Integer.class);
+        }
+        assertEquals(21, FetchSizeAdvisor.getFetchSize(sql));
+    }
+
+    @Test
+    public void keepsMinimumFetchSize() throws SQLException {
+        db.execute(SELECT).addParameter(1).list(Integer.class);
+        assertEquals(10, FetchSizeAdvisor.getFetchSize(sql));
+    }
+
+    @Test
+    public void limitsByBuffer() throws SQLException {
+        DbUtil.setAdaptiveFetchBuffer(1000);
+        db.execute(SELECT).addParameter(200).list(Integer.class);
+        int fetchSize = FetchSizeAdvisor.getFetchSize(sql);
+        assertTrue(String.valueOf(fetchSize), fetchSize >= 10 && fetchSize < 200);
+    }
+
+    @Test
+    public void limitsByMaxRows() throws SQLException {
+        db.execute(SELECT).addParameter(200).list(Integer.class);
+        PreparedStatement stmt = conn.prepareStatement(SELECT);
+        try {
+            FetchSizeAdvisor.apply(sql, stmt, 50);
+            assertEquals(50, stmt.getFetchSize());
+        } finally {
+            stmt.close();
+        }
+    }
+
+    @Test
+    public void skipsExplicitFetchSize() throws SQLException {
+        db.execute(SELECT).addParameter(200).setFetchSize(5).list(Integer.class);
+        assertEquals(0, FetchSizeAdvisor.getFetchSize(sql));
+    }
+
+    @Test
+    public void clearsWhenDisabled() throws SQLException {
+        db.execute(SELECT).addParameter(200).list(Integer.class);
+        DbUtil.setAdaptiveFetchBuffer(0);
+        assertEquals(0, FetchSizeAdvisor.getFetchSize(sql));
+    }
+}
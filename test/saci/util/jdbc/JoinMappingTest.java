@@ -0,0 +1,212 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do {@link JoinMapping} com um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class JoinMappingTest {
+
+    private static final String SELECT = "select p.*, i.id as item_id, i.produto as item_produto, "
+            + "t.codigo as item_tag_codigo from pedido p left join item i on i.pedido = p.id "
+            + "left join tag t on t.item = i.id order by p.id, i.id";
+
+    private Connection conn;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table pedido (id int, cliente varchar(20), item_count int)",
+                "create table item (id int, pedido int, produto varchar(20))",
+                "create table tag (item int, codigo varchar(10))",
+                "insert into pedido values (1, 'ana', 2)", "insert into pedido values (2, 'bia', 0)",
+                "insert into item values (10, 1, 'caneta')", "insert into item values (11, 1, 'lapis')",
+                "insert into tag values (10, 'a')", "insert into tag values (10, 'b')");
+        db = new DbUtil(conn);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+    }
+
+    @Test
+    public void mapsParentsAndChildren() throws SQLException {
+        List<Pedido> pedidos = db.execute(SELECT).list(mapping());
+        assertEquals(2, pedidos.size());
+        Pedido ana = pedidos.get(0);
+        assertEquals("ana", ana.getCliente());
+        assertEquals(2, ana.getItens().size());
+        Item caneta = ana.getItens().get(0);
+        assertEquals("caneta", caneta.getProduto());
+        assertEquals(2, caneta.getTags().size());
+        assertTrue(ana.getItens().get(1).getTags() == null);
+        // LEFT JOIN sem itens
+        assertNull(pedidos.get(1).getItens());
+    }
+
+    @Test
+    public void keepsRootColumnsWithChildPrefix() throws SQLException {
+        List<Pedido> pedidos = db.execute(SELECT).list(mapping());
+        // item_count pertence ao pedido: o item não tem a propriedade count
+        assertEquals(Integer.valueOf(2), pedidos.get(0).getItemCount());
+        assertEquals(Integer.valueOf(0), pedidos.get(1).getItemCount());
+    }
+
+    @Test
+    public void rejectsAmbiguousColumns() throws SQLException {
+        JoinMapping<Pedido> mapping = new JoinMapping<Pedido>(Pedido.class, "id").join("itens", "item_",
+                new JoinMapping<ContadorItem>(ContadorItem.class, "id"));
+        try {
+            db.execute(SELECT).list(mapping);
+            fail("Ambiguous column accepted");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("item_count"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsReusedMapping() {
+        JoinMapping<Item> item = new JoinMapping<Item>(Item.class, "id");
+        new JoinMapping<Pedido>(Pedido.class, "id").join("itens", "item_", item);
+        new JoinMapping<Pedido>(Pedido.class, "id").join("itens", "item_", item);
+    }
+
+    private static JoinMapping<Pedido> mapping() {
+        return new JoinMapping<Pedido>(Pedido.class, "id").join("itens", "item_",
+                new JoinMapping<Item>(Item.class, "id").join("tags", "item_tag_",
+                        new JoinMapping<Tag>(Tag.class, "codigo")));
+    }
+
+    public static class Pedido {
+
+        private Integer id;
+        private String cliente;
+        private Integer itemCount;
+        private List<Item> itens;
+
+        public Integer getId() {
+            return id;
+        }
+
+        public void setId(Integer id) {
+            this.id = id;
+        }
+
+        public String getCliente() {
+            return cliente;
+        }
+
+        public void setCliente(String cliente) {
+            this.cliente = cliente;
+        }
+
+        public Integer getItemCount() {
+            return itemCount;
+        }
+
+        public void setItemCount(Integer itemCount) {
+            this.itemCount = itemCount;
+        }
+
+        public List<Item> getItens() {
+            return itens;
+        }
+
+        public void setItens(List<Item> itens) {
+            this.itens = itens;
+        }
+    }
+
+    public static class Item {
+
+        private Integer id;
+        private String produto;
+        private Set<Tag> tags;
+
+        public Integer getId() {
+            return id;
+        }
+
+        public void setId(Integer id) {
+            this.id = id;
+        }
+
+        public String getProduto() {
+            return produto;
+        }
+
+        public void setProduto(String produto) {
+            this.produto = produto;
+        }
+
+        public Set<Tag> getTags() {
+            return tags;
+        }
+
+        public void setTags(Set<Tag> tags) {
+            this.tags = tags;
+        }
+    }
+
+    public static class ContadorItem extends Item {
+
+        private Integer count;
+
+        public Integer getCount() {
+            return count;
+        }
+
+        public void setCount(Integer count) {
+            this.count = count;
+        }
+    }
+
+    public static class Tag {
+
+        private String codigo;
+
+        public String getCodigo() {
+            return codigo;
+        }
+
+        public void setCodigo(String codigo) {
+            this.codigo = codigo;
+        }
+    }
+}
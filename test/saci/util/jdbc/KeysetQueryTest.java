@@ -0,0 +1,158 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do {@link KeysetQuery} com um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class KeysetQueryTest {
+
+    private Connection conn;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table pedido (id int, cliente int)");
+        db = new DbUtil(conn);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+    }
+
+    @Test
+    public void iteratesToExhaustion() throws SQLException {
+        insert(25);
+        assertPages(db.keyset("SELECT * FROM pedido", "id", 10), 10, 10, 5);
+    }
+
+    @Test
+    public void stopsOnEmptyPageAfterExactMultiple() throws SQLException {
+        insert(20);
+        assertPages(db.keyset("SELECT * FROM pedido", "id", 10), 10, 10);
+    }
+
+    @Test
+    public void appliesParameters() throws SQLException {
+        insert(25);
+        KeysetQuery query = db.keyset("SELECT * FROM pedido WHERE cliente = :cliente", "id", 4)
+                .setParameter("cliente", 1);
+        assertPages(query, 4, 4, 4, 1);
+    }
+
+    @Test
+    public void readsPageAfterKey() throws SQLException {
+        insert(25);
+        List<Pedido> page = db.keyset("SELECT * FROM pedido", "id", 10).page(Pedido.class, 20);
+        assertEquals(5, page.size());
+        assertEquals(21, page.get(0).getId().intValue());
+    }
+
+    @Test
+    public void rejectsNullKey() throws SQLException {
+        insert(9);
+        TestDatabase.execute(conn, "insert into pedido values (null, 0)");
+        try {
+            db.keyset("SELECT * FROM pedido", "id", 10).page(Pedido.class, null);
+            fail("Null key accepted");
+        } catch (SQLException e) {
+            // esperado
+        }
+    }
+
+    @Test
+    public void stopsAfterError() throws SQLException {
+        TestDatabase.execute(conn, "insert into pedido values (null, 0)");
+        Iterator<List<Pedido>> pages = db.keyset("SELECT * FROM pedido", "id", 10).pages(Pedido.class)
+                .iterator();
+        try {
+            pages.hasNext();
+            fail("Null key accepted");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        assertFalse(pages.hasNext());
+    }
+
+    private void insert(int count) throws SQLException {
+        for (int i = count; i > 0; i--) {
+            TestDatabase.execute(conn, "insert into pedido values (" + i + ", " + (i % 2) + ")");
+        }
+    }
+
+    private void assertPages(KeysetQuery query, int... sizes) {
+        List<Integer> actual = new ArrayList<Integer>();
+        int previous = 0;
+        for (List<Pedido> page : query.pages(Pedido.class)) {
+            actual.add(page.size());
+            for (Pedido pedido : page) {
+                assertTrue(pedido.getId() > previous);
+                previous = pedido.getId();
+            }
+        }
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int size : sizes) {
+            expected.add(size);
+        }
+        assertEquals(expected, actual);
+    }
+
+    public static class Pedido {
+
+        private Integer id;
+        private Integer cliente;
+
+        public Integer getId() {
+            return id;
+        }
+
+        public void setId(Integer id) {
+            this.id = id;
+        }
+
+        public Integer getCliente() {
+            return cliente;
+        }
+
+        public void setCliente(Integer cliente) {
+            this.cliente = cliente;
+        }
+    }
+}
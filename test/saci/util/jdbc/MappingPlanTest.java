@@ -0,0 +1,195 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+
+import saci.util.CacheStatistics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do mapeamento dos resultados para VOs por {@link MappingPlan}, com um
+ * banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class MappingPlanTest {
+
+    private Connection conn;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table funcionario (id int, nome_completo varchar(50), "
+                + "salario decimal(10,2), admissao date, ativo char(1), setor varchar(20))",
+                "insert into funcionario values (1, 'Ana Souza', 1500.50, '2009-03-01', 'S', 'ti')",
+                "insert into funcionario values (2, 'Bia Lima', null, null, 'N', null)");
+        db = new DbUtil(conn);
+        DbUtil.clearMappingPlans();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DbUtil.setCompiledAccessors(true);
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+    }
+
+    @Test
+    public void mapsColumnsToProperties() throws SQLException {
+        List<Funcionario> funcionarios = db.execute("select * from funcionario order by id").list(Funcionario.class);
+        assertEquals(2, funcionarios.size());
+        Funcionario ana = funcionarios.get(0);
+        assertEquals(1, ana.getId());
+        assertEquals("Ana Souza", ana.getNomeCompleto());
+        assertEquals(new BigDecimal("1500.50"), ana.getSalario());
+        assertTrue(ana.getAdmissao() instanceof Date);
+        assertTrue(ana.isAtivo());
+        // campo público, sem setter
+        assertEquals("ti", ana.setor);
+        Funcionario bia = funcionarios.get(1);
+        assertNull(bia.getSalario());
+        assertNull(bia.getAdmissao());
+        assertNull(bia.setor);
+    }
+
+    @Test
+    public void mapsAliases() throws SQLException {
+        Funcionario funcionario = db.execute("select id, setor as nome_completo from funcionario where id = 1").get(
+                Funcionario.class);
+        assertEquals("ti", funcionario.getNomeCompleto());
+    }
+
+    @Test
+    public void mapsWithReflection() throws SQLException {
+        DbUtil.setCompiledAccessors(false);
+        Funcionario funcionario = db.execute("select * from funcionario where id = 1").get(Funcionario.class);
+        assertEquals("Ana Souza", funcionario.getNomeCompleto());
+        assertEquals("ti", funcionario.setor);
+    }
+
+    @Test
+    public void mapsSingleValues() throws SQLException {
+        List<String> nomes = db.execute("select nome_completo from funcionario order by id").list(String.class);
+        assertEquals("Bia Lima", nomes.get(1));
+        assertEquals(Integer.valueOf(2), db.execute("select count(*) from funcionario").get(Integer.class));
+    }
+
+    @Test
+    public void fillsExistingInstance() throws SQLException {
+        Funcionario funcionario = new Funcionario();
+        funcionario.setor = "antes";
+        assertTrue(db.execute("select id, nome_completo from funcionario where id = 2").get(funcionario));
+        assertEquals("Bia Lima", funcionario.getNomeCompleto());
+        assertEquals("antes", funcionario.setor);
+    }
+
+    @Test
+    public void reusesPlanForSameShape() throws SQLException {
+        CacheStatistics before = DbUtil.getMappingPlanStatistics();
+        db.execute("select id, nome_completo from funcionario where id = 1").get(Funcionario.class);
+        db.execute("select id, nome_completo from funcionario where id = 2").get(Funcionario.class);
+        CacheStatistics after = DbUtil.getMappingPlanStatistics();
+        assertEquals(1, after.getSize());
+        assertEquals(1, after.getMisses() - before.getMisses());
+        assertTrue(after.getHits() > before.getHits());
+    }
+
+    @Test
+    public void buildsPlanPerColumnSet() throws SQLException {
+        Funcionario funcionario = db.execute("select id from funcionario where id = 1").get(Funcionario.class);
+        assertNull(funcionario.getNomeCompleto());
+        funcionario = db.execute("select nome_completo, id from funcionario where id = 1").get(Funcionario.class);
+        assertEquals(1, funcionario.getId());
+        assertEquals("Ana Souza", funcionario.getNomeCompleto());
+        assertEquals(2, DbUtil.getMappingPlanStatistics().getSize());
+    }
+
+    @Test
+    public void buildsPlanPerColumnType() throws SQLException {
+        db.execute("select id from funcionario where id = 1").get(Funcionario.class);
+        Funcionario funcionario = db.execute("select cast(id as bigint) as id from funcionario where id = 2").get(
+                Funcionario.class);
+        assertEquals(2, funcionario.getId());
+        assertEquals(2, DbUtil.getMappingPlanStatistics().getSize());
+    }
+
+    public static class Funcionario {
+
+        private int id;
+        private String nomeCompleto;
+        private BigDecimal salario;
+        private Date admissao;
+        private boolean ativo;
+        public String setor;
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public String getNomeCompleto() {
+            return nomeCompleto;
+        }
+
+        public void setNomeCompleto(String nomeCompleto) {
+            this.nomeCompleto = nomeCompleto;
+        }
+
+        public BigDecimal getSalario() {
+            return salario;
+        }
+
+        public void setSalario(BigDecimal salario) {
+            this.salario = salario;
+        }
+
+        public Date getAdmissao() {
+            return admissao;
+        }
+
+        public void setAdmissao(Date admissao) {
+            this.admissao = admissao;
+        }
+
+        public boolean isAtivo() {
+            return ativo;
+        }
+
+        public void setAtivo(boolean ativo) {
+            this.ativo = ativo;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes dos parametros binários de arquivos, <i>ByteBuffer</i>s e canais
+ * ({@link ParameterStreams}), com um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class ParameterStreamsTest {
+
+    private static final byte[] CONTENT = content(200000);
+
+    private File file;
+    private Connection conn;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException, IOException {
+        file = File.createTempFile("parameter", ".bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(CONTENT);
+        } finally {
+            out.close();
+        }
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table arquivo (id int, conteudo blob)");
+        db = new DbUtil(conn);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        file.delete();
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+    }
+
+    @Test
+    public void readsFile() throws IOException {
+        InputStream in = ParameterStreams.open(file);
+        assertEquals(CONTENT.length, in.available());
+        assertEquals(CONTENT[0] & 0xFF, in.read());
+        byte[] small = new byte[10];
+        assertEquals(10, in.read(small));
+        assertEquals(CONTENT.length - 11, in.available());
+        assertEquals(1000, in.skip(1000));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(CONTENT, 0, 11);
+        out.write(CONTENT, 11, 1000);
+        copy(in, out, 100000);
+        assertArrayEquals(CONTENT, out.toByteArray());
+    }
+
+    @Test
+    public void releasesFileOnClose() throws IOException {
+        InputStream in = ParameterStreams.open(file);
+        in.read();
+        in.close();
+        try {
+            in.read();
+            fail("Read after close");
+        } catch (IOException e) {
+            // esperado
+        }
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void readsBufferWithoutMovingIt() throws IOException {
+        ByteBuffer heap = ByteBuffer.wrap(CONTENT);
+        heap.position(5);
+        ByteBuffer direct = ByteBuffer.allocateDirect(CONTENT.length);
+        direct.put(CONTENT).flip();
+        direct.position(5);
+        for (ByteBuffer buffer : new ByteBuffer[] { heap, direct }) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(CONTENT, 0, 5);
+            copy(ParameterStreams.open(buffer), out, 7000);
+            assertArrayEquals(CONTENT, out.toByteArray());
+            assertEquals(5, buffer.position());
+        }
+    }
+
+    @Test
+    public void bindsFile() throws SQLException {
+        db.execute("insert into arquivo values (1, ?)").addParameter(file).update();
+        assertArrayEquals(CONTENT, stored(1));
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void bindsNamedBuffer() throws SQLException {
+        ByteBuffer direct = ByteBuffer.allocateDirect(CONTENT.length);
+        direct.put(CONTENT).flip();
+        db.execute("insert into arquivo values (1, :conteudo)").setParameter("conteudo", direct).update();
+        db.execute("insert into arquivo values (2, :conteudo)").setParameter("conteudo", ByteBuffer.wrap(CONTENT))
+                .update();
+        assertArrayEquals(CONTENT, stored(1));
+        assertArrayEquals(CONTENT, stored(2));
+    }
+
+    @Test
+    public void bindsChannel() throws SQLException {
+        db.execute("insert into arquivo values (1, ?)").addParameter(
+                Channels.newChannel(new ByteArrayInputStream(CONTENT)), CONTENT.length).update();
+        assertArrayEquals(CONTENT, stored(1));
+    }
+
+    private byte[] stored(int id) throws SQLException {
+        return db.execute("select conteudo from arquivo where id = ?").addParameter(id).get(byte[].class);
+    }
+
+    private static void copy(InputStream in, ByteArrayOutputStream out, int chunk) throws IOException {
+        try {
+            byte[] buffer = new byte[chunk];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] content(int length) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = (byte) (i * 7);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do {@link PartitionedQuery} com um banco H2 em memória, com uma
+ * conexão fixa e com um {@link ConnectionPool}
+ * 
+ * @author Thiago
+ */
+public class PartitionedQueryTest {
+
+    private static final String SELECT = "select id from registro where id >= :lo and id < :hi and grupo = :grupo "
+            + "order by id desc";
+
+    private ConnectionPool pool;
+    private Connection conn;
+
+    @Before
+    public void setUp() throws SQLException {
+        pool = new ConnectionPool(TestDatabase.create(), "sa", "", 4);
+        conn = pool.getConnection();
+        TestDatabase.execute(conn, "create table registro (id int, grupo int)");
+        for (int i = 0; i < 100; i++) {
+            TestDatabase.execute(conn, "insert into registro values (" + i + ", " + (i % 2) + ")");
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+        pool.close();
+    }
+
+    @Test
+    public void runsSlicesInParallel() throws SQLException {
+        assertSlices(new DbUtil(pool));
+        assertEquals(1, pool.getActiveCount());
+    }
+
+    @Test
+    public void runsSlicesSequentiallyOnFixedConnection() throws SQLException {
+        assertSlices(new DbUtil(conn));
+    }
+
+    @Test
+    public void mergesOrderedSlices() throws SQLException {
+        List<Integer> ids = new DbUtil(pool).partition(SELECT, 3).setParameter("grupo", 1).setRange(0, 100).list(
+                Integer.class, Collections.reverseOrder());
+        assertEquals(50, ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(Integer.valueOf(99 - 2 * i), ids.get(i));
+        }
+    }
+
+    @Test
+    public void coversSmallRanges() throws SQLException {
+        List<Integer> ids = new DbUtil(pool).partition(SELECT, 8).setParameter("grupo", 0).setRange(10, 13).list(
+                Integer.class, new Comparator<Integer>() {
+
+                    public int compare(Integer o1, Integer o2) {
+                        return o2.compareTo(o1);
+                    }
+                });
+        assertEquals(2, ids.size());
+        assertEquals(Integer.valueOf(12), ids.get(0));
+        assertEquals(Integer.valueOf(10), ids.get(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void requiresRange() throws SQLException {
+        new DbUtil(pool).partition(SELECT, 2).list(Integer.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvertedRange() throws SQLException {
+        new DbUtil(pool).partition(SELECT, 2).setRange(10, 0);
+    }
+
+    @Test
+    public void releasesConnectionsOnError() throws SQLException {
+        try {
+            new DbUtil(pool).partition("select 1 / (id - 50) from registro where id >= :lo and id < :hi", 4)
+                    .setRange(0, 100).list(Integer.class);
+        } catch (SQLException e) {
+            // esperado: a fatia com o id 50 falha
+        }
+        assertEquals(1, pool.getActiveCount());
+    }
+
+    private void assertSlices(DbUtil db) throws SQLException {
+        List<Integer> ids = db.partition(SELECT, 4).setParameter("grupo", 0).setRange(0, 100).list(Integer.class);
+        assertEquals(50, ids.size());
+        // cada fatia vem ordenada, e as fatias vem em ordem
+        assertEquals(Integer.valueOf(24), ids.get(0));
+        assertEquals(Integer.valueOf(0), ids.get(12));
+        assertEquals(Integer.valueOf(48), ids.get(13));
+    }
+}
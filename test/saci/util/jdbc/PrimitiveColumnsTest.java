@@ -0,0 +1,195 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes da leitura e gravação de propriedades primitivas com um banco H2 em
+ * memória
+ * 
+ * @author Thiago
+ */
+public class PrimitiveColumnsTest {
+
+    private Connection conn;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table medida (id int, total bigint, peso real, valor double, "
+                + "ativo char(1), nivel smallint, faixa tinyint)",
+                "insert into medida values (1, 9000000000, 1.5, 2.25, 'S', 7, 3)",
+                "insert into medida values (2, null, null, null, null, null, null)");
+        db = new DbUtil(conn);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DbUtil.setCompiledAccessors(true);
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+    }
+
+    @Test
+    public void readsPrimitives() throws SQLException {
+        assertValues(db);
+    }
+
+    @Test
+    public void readsPrimitivesWithReflection() throws SQLException {
+        DbUtil.setCompiledAccessors(false);
+        assertValues(db);
+    }
+
+    @Test
+    public void readsPrimitivesThroughSubclass() throws SQLException {
+        DbUtil extended = new DbUtil(conn) {
+            public Integer getInt(int column, ResultSet rs) throws SQLException {
+                Integer value = super.getInt(column, rs);
+                return value == null ? null : Integer.valueOf(value.intValue() * 10);
+            }
+        };
+        Medida medida = extended.execute("select id from medida where id = 1").get(Medida.class);
+        assertEquals(10, medida.getId());
+        medida = extended.execute("select id, total from medida where id = 2").get(Medida.class);
+        assertEquals(0L, medida.getTotal());
+    }
+
+    @Test
+    public void bindsPrimitives() throws SQLException {
+        Medida medida = new Medida();
+        medida.setId(3);
+        medida.setTotal(5000000000L);
+        medida.setPeso(0.5f);
+        medida.setValor(Double.NaN);
+        medida.setAtivo(true);
+        medida.setNivel((short) 2);
+        medida.setFaixa((byte) 1);
+        db.execute("insert into medida values (:id, :total, :peso, :valor, :ativo, :nivel, :faixa)")
+                .setNamedParameter(medida).update();
+        Medida lida = db.execute("select * from medida where id = 3").get(Medida.class);
+        assertEquals(5000000000L, lida.getTotal());
+        assertEquals(0.5f, lida.getPeso(), 0);
+        // NaN é gravado como nulo
+        assertEquals(Integer.valueOf(1), db.execute("select count(*) from medida where id = 3 and valor is null")
+                .get(Integer.class));
+        assertTrue(lida.isAtivo());
+        assertEquals(2, lida.getNivel());
+        assertEquals(1, lida.getFaixa());
+    }
+
+    private static void assertValues(DbUtil db) throws SQLException {
+        Medida medida = db.execute("select * from medida where id = 1").get(Medida.class);
+        assertEquals(1, medida.getId());
+        assertEquals(9000000000L, medida.getTotal());
+        assertEquals(1.5f, medida.getPeso(), 0);
+        assertEquals(2.25, medida.getValor(), 0);
+        assertTrue(medida.isAtivo());
+        assertEquals(7, medida.getNivel());
+        assertEquals(3, medida.getFaixa());
+        // colunas nulas viram zero nas propriedades primitivas
+        medida = db.execute("select * from medida where id = 2").get(Medida.class);
+        assertEquals(0L, medida.getTotal());
+        assertEquals(0f, medida.getPeso(), 0);
+        assertEquals(0d, medida.getValor(), 0);
+        assertFalse(medida.isAtivo());
+        assertEquals(0, medida.getNivel());
+        assertEquals(0, medida.getFaixa());
+    }
+
+    public static class Medida {
+
+        private int id;
+        private long total;
+        private float peso;
+        private double valor;
+        private boolean ativo;
+        private short nivel;
+        private byte faixa;
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public void setTotal(long total) {
+            this.total = total;
+        }
+
+        public float getPeso() {
+            return peso;
+        }
+
+        public void setPeso(float peso) {
+            this.peso = peso;
+        }
+
+        public double getValor() {
+            return valor;
+        }
+
+        public void setValor(double valor) {
+            this.valor = valor;
+        }
+
+        public boolean isAtivo() {
+            return ativo;
+        }
+
+        public void setAtivo(boolean ativo) {
+            this.ativo = ativo;
+        }
+
+        public short getNivel() {
+            return nivel;
+        }
+
+        public void setNivel(short nivel) {
+            this.nivel = nivel;
+        }
+
+        public byte getFaixa() {
+            return faixa;
+        }
+
+        public void setFaixa(byte faixa) {
+            this.faixa = faixa;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do {@link Query#batch(List, int)} com um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class QueryBatchTest {
+
+    private Connection conn;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table produto (id int primary key, nome varchar(20) not null, "
+                + "estoque int)");
+        db = new DbUtil(conn);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+    }
+
+    @Test
+    public void insertsBeans() throws SQLException {
+        List<Produto> produtos = new ArrayList<Produto>();
+        for (int i = 1; i <= 7; i++) {
+            produtos.add(new Produto(i, "produto " + i, i * 10));
+        }
+        int[] counts = db.execute("insert into produto (id, nome, estoque) values (:id, :nome, :estoque)").batch(
+                produtos, 3);
+        assertArrayEquals(new int[] { 1, 1, 1, 1, 1, 1, 1 }, counts);
+        assertEquals(Integer.valueOf(7), db.execute("select count(*) from produto").get(Integer.class));
+        Produto produto = db.execute("select * from produto where id = 7").get(Produto.class);
+        assertEquals("produto 7", produto.getNome());
+        assertEquals(Integer.valueOf(70), produto.getEstoque());
+    }
+
+    @Test
+    public void updatesWithMaps() throws SQLException {
+        TestDatabase.execute(conn, "insert into produto values (1, 'a', 1)", "insert into produto values (2, 'b', 1)",
+                "insert into produto values (3, 'c', 2)");
+        List<Map<String, Object>> parameters = new ArrayList<Map<String, Object>>();
+        parameters.add(estoque(1, 5));
+        parameters.add(estoque(2, 7));
+        parameters.add(estoque(9, 0));
+        int[] counts = db.execute("update produto set estoque = :novo where estoque = :antigo").batch(parameters);
+        assertArrayEquals(new int[] { 2, 1, 0 }, counts);
+        assertEquals(Arrays.asList(5, 5, 7), db.execute("select estoque from produto order by id").list(
+                Integer.class));
+    }
+
+    @Test
+    public void clearsParametersBetweenItems() throws SQLException {
+        List<Map<String, Object>> parameters = new ArrayList<Map<String, Object>>();
+        Map<String, Object> first = new HashMap<String, Object>();
+        first.put("id", 1);
+        first.put("nome", "primeiro");
+        parameters.add(first);
+        Map<String, Object> second = new HashMap<String, Object>();
+        second.put("id", 2);
+        parameters.add(second);
+        try {
+            db.execute("insert into produto (id, nome) values (:id, :nome)").batch(parameters);
+            fail();
+        } catch (SQLException e) {
+            // o nome do primeiro item não pode ser usado pelo segundo
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidBatchSize() throws SQLException {
+        db.execute("insert into produto (id, nome) values (:id, :nome)").batch(new ArrayList<Object>(), 0);
+    }
+
+    private static Map<String, Object> estoque(int antigo, int novo) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("antigo", antigo);
+        map.put("novo", novo);
+        return map;
+    }
+
+    public static class Produto {
+
+        private int id;
+        private String nome;
+        private Integer estoque;
+
+        public Produto() {
+        }
+
+        public Produto(int id, String nome, Integer estoque) {
+            this.id = id;
+            this.nome = nome;
+            this.estoque = estoque;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public String getNome() {
+            return nome;
+        }
+
+        public void setNome(String nome) {
+            this.nome = nome;
+        }
+
+        public Integer getEstoque() {
+            return estoque;
+        }
+
+        public void setEstoque(Integer estoque) {
+            this.estoque = estoque;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import saci.util.CacheStatistics;
+
+/**
+ * Testes da análise e do cache de {@link QueryMap}
+ * 
+ * @author Thiago
+ */
+public class QueryMapTest {
+
+    @Test
+    public void mapsNamedParameters() {
+        QueryMap map = QueryMap.mapQuery("select * from pessoa where nome = :Nome or apelido = :nome and id > :id");
+        assertEquals("select * from pessoa where nome = ? or apelido = ? and id > ? ", map.getQuery());
+        assertEquals(Arrays.asList(1, 2), map.getParameterIndex("NOME"));
+        assertEquals(Arrays.asList(3), map.getParameterIndex("id"));
+        assertNull(map.getParameterIndex("outro"));
+        assertEquals(2, map.listParameters().size());
+    }
+
+    @Test
+    public void keepsLiterals() {
+        QueryMap map = QueryMap.mapQuery("select 'Hora: 10:30', 'D''Avila :x' from dual where id = :id");
+        assertEquals("select 'Hora: 10:30', 'D''Avila :x' from dual where id = ? ", map.getQuery());
+        assertEquals(1, map.listParameters().size());
+    }
+
+    @Test
+    public void cachesParsedQueries() {
+        String sql = "select * from pessoa where id = :id and cache = 'QueryMapTest'";
+        CacheStatistics before = QueryMap.getCacheStatistics();
+        QueryMap map = QueryMap.mapQuery(sql);
+        assertSame(map, QueryMap.mapQuery(new String(sql)));
+        CacheStatistics after = QueryMap.getCacheStatistics();
+        assertEquals(1, after.getMisses() - before.getMisses());
+        assertTrue(after.getHits() > before.getHits());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void parameterIndexesAreImmutable() {
+        QueryMap.mapQuery("delete from pessoa where id = :id").getParameterIndex("id").add(2);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void parametersAreImmutable() {
+        QueryMap.mapQuery("delete from pessoa where nome = :nome").listParameters().clear();
+    }
+}
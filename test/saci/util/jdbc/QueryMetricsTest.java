@@ -0,0 +1,138 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do {@link QueryMetrics} com um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class QueryMetricsTest {
+
+    private Connection conn;
+    private DbUtil db;
+    private QueryMetrics metrics = QueryMetrics.getInstance();
+
+    @Before
+    public void setUp() throws SQLException {
+        metrics.reset();
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table item (id int)", "insert into item values (1)",
+                "insert into item values (2)");
+        db = new DbUtil(conn);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        metrics.setEnabled(true);
+        metrics.reset();
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+    }
+
+    @Test
+    public void recordsExecutions() throws SQLException {
+        String sql = "select * from item where id > :id";
+        for (int i = 0; i < 3; i++) {
+            db.execute(sql).setParameter("id", 0).list(Integer.class);
+        }
+        StatementStatistics stats = QueryMetrics.getStatistics(QueryMap.mapQuery(sql).getQuery());
+        assertNotNull(stats);
+        assertEquals(3, stats.getExecutions());
+        assertEquals(6, stats.getRows());
+        assertEquals(0, stats.getErrors());
+        assertTrue(stats.getMaxTime() >= stats.getAverageTime());
+    }
+
+    @Test
+    public void recordsErrors() throws SQLException {
+        String sql = "select 1 / (id - 1) from item";
+        try {
+            db.execute(sql).list(Integer.class);
+            fail("Invalid query executed");
+        } catch (SQLException e) {
+            // esperado
+        }
+        assertEquals(1, QueryMetrics.getStatistics(QueryMap.mapQuery(sql).getQuery()).getErrors());
+    }
+
+    @Test
+    public void skipsWhenDisabled() throws SQLException {
+        metrics.setEnabled(false);
+        db.execute("select * from item").list(Integer.class);
+        assertEquals(0, metrics.getStatementCount());
+    }
+
+    @Test
+    public void evictsLeastRecentStatements() {
+        QueryMetrics.record("select 0", 1000, 1);
+        for (int i = 1; i <= 5000; i++) {
+            QueryMetrics.record("select " + i, 1000, 1);
+        }
+        assertTrue(metrics.getStatementCount() <= 5000);
+        assertTrue(metrics.getEvictedStatementCount() > 0);
+        assertEquals(null, QueryMetrics.getStatistics("select 0"));
+        assertNotNull(QueryMetrics.getStatistics("select 5000"));
+        // um comando novo continua sendo registrado após o limite
+        QueryMetrics.record("select novo", 1000, 1);
+        assertEquals(1, QueryMetrics.getStatistics("select novo").getExecutions());
+        metrics.reset();
+        assertEquals(0, metrics.getEvictedStatementCount());
+    }
+
+    @Test
+    public void summarizesBySlowest() {
+        QueryMetrics.record("select rapido", 1000, 1);
+        QueryMetrics.record("select lento", 1000000000, 1);
+        String[] slowest = metrics.getSlowest(1);
+        assertEquals(1, slowest.length);
+        assertTrue(slowest[0], slowest[0].contains("select lento"));
+        assertEquals(2, metrics.getSummary().length);
+    }
+
+    @Test
+    public void registersMBean() throws JMException {
+        QueryMetrics.registerMBean();
+        try {
+            ObjectName name = new ObjectName(QueryMetrics.OBJECT_NAME);
+            assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+            assertEquals(Long.valueOf(0), ManagementFactory.getPlatformMBeanServer().getAttribute(name,
+                    "EvictedStatementCount"));
+        } finally {
+            QueryMetrics.unregisterMBean();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes dos parametros nomeados da {@link Query} com um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class QueryTest {
+
+    private static final String SELECT = "select * from cidade where uf = :uf and nome like :nome order by id";
+
+    private Connection conn;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table cidade (id int, nome varchar(50), uf char(2))",
+                "insert into cidade values (1, 'Curitiba', 'PR')", "insert into cidade values (2, 'Cascavel', 'PR')",
+                "insert into cidade values (3, 'Campinas', 'SP')");
+        db = new DbUtil(conn);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+    }
+
+    @Test
+    public void bindsBeanParameters() throws SQLException {
+        Filtro filtro = new Filtro();
+        filtro.setUf("PR");
+        filtro.setNome("C%");
+        List<Cidade> cidades = db.execute(SELECT).setNamedParameter(filtro).list(Cidade.class);
+        assertEquals(2, cidades.size());
+        assertEquals("Curitiba", cidades.get(0).getNome());
+    }
+
+    @Test
+    public void bindsMapParameters() throws SQLException {
+        Map<String, Object> filtro = new HashMap<String, Object>();
+        filtro.put("UF", "SP");
+        filtro.put("nome", "%");
+        List<Cidade> cidades = db.execute(SELECT).setNamedParameter(filtro).list(Cidade.class);
+        assertEquals(1, cidades.size());
+        assertEquals("Campinas", cidades.get(0).getNome());
+    }
+
+    @Test
+    public void skipsMissingParameters() throws SQLException {
+        Cidade cidade = db.execute("select * from cidade where id = :id").setNamedParameter(new Filtro())
+                .setParameter("id", 3).get(Cidade.class);
+        assertEquals("SP", cidade.getUf());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void mapsBeanGetters() throws SQLException {
+        Map<String, Method> getters = db.execute(SELECT).mapBean(new Filtro());
+        assertEquals(2, getters.size());
+        assertEquals("getUf", getters.get("uf").getName());
+        assertNull(getters.get("class"));
+    }
+
+    @Test
+    public void honoursMapBeanOverride() throws SQLException {
+        Query query = new RenamingQuery(db, SELECT, conn);
+        Filtro filtro = new Filtro();
+        filtro.setUf("PR");
+        filtro.setNome("Cu%");
+        List<Cidade> cidades = query.setNamedParameter(filtro).list(Cidade.class);
+        assertEquals(1, cidades.size());
+        assertTrue(((RenamingQuery) query).called);
+    }
+
+    /**
+     * Subclasse que ainda sobrescreve o antigo ponto de extensão
+     */
+    private static class RenamingQuery extends Query {
+
+        boolean called;
+
+        RenamingQuery(DbUtil dbUtil, String query, Connection conn) throws SQLException {
+            super(dbUtil, query, conn);
+        }
+
+        @SuppressWarnings("deprecation")
+        protected Map<String, Method> mapBean(Object bean) throws SQLException {
+            called = true;
+            return super.mapBean(bean);
+        }
+    }
+
+    public static class Filtro {
+
+        private String uf;
+        private String nome;
+
+        public String getUf() {
+            return uf;
+        }
+
+        public void setUf(String uf) {
+            this.uf = uf;
+        }
+
+        public String getNome() {
+            return nome;
+        }
+
+        public void setNome(String nome) {
+            this.nome = nome;
+        }
+    }
+
+    public static class Cidade {
+
+        private Integer id;
+        private String nome;
+        private String uf;
+
+        public Integer getId() {
+            return id;
+        }
+
+        public void setId(Integer id) {
+            this.id = id;
+        }
+
+        public String getNome() {
+            return nome;
+        }
+
+        public void setNome(String nome) {
+            this.nome = nome;
+        }
+
+        public String getUf() {
+            return uf;
+        }
+
+        public void setUf(String uf) {
+            this.uf = uf;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do cache de resultados ({@link Query#cached(long)}) com um banco H2
+ * em memória
+ * 
+ * @author Thiago
+ */
+public class ResultCacheTest {
+
+    private static final String SELECT = "select * from produto where id = :id";
+
+    private Connection conn;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        DbUtil.setResultCacheCapacity(100);
+        DbUtil.clearResultCache();
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table produto (id int primary key, descricao varchar(50), "
+                + "cadastro timestamp, foto blob)",
+                "insert into produto values (1, 'caneta', '2009-01-02 03:04:05', X'0102')",
+                "insert into produto values (2, 'lapis', '2009-01-02 03:04:05', X'0304')");
+        db = new DbUtil(conn);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+        DbUtil.setResultCacheCapacity(0);
+    }
+
+    @Test
+    public void reusesResult() throws SQLException {
+        assertEquals("caneta", get(1).getDescricao());
+        assertEquals("caneta", get(1).getDescricao());
+        assertEquals(1, DbUtil.getResultCacheStatistics().getHits());
+        assertEquals(1, DbUtil.getResultCacheStatistics().getMisses());
+    }
+
+    @Test
+    public void keysByParameters() throws SQLException {
+        assertEquals("caneta", get(1).getDescricao());
+        assertEquals("lapis", get(2).getDescricao());
+        assertEquals(0, DbUtil.getResultCacheStatistics().getHits());
+    }
+
+    @Test
+    public void invalidatesAfterUpdate() throws SQLException {
+        assertEquals("caneta", get(1).getDescricao());
+        db.execute("update produto set descricao = 'borracha' where id = 1").update();
+        assertEquals("borracha", get(1).getDescricao());
+        assertEquals(0, DbUtil.getResultCacheStatistics().getHits());
+    }
+
+    @Test
+    public void invalidatesTable() throws SQLException {
+        assertEquals("caneta", get(1).getDescricao());
+        TestDatabase.execute(conn, "update produto set descricao = 'borracha' where id = 1");
+        assertEquals("caneta", get(1).getDescricao());
+        DbUtil.invalidateResultCache("produto");
+        assertEquals("borracha", get(1).getDescricao());
+    }
+
+    @Test
+    public void copiesCachedBeans() throws SQLException {
+        Produto first = get(1);
+        first.setDescricao("alterado");
+        first.getCadastro().setTime(0);
+        Produto second = get(1);
+        assertEquals(1, DbUtil.getResultCacheStatistics().getHits());
+        assertEquals("caneta", second.getDescricao());
+        assertEquals(first.getId(), second.getId());
+        Produto third = get(1);
+        assertNotSame(second, third);
+        assertNotSame(second.getCadastro(), third.getCadastro());
+        assertEquals(second.getCadastro(), third.getCadastro());
+    }
+
+    @Test
+    public void copiesCachedLists() throws SQLException {
+        String sql = "select * from produto order by id";
+        List<Produto> first = db.execute(sql).cached(60000).list(Produto.class);
+        first.get(0).setDescricao("alterado");
+        first.clear();
+        List<Produto> second = db.execute(sql).cached(60000).list(Produto.class);
+        assertEquals(1, DbUtil.getResultCacheStatistics().getHits());
+        assertEquals(2, second.size());
+        assertEquals("caneta", second.get(0).getDescricao());
+    }
+
+    @Test
+    public void cachesNullResult() throws SQLException {
+        assertNull(get(3));
+        assertNull(get(3));
+        assertEquals(1, DbUtil.getResultCacheStatistics().getHits());
+    }
+
+    @Test
+    public void skipsStreamProperties() throws SQLException, IOException {
+        String sql = "select id, foto from produto where id = :id";
+        for (int i = 0; i < 2; i++) {
+            Foto foto = db.execute(sql).setParameter("id", 1).cached(60000).get(Foto.class);
+            byte[] content = new byte[2];
+            assertEquals(2, foto.getFoto().read(content));
+            assertArrayEquals(new byte[] { 1, 2 }, content);
+        }
+        assertEquals(0, DbUtil.getResultCacheStatistics().getHits());
+    }
+
+    @Test
+    public void skipsTransactions() throws SQLException {
+        conn.setAutoCommit(false);
+        assertEquals("caneta", get(1).getDescricao());
+        assertEquals("caneta", get(1).getDescricao());
+        assertEquals(0, DbUtil.getResultCacheStatistics().getHits());
+        conn.rollback();
+        conn.setAutoCommit(true);
+    }
+
+    private Produto get(int id) throws SQLException {
+        return db.execute(SELECT).setParameter("id", id).cached(60000).get(Produto.class);
+    }
+
+    public static class Produto {
+
+        private Integer id;
+        private String descricao;
+        private Date cadastro;
+
+        public Integer getId() {
+            return id;
+        }
+
+        public void setId(Integer id) {
+            this.id = id;
+        }
+
+        public String getDescricao() {
+            return descricao;
+        }
+
+        public void setDescricao(String descricao) {
+            this.descricao = descricao;
+        }
+
+        public Date getCadastro() {
+            return cadastro;
+        }
+
+        public void setCadastro(Date cadastro) {
+            this.cadastro = cadastro;
+        }
+    }
+
+    public static class Foto {
+
+        private Integer id;
+        private InputStream foto;
+
+        public Integer getId() {
+            return id;
+        }
+
+        public void setId(Integer id) {
+            this.id = id;
+        }
+
+        public InputStream getFoto() {
+            return foto;
+        }
+
+        public void setFoto(InputStream foto) {
+            this.foto = foto;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do {@link ResultIterator} com um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class ResultIteratorTest {
+
+    private ConnectionPool pool;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        pool = new ConnectionPool(TestDatabase.create(), "sa", "", 2);
+        Connection conn = pool.getConnection();
+        try {
+            TestDatabase.execute(conn, "create table linha (id int, descricao varchar(20))");
+            for (int i = 1; i <= 50; i++) {
+                TestDatabase.execute(conn, "insert into linha values (" + i + ", 'linha " + i + "')");
+            }
+        } finally {
+            conn.close();
+        }
+        db = new DbUtil(pool);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        Connection conn = pool.getConnection();
+        try {
+            TestDatabase.execute(conn, "drop all objects");
+        } finally {
+            conn.close();
+        }
+        pool.close();
+    }
+
+    @Test
+    public void readsAllRowsAndReleasesConnection() throws SQLException {
+        ResultIterator<Linha> it = db.execute("select * from linha order by id").setFetchSize(10).iterate(
+                Linha.class);
+        assertEquals(1, pool.getActiveCount());
+        int count = 0;
+        for (Linha linha : it) {
+            count++;
+            assertEquals(count, linha.getId());
+            assertEquals("linha " + count, linha.getDescricao());
+        }
+        assertEquals(50, count);
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void closeReleasesConnection() throws SQLException {
+        ResultIterator<Linha> it = db.execute("select * from linha order by id").iterate(Linha.class);
+        assertTrue(it.hasNext());
+        assertEquals(1, it.next().getId());
+        it.close();
+        assertEquals(0, pool.getActiveCount());
+        assertFalse(it.hasNext());
+        // pode ser chamado mais de uma vez
+        it.close();
+    }
+
+    @Test
+    public void emptyResultReleasesConnection() throws SQLException {
+        ResultIterator<Linha> it = db.execute("select * from linha where id < 0").iterate(Linha.class);
+        assertFalse(it.hasNext());
+        assertEquals(0, pool.getActiveCount());
+        try {
+            it.next();
+            fail();
+        } catch (NoSuchElementException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void iteratesSingleValues() throws SQLException {
+        ResultIterator<Integer> it = db.execute("select id from linha where id <= 3 order by id").iterate(
+                Integer.class);
+        int sum = 0;
+        for (Integer id : it) {
+            sum += id;
+        }
+        assertEquals(6, sum);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void removeIsNotSupported() throws SQLException {
+        ResultIterator<Linha> it = db.execute("select * from linha").iterate(Linha.class);
+        try {
+            it.next();
+            it.remove();
+        } finally {
+            it.close();
+        }
+    }
+
+    public static class Linha {
+
+        private int id;
+        private String descricao;
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public String getDescricao() {
+            return descricao;
+        }
+
+        public void setDescricao(String descricao) {
+            this.descricao = descricao;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do {@link Row} com um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class RowTest {
+
+    private Connection conn;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table documento (id int, conteudo blob, texto clob)",
+                "insert into documento values (1, X'010203', 'um')",
+                "insert into documento values (2, null, null)");
+        db = new DbUtil(conn);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+    }
+
+    @Test
+    public void readsColumnsByLabel() throws SQLException {
+        List<Row> rows = db.execute("select id, texto as descricao from documento order by id").listRows();
+        assertEquals(2, rows.size());
+        Row row = rows.get(0);
+        assertEquals(Arrays.asList("ID", "DESCRICAO"), row.getLabels());
+        assertEquals(1, ((Number) row.get("id")).intValue());
+        assertEquals("um", row.get("Descricao"));
+        assertTrue(row.containsKey("DESCRICAO"));
+        assertNull(row.get("inexistente"));
+    }
+
+    @Test
+    public void materializesLobs() throws SQLException {
+        List<Row> rows = db.execute("select * from documento order by id").listRows();
+        assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) rows.get(0).get("conteudo"));
+        assertEquals("um", rows.get(0).get("texto"));
+        assertNull(rows.get(1).get("conteudo"));
+        assertNull(rows.get(1).get("texto"));
+    }
+}
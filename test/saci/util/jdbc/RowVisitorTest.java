@@ -0,0 +1,168 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do {@link Query#forEach(Class, RowVisitor)} com um banco H2 em
+ * memória
+ * 
+ * @author Thiago
+ */
+public class RowVisitorTest {
+
+    private ConnectionPool pool;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        pool = new ConnectionPool(TestDatabase.create(), "sa", "", 2);
+        Connection conn = pool.getConnection();
+        try {
+            TestDatabase.execute(conn, "create table venda (id int, valor int, cliente varchar(20))",
+                    "insert into venda values (1, 10, 'ana')", "insert into venda values (2, 20, null)",
+                    "insert into venda values (3, 30, 'bia')");
+        } finally {
+            conn.close();
+        }
+        db = new DbUtil(pool);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        Connection conn = pool.getConnection();
+        try {
+            TestDatabase.execute(conn, "drop all objects");
+        } finally {
+            conn.close();
+        }
+        pool.close();
+    }
+
+    @Test
+    public void reusesInstance() throws SQLException {
+        final List<Venda> vendas = new ArrayList<Venda>();
+        final List<String> clientes = new ArrayList<String>();
+        final int[] total = new int[1];
+        int rows = db.execute("select * from venda order by id").forEach(Venda.class, new RowVisitor<Venda>() {
+            public void visit(Venda vo) throws SQLException {
+                vendas.add(vo);
+                clientes.add(vo.getCliente());
+                total[0] += vo.getValor();
+            }
+        });
+        assertEquals(3, rows);
+        assertEquals(60, total[0]);
+        assertSame(vendas.get(0), vendas.get(2));
+        assertEquals("ana", clientes.get(0));
+        // as colunas nulas também são escritas na instância reutilizada
+        assertNull(clientes.get(1));
+        assertEquals("bia", clientes.get(2));
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void callsListeners() throws SQLException {
+        final List<Integer> ids = new ArrayList<Integer>();
+        Query query = db.execute("select * from venda order by id");
+        query.addListener(new QueryListener<Venda>() {
+            public void loadVO(Venda vo, ResultSet rs, DbUtil dbUtil) throws SQLException {
+                ids.add(vo.getId());
+            }
+        });
+        query.forEach(Venda.class, new RowVisitor<Venda>() {
+            public void visit(Venda vo) throws SQLException {
+            }
+        });
+        assertEquals(3, ids.size());
+        assertEquals(Integer.valueOf(3), ids.get(2));
+    }
+
+    @Test
+    public void visitsSingleValues() throws SQLException {
+        final List<Integer> valores = new ArrayList<Integer>();
+        db.execute("select valor from venda order by id").forEach(Integer.class, new RowVisitor<Integer>() {
+            public void visit(Integer vo) throws SQLException {
+                valores.add(vo);
+            }
+        });
+        assertEquals(Integer.valueOf(20), valores.get(1));
+    }
+
+    @Test
+    public void visitorErrorReleasesConnection() throws SQLException {
+        try {
+            db.execute("select * from venda").forEach(Venda.class, new RowVisitor<Venda>() {
+                public void visit(Venda vo) throws SQLException {
+                    throw new SQLException("falha");
+                }
+            });
+            fail();
+        } catch (SQLException e) {
+            assertEquals("falha", e.getMessage());
+        }
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    public static class Venda {
+
+        private int id;
+        private int valor;
+        private String cliente;
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public int getValor() {
+            return valor;
+        }
+
+        public void setValor(int valor) {
+            this.valor = valor;
+        }
+
+        public String getCliente() {
+            return cliente;
+        }
+
+        public void setCliente(String cliente) {
+            this.cliente = cliente;
+        }
+    }
+}
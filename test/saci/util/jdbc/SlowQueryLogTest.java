@@ -0,0 +1,159 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testes do {@link SlowQueryLog} com um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class SlowQueryLogTest {
+
+    private static final String SELECT = "select * from usuario where login = :login and senha = :senha";
+
+    private final List<LogRecord> records = new ArrayList<LogRecord>();
+    private final Handler handler = new Handler() {
+
+        public void publish(LogRecord record) {
+            records.add(record);
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    };
+    private Connection conn;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table usuario (login varchar(20), senha varchar(20))",
+                "insert into usuario values ('admin', 'segredo')");
+        db = new DbUtil(conn);
+        SlowQueryLog.logger.addHandler(handler);
+        SlowQueryLog.logger.setUseParentHandlers(false);
+        // qualquer execução é mais lenta que 1ns
+        SlowQueryLog.setThreshold(1);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        SlowQueryLog.logger.removeHandler(handler);
+        SlowQueryLog.logger.setUseParentHandlers(true);
+        SlowQueryLog.setThreshold(0);
+        DbUtil.setSlowQueryParameterLength(100);
+        DbUtil.setSlowQueryRedactedParameters();
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+    }
+
+    @Test
+    public void logsParametersAndRows() throws SQLException {
+        db.execute(SELECT).setParameter("login", "admin").setParameter("senha", "segredo").list(Usuario.class);
+        assertEquals(1, records.size());
+        String message = records.get(0).getMessage();
+        assertTrue(message, message.startsWith("Slow query: "));
+        assertTrue(message, message.contains("rows=1"));
+        assertTrue(message, message.endsWith("parameters=[1='admin', 2='segredo']"));
+        String sql = (String) records.get(0).getParameters()[0];
+        assertEquals(SELECT.replace(":login", "?").replace(":senha", "?"), sql.trim());
+    }
+
+    @Test
+    public void redactsParameters() throws SQLException {
+        DbUtil.setSlowQueryRedactedParameters("Senha");
+        db.execute(SELECT).setParameter("login", "admin").setParameter("senha", "segredo").list(Usuario.class);
+        assertTrue(records.get(0).getMessage().endsWith("parameters=[1='admin', 2=***]"));
+    }
+
+    @Test
+    public void truncatesParameters() throws SQLException {
+        DbUtil.setSlowQueryParameterLength(2);
+        db.execute(SELECT).setParameter("login", "admin").setParameter("senha", "x").list(Usuario.class);
+        assertTrue(records.get(0).getMessage().endsWith("parameters=[1='ad...', 2='x']"));
+    }
+
+    @Test
+    public void acceptsZeroParameterLength() throws SQLException {
+        DbUtil.setSlowQueryParameterLength(0);
+        db.execute(SELECT).setParameter("login", "admin").setParameter("senha", "").list(Usuario.class);
+        assertTrue(records.get(0).getMessage().endsWith("parameters=[1='...', 2='']"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeParameterLength() {
+        DbUtil.setSlowQueryParameterLength(-1);
+    }
+
+    @Test
+    public void marksParametersNotCaptured() throws SQLException {
+        SlowQueryLog.setThreshold(0);
+        Query query = db.execute(SELECT).setParameter("login", "admin").setParameter("senha", "segredo");
+        SlowQueryLog.setThreshold(1);
+        query.list(Usuario.class);
+        assertTrue(records.get(0).getMessage().endsWith("parameters=<not captured>"));
+    }
+
+    @Test
+    public void skipsFastQueries() throws SQLException {
+        DbUtil.setSlowQueryThreshold(60000);
+        db.execute(SELECT).setParameter("login", "admin").setParameter("senha", "segredo").list(Usuario.class);
+        assertEquals(0, records.size());
+    }
+
+    public static class Usuario {
+
+        private String login;
+        private String senha;
+
+        public String getLogin() {
+            return login;
+        }
+
+        public void setLogin(String login) {
+            this.login = login;
+        }
+
+        public String getSenha() {
+            return senha;
+        }
+
+        public void setSenha(String senha) {
+            this.senha = senha;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+
+package saci.util.jdbc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import saci.util.CacheStatistics;
+
+/**
+ * Testes do cache de statements ({@link DbUtil#setStatementCacheSize(int)})
+ * com um banco H2 em memória
+ * 
+ * @author Thiago
+ */
+public class StatementCacheTest {
+
+    private static final String SELECT = "select id from numero where id > ? order by id";
+
+    private Connection conn;
+    private DbUtil db;
+
+    @Before
+    public void setUp() throws SQLException {
+        conn = TestDatabase.open();
+        TestDatabase.execute(conn, "create table numero (id int)", "insert into numero values (1)",
+                "insert into numero values (2)", "insert into numero values (3)");
+        db = new DbUtil(conn);
+        db.setStatementCacheSize(2);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        db.setStatementCacheSize(0);
+        TestDatabase.execute(conn, "drop all objects");
+        conn.close();
+    }
+
+    @Test
+    public void reusesStatements() throws SQLException {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(3 - i, db.execute(SELECT).addParameter(i).list(Integer.class).size());
+        }
+        CacheStatistics stats = db.getStatementCacheStatistics();
+        assertEquals(2, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getSize());
+    }
+
+    @Test
+    public void resetsStatementState() throws SQLException {
+        assertEquals(1, db.execute(SELECT).addParameter(0).setMaxRows(1).list(Integer.class).size());
+        assertEquals(3, db.execute(SELECT).addParameter(0).list(Integer.class).size());
+        assertEquals(1, db.getStatementCacheStatistics().getHits());
+    }
+
+    @Test
+    public void separatesOpenQueries() throws SQLException {
+        ResultIterator<Integer> outer = db.execute(SELECT).addParameter(0).iterate(Integer.class);
+        try {
+            int rows = 0;
+            for (Integer id : outer) {
+                List<Integer> inner = db.execute(SELECT).addParameter(id).list(Integer.class);
+                assertEquals(3 - id, inner.size());
+                rows++;
+            }
+            assertEquals(3, rows);
+        } finally {
+            outer.close();
+        }
+        // a query de fora e a primeira de dentro precisam de statements
+        // próprios; as outras de dentro reaproveitam o statement devolvido
+        assertEquals(2, db.getStatementCacheStatistics().getMisses());
+        assertEquals(2, db.getStatementCacheStatistics().getHits());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws SQLException {
+        db.execute("select 1 from numero").list(Integer.class);
+        db.execute("select 2 from numero").list(Integer.class);
+        db.execute("select 1 from numero").list(Integer.class);
+        db.execute("select 3 from numero").list(Integer.class);
+        db.execute("select 1 from numero").list(Integer.class);
+        CacheStatistics stats = db.getStatementCacheStatistics();
+        assertEquals(1, stats.getEvictions());
+        assertEquals(2, stats.getHits());
+        assertEquals(2, stats.getSize());
+    }
+
+    @Test
+    public void closesStatementsWhenDisabled() throws SQLException {
+        db.execute(SELECT).addParameter(0).list(Integer.class);
+        db.setStatementCacheSize(0);
+        assertEquals(0, db.getStatementCacheStatistics().getSize());
+        assertEquals(3, db.execute(SELECT).addParameter(0).list(Integer.class).size());
+        assertEquals(0, db.getStatementCacheStatistics().getHits());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeSize() {
+        db.setStatementCacheSize(-1);
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2009 SACI Informática Ltda.
+ */
+
+package saci.util.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bancos H2 em memória para os testes: cada chamada de {@link #create()} gera
+ * um banco novo, que existe enquanto houver uma conexão aberta com ele
+ * 
+ * @author Thiago
+ */
+final class TestDatabase {
+
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    private TestDatabase() {
+    }
+
+    /**
+     * @return a url JDBC de um banco novo
+     */
+    static String create() {
+        return "jdbc:h2:mem:test" + databases.incrementAndGet() + ";DB_CLOSE_DELAY=-1";
+    }
+
+    static Connection connect(String url) throws SQLException {
+        return DriverManager.getConnection(url, "sa", "");
+    }
+
+    /**
+     * @return uma conexão com um banco novo
+     */
+    static Connection open() throws SQLException {
+        return connect(create());
+    }
+
+    static void execute(Connection conn, String... sql) throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            for (String command : sql) {
+                stmt.execute(command);
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+}